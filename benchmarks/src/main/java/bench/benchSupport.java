@@ -0,0 +1,175 @@
+package bench;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+import db.db;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Map;
+
+/**
+ * 基准测试公用的桩对象和数据库准备。
+ * <p>
+ * Server 位于默认包，服务类的行映射方法是 private，这里统一通过反射取 MethodHandle 调用，
+ * 保证测的是业务代码本身而不是为测试改出来的副本。
+ */
+final class benchSupport {
+
+    static final int BOOKS = 200;
+    static final int READERS = 64;
+
+    private static boolean databaseReady = false;
+
+    private benchSupport() {}
+
+    /**
+     * 取某个类的静态方法（含 private / 包级可见）。
+     */
+    static MethodHandle staticMethod(String className, String name, Class<?>... types) {
+        try {
+            Method m = Class.forName(className).getDeclaredMethod(name, types);
+            m.setAccessible(true);
+            return MethodHandles.lookup().unreflect(m);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot access " + className + "." + name, e);
+        }
+    }
+
+    /**
+     * 只支持按列名读取的 ResultSet 桩，用于单独测行映射（不含驱动解码开销）。
+     */
+    static ResultSet row(Map<String, Object> values) {
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class}, (proxy, method, args) -> {
+            String name = method.getName();
+            if (args == null || args.length != 1 || !(args[0] instanceof String)) {
+                if ("wasNull".equals(name)) return false;
+                throw new UnsupportedOperationException(name);
+            }
+            Object v = values.get((String) args[0]);
+            switch (name) {
+                case "getString":
+                    return v == null ? null : v.toString();
+                case "getInt":
+                    return v == null ? 0 : ((Number) v).intValue();
+                case "getLong":
+                    return v == null ? 0L : ((Number) v).longValue();
+                case "getDouble":
+                    return v == null ? 0.0 : ((Number) v).doubleValue();
+                case "getDate":
+                    return v == null ? null : java.sql.Date.valueOf((LocalDate) v);
+                default:
+                    throw new UnsupportedOperationException(name);
+            }
+        });
+    }
+
+    /**
+     * 丢弃响应内容的 HttpExchange 桩（sendJson 会追加响应头，每次调用应新建一个）。
+     */
+    static HttpExchange exchange(String method, String uri) {
+        return new nullExchange(method, URI.create(uri));
+    }
+
+    private static final class nullExchange extends HttpExchange {
+        private final String method;
+        private final URI uri;
+        private final Headers requestHeaders = new Headers();
+        private final Headers responseHeaders = new Headers();
+        private int code;
+
+        nullExchange(String method, URI uri) {
+            this.method = method;
+            this.uri = uri;
+        }
+
+        @Override public Headers getRequestHeaders() { return requestHeaders; }
+        @Override public Headers getResponseHeaders() { return responseHeaders; }
+        @Override public URI getRequestURI() { return uri; }
+        @Override public String getRequestMethod() { return method; }
+        @Override public HttpContext getHttpContext() { return null; }
+        @Override public void close() {}
+        @Override public InputStream getRequestBody() { return new ByteArrayInputStream(new byte[0]); }
+        @Override public OutputStream getResponseBody() { return OutputStream.nullOutputStream(); }
+        @Override public void sendResponseHeaders(int rCode, long responseLength) { code = rCode; }
+        @Override public InetSocketAddress getRemoteAddress() { return new InetSocketAddress(0); }
+        @Override public int getResponseCode() { return code; }
+        @Override public InetSocketAddress getLocalAddress() { return new InetSocketAddress(0); }
+        @Override public String getProtocol() { return "HTTP/1.1"; }
+        @Override public Object getAttribute(String name) { return null; }
+        @Override public void setAttribute(String name, Object value) {}
+        @Override public void setStreams(InputStream i, OutputStream o) {}
+        @Override public HttpPrincipal getPrincipal() { return null; }
+    }
+
+    /**
+     * 把 db 指向内存 H2（MySQL 兼容模式），用 db.initDatabase 建表并写入 BOOKS 本图书、READERS 个读者。
+     * 必须在首次调用 db.getConnection 之前执行。
+     */
+    static synchronized void useEmbeddedDatabase() throws SQLException {
+        if (databaseReady) return;
+        System.setProperty("DB_URL", "jdbc:h2:mem:bench;MODE=MySQL;DB_CLOSE_DELAY=-1");
+        System.setProperty("DB_USER", "sa");
+        System.setProperty("DB_PWD", "");
+        // 表结构与生产一致（db.initDatabase 的 MySQL DDL 在 H2 的 MySQL 模式下可直接执行），这里只写入种子数据
+        db.initDatabase();
+        try (Connection c = db.getConnection()) {
+            try (PreparedStatement ps = c.prepareStatement("INSERT INTO bookInformation VALUES (?,?,?,?,?,?,?,?,?,?,?,?)")) {
+                for (int i = 0; i < BOOKS; i++) {
+                    ps.setString(1, bookId(i));
+                    ps.setString(2, String.format("978%010d", i));
+                    ps.setString(3, "Benchmark Book " + i);
+                    ps.setString(4, "Author " + (i % 37));
+                    ps.setString(5, "Publisher " + (i % 11));
+                    ps.setDate(6, java.sql.Date.valueOf(LocalDate.of(2020, 1, 1).plusDays(i)));
+                    ps.setString(7, "Category " + (i % 8));
+                    ps.setString(8, "A-" + i);
+                    ps.setInt(9, 1_000_000);
+                    ps.setInt(10, 1_000_000);
+                    ps.setInt(11, 50);
+                    ps.setLong(12, 0);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+            try (PreparedStatement ps = c.prepareStatement("INSERT INTO readerInformation VALUES (?,?,?,?,?,?,?,?,?)")) {
+                for (int i = 0; i < READERS; i++) {
+                    ps.setString(1, readerId(i));
+                    ps.setString(2, "Reader " + i);
+                    ps.setString(3, "ID");
+                    ps.setString(4, String.format("C%08d", i));
+                    ps.setString(5, "1380000" + String.format("%04d", i));
+                    ps.setDate(6, java.sql.Date.valueOf(LocalDate.of(2024, 1, 1)));
+                    ps.setInt(7, 0);
+                    ps.setInt(8, 1_000_000);
+                    ps.setInt(9, 0);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+        }
+        databaseReady = true;
+    }
+
+    static String bookId(int i) {
+        return String.format("B%06d", i);
+    }
+
+    static String readerId(int i) {
+        return String.valueOf(1001 + i);
+    }
+}
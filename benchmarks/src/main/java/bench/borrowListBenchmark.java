@@ -0,0 +1,104 @@
+package bench;
+
+import db.db;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import service.borrowService;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 借阅列表和逾期列表分页（读借阅明细宽表 circulationView），数据库为内存 H2。
+ * 预先写入 HISTORY 条借阅记录：约 1/4 已归还、1/8 逾期，其余在借。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class borrowListBenchmark {
+
+    private static final int HISTORY = 50_000;
+
+    @Setup
+    public void setup() throws SQLException {
+        benchSupport.useEmbeddedDatabase();
+        LocalDate start = LocalDate.of(2024, 1, 1);
+        String insertBorrow = "INSERT INTO borrowTable (borrowId, bookId, readerId, borrowDate, dueDate, borrowStates) VALUES (?,?,?,?,?,?)";
+        String insertView = "INSERT INTO circulationView (borrowId, bookId, readerId, borrowDate, dueDate, borrowStates, bookTitle, readerName, category, returnDate) VALUES (?,?,?,?,?,?,?,?,?,?)";
+        try (Connection c = db.getConnection();
+             PreparedStatement pb = c.prepareStatement(insertBorrow);
+             PreparedStatement pv = c.prepareStatement(insertView)) {
+            for (int i = 0; i < HISTORY; i++) {
+                int book = i % benchSupport.BOOKS;
+                int reader = i % benchSupport.READERS;
+                LocalDate borrowDate = start.plusDays(i % 600);
+                int state = i % 4 == 0 ? 1 : (i % 8 == 1 ? 2 : 0);
+                String borrowId = String.format("1999%06d", i);
+                pb.setString(1, borrowId);
+                pb.setString(2, benchSupport.bookId(book));
+                pb.setString(3, benchSupport.readerId(reader));
+                pb.setDate(4, java.sql.Date.valueOf(borrowDate));
+                pb.setDate(5, java.sql.Date.valueOf(borrowDate.plusDays(30)));
+                pb.setInt(6, state);
+                pb.addBatch();
+                pv.setString(1, borrowId);
+                pv.setString(2, benchSupport.bookId(book));
+                pv.setString(3, benchSupport.readerId(reader));
+                pv.setDate(4, java.sql.Date.valueOf(borrowDate));
+                pv.setDate(5, java.sql.Date.valueOf(borrowDate.plusDays(30)));
+                pv.setInt(6, state);
+                pv.setString(7, "Benchmark Book " + book);
+                pv.setString(8, "Reader " + reader);
+                pv.setString(9, "Category " + (book % 8));
+                pv.setDate(10, state == 1 ? java.sql.Date.valueOf(borrowDate.plusDays(10)) : null);
+                pv.addBatch();
+                if (i % 1000 == 999) {
+                    pb.executeBatch();
+                    pv.executeBatch();
+                }
+            }
+            pb.executeBatch();
+            pv.executeBatch();
+        }
+    }
+
+    @Benchmark
+    public Map<String, Object> listFirstPage() throws SQLException {
+        return borrowService.listBorrowsPage(null, null, null, null, null, 0, 20, "exact");
+    }
+
+    @Benchmark
+    public Map<String, Object> listByReader() throws SQLException {
+        return borrowService.listBorrowsPage(benchSupport.readerId(7), null, null, null, null, 0, 20, "exact");
+    }
+
+    @Benchmark
+    public Map<String, Object> listByTitle() throws SQLException {
+        return borrowService.listBorrowsPage(null, null, "Book 17", null, null, 0, 20, "exact");
+    }
+
+    @Benchmark
+    public Map<String, Object> overdueFirstPage() throws SQLException {
+        return borrowService.getOverdueListPage(null, null, 0, 20, "exact");
+    }
+
+    @Benchmark
+    public Map<String, Object> overdueByReaderName() throws SQLException {
+        return borrowService.getOverdueListPage("Reader 3", null, 0, 20, "exact");
+    }
+}
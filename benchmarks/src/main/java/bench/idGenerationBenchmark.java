@@ -0,0 +1,46 @@
+package bench;
+
+import db.sequenceAllocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 借阅号分配（sequenceAllocator 号段），blockSize = 1 时每个号都要访问数据库，相当于改造前的逐号分配。
+ * 多线程竞争可用 -t 指定线程数。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class idGenerationBenchmark {
+
+    @Param({"1", "20", "100"})
+    public int blockSize;
+
+    private String seqName;
+
+    @Setup
+    public void setup() throws SQLException {
+        benchSupport.useEmbeddedDatabase();
+        seqName = "BENCH" + blockSize;
+    }
+
+    @Benchmark
+    public long nextBorrowSequence() throws SQLException {
+        return sequenceAllocator.next(seqName, "borrowTable", "borrowId", seqName, blockSize);
+    }
+}
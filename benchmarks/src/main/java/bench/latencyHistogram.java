@@ -0,0 +1,89 @@
+package bench;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 对数分段的延迟直方图（与 HdrHistogram 相同的思路，精度约 3 位有效数字）。
+ * <p>
+ * 0..2047 按 1 一格；更大的值按 2 的幂分段，每段 1024 格，相对误差不超过 0.1%。
+ * 记录是无锁的（AtomicLongArray），可由多个线程同时写入。数值单位由调用方决定（负载测试中为微秒）。
+ */
+final class latencyHistogram {
+
+    private static final int SUB_BUCKETS = 2048;
+    private static final int HALF = SUB_BUCKETS / 2;
+    private static final int MAX_SHIFT = 40;
+
+    private final AtomicLongArray counts = new AtomicLongArray(SUB_BUCKETS + MAX_SHIFT * HALF);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    void record(long value) {
+        if (value < 0) value = 0;
+        counts.incrementAndGet(indexOf(value));
+        total.incrementAndGet();
+        sum.addAndGet(value);
+        long m;
+        while (value > (m = max.get()) && !max.compareAndSet(m, value)) {
+            // 重试直到写入更大的值
+        }
+    }
+
+    long count() {
+        return total.get();
+    }
+
+    long max() {
+        return max.get();
+    }
+
+    double mean() {
+        long n = total.get();
+        return n == 0 ? 0.0 : (double) sum.get() / n;
+    }
+
+    /**
+     * 百分位（p 取 0..100），返回所在格的上界。
+     */
+    long percentile(double p) {
+        long n = total.get();
+        if (n == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(p / 100.0 * n));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return Math.min(highestEquivalent(i), max.get());
+        }
+        return max.get();
+    }
+
+    void add(latencyHistogram other) {
+        for (int i = 0; i < counts.length(); i++) {
+            long c = other.counts.get(i);
+            if (c != 0) counts.addAndGet(i, c);
+        }
+        total.addAndGet(other.total.get());
+        sum.addAndGet(other.sum.get());
+        long m;
+        long om = other.max.get();
+        while (om > (m = max.get()) && !max.compareAndSet(m, om)) {
+            // 重试直到写入更大的值
+        }
+    }
+
+    private static int indexOf(long v) {
+        if (v < SUB_BUCKETS) return (int) v;
+        int shift = (63 - Long.numberOfLeadingZeros(v)) - 10;
+        if (shift > MAX_SHIFT) return SUB_BUCKETS + MAX_SHIFT * HALF - 1;
+        return SUB_BUCKETS + (shift - 1) * HALF + (int) ((v >>> shift) - HALF);
+    }
+
+    private static long highestEquivalent(int idx) {
+        if (idx < SUB_BUCKETS) return idx;
+        int shift = (idx - SUB_BUCKETS) / HALF + 1;
+        long m = (idx - SUB_BUCKETS) % HALF + HALF;
+        return ((m + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,321 @@
+package bench;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 端到端 HTTP 负载生成器：对运行中的 Server 按配置的比例发送图书检索、批量借书、批量还书和统计请求，
+ * 输出吞吐量以及 p50 / p90 / p99 / p99.9 / 最大延迟。
+ * <p>
+ * 两种模式：
+ * - 开环（--rate N，默认）：按固定到达率每秒发起 N 个请求，不因服务端变慢而减速；
+ *   延迟从计划发出时刻算起（避免协调遗漏），--concurrency 限制同时在途的请求数
+ * - 闭环（--rate 0）：--concurrency 个虚拟线程各自循环发送，测最大吞吐
+ * <p>
+ * 运行：java -cp benchmarks/target/benchmarks.jar bench.loadGenerator --base http://localhost:8080
+ *       --rate 200 --concurrency 64 --duration 60 --warmup 10 --mix search=70,borrow=10,return=10,stats=10
+ * 借书使用 /api/books?availableOnly=true 与 /api/readers 返回的前若干条数据，借出的记录由还书请求批量归还。
+ */
+public class loadGenerator {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final String[] OPERATIONS = {"search", "borrow", "return", "stats"};
+    private static final String[] STATS = {"overview", "popular-books", "overdue", "vacant"};
+
+    private final String base;
+    private final double rate;
+    private final int concurrency;
+    private final long durationNanos;
+    private final long warmupNanos;
+    private final int batch;
+    private final int[] mix = new int[OPERATIONS.length];
+    private final int mixTotal;
+
+    private final HttpClient client;
+    private String token;
+    private final List<String> bookIds = new ArrayList<>();
+    private final List<String> readerIds = new ArrayList<>();
+    private final List<String> searchTerms = new ArrayList<>();
+    private final ConcurrentLinkedQueue<String> borrowed = new ConcurrentLinkedQueue<>();
+
+    private final Map<String, latencyHistogram> histograms = new LinkedHashMap<>();
+    private final Map<String, AtomicLong> errors = new LinkedHashMap<>();
+    private final AtomicLong substituted = new AtomicLong();
+    private volatile long measureFrom;
+
+    loadGenerator(Map<String, String> opts) {
+        base = opts.getOrDefault("base", "http://localhost:8080").replaceAll("/+$", "");
+        rate = Double.parseDouble(opts.getOrDefault("rate", "200"));
+        concurrency = Integer.parseInt(opts.getOrDefault("concurrency", "64"));
+        durationNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(opts.getOrDefault("duration", "60")));
+        warmupNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(opts.getOrDefault("warmup", "10")));
+        batch = Integer.parseInt(opts.getOrDefault("batch", "3"));
+        int sumWeights = 0;
+        Map<String, Integer> weights = parseMix(opts.getOrDefault("mix", "search=70,borrow=10,return=10,stats=10"));
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            mix[i] = weights.getOrDefault(OPERATIONS[i], 0);
+            sumWeights += mix[i];
+        }
+        if (sumWeights <= 0) throw new IllegalArgumentException("mix has no positive weights");
+        mixTotal = sumWeights;
+        for (String op : OPERATIONS) {
+            histograms.put(op, new latencyHistogram());
+            errors.put(op, new AtomicLong());
+        }
+        client = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(5))
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opts = new LinkedHashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+            String key = args[i].substring(2);
+            int eq = key.indexOf('=');
+            if (eq > 0) opts.put(key.substring(0, eq), key.substring(eq + 1));
+            else if (i + 1 < args.length) opts.put(key, args[++i]);
+            else throw new IllegalArgumentException("Missing value for --" + key);
+        }
+        loadGenerator g = new loadGenerator(opts);
+        g.prepare(opts.getOrDefault("user", "123"), opts.getOrDefault("password", "123"));
+        g.run();
+        g.report(System.out);
+        g.drain();
+    }
+
+    /**
+     * 登录并取得用于借书的图书、读者以及检索关键词。
+     */
+    void prepare(String user, String password) throws IOException, InterruptedException {
+        JsonNode login = call("POST", "/api/auth/login", Map.of("username", user, "password", password));
+        token = login.path("data").path("token").asText(null);
+        if (token == null) throw new IllegalStateException("Login failed: " + login);
+
+        for (JsonNode b : call("GET", "/api/books?availableOnly=true&offset=0&limit=500", null).path("data").path("items")) {
+            bookIds.add(b.path("bookId").asText());
+            String name = b.path("bookName").asText("");
+            int[] cps = name.codePoints().toArray();
+            if (cps.length >= 2) searchTerms.add(new String(cps, 0, 2));
+        }
+        for (JsonNode r : call("GET", "/api/readers?offset=0&limit=500", null).path("data").path("items")) {
+            if (r.path("readerStatus").asInt(0) == 0) readerIds.add(r.path("readerId").asText());
+        }
+        if (searchTerms.isEmpty()) searchTerms.add("a");
+        System.out.printf(Locale.ROOT, "Prepared: %d books, %d readers, %d search terms%n", bookIds.size(), readerIds.size(), searchTerms.size());
+    }
+
+    void run() throws InterruptedException {
+        long start = System.nanoTime();
+        measureFrom = start + warmupNanos;
+        long end = measureFrom + durationNanos;
+        Semaphore inFlight = new Semaphore(concurrency);
+        try (ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor()) {
+            if (rate > 0) {
+                // 开环：按计划时刻发出，落后时不补睡，延迟从计划时刻计算
+                long interval = (long) (1_000_000_000L / rate);
+                long next = start;
+                while (next < end) {
+                    long wait = next - System.nanoTime();
+                    if (wait > 0) LockSupport.parkNanos(wait);
+                    long intended = next;
+                    workers.submit(() -> {
+                        inFlight.acquireUninterruptibly();
+                        try {
+                            execute(intended);
+                        } finally {
+                            inFlight.release();
+                        }
+                    });
+                    next += interval;
+                }
+            } else {
+                // 闭环：每个工作线程发完一个再发下一个
+                for (int i = 0; i < concurrency; i++) {
+                    workers.submit(() -> {
+                        while (System.nanoTime() < end) execute(System.nanoTime());
+                    });
+                }
+            }
+        }
+    }
+
+    private void execute(long intended) {
+        String op = pickOperation();
+        boolean ok;
+        try {
+            switch (op) {
+                case "borrow":
+                    ok = borrow();
+                    break;
+                case "return":
+                    List<String> ids = new ArrayList<>(batch);
+                    String id;
+                    while (ids.size() < batch && (id = borrowed.poll()) != null) ids.add(id);
+                    if (ids.isEmpty()) {
+                        // 没有可还的记录时改发检索请求，保持到达率不变
+                        substituted.incrementAndGet();
+                        op = "search";
+                        ok = search();
+                    } else {
+                        ok = giveBack(ids);
+                    }
+                    break;
+                case "stats":
+                    ok = stats();
+                    break;
+                default:
+                    ok = search();
+            }
+        } catch (IOException e) {
+            ok = false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        if (intended < measureFrom) return;
+        histograms.get(op).record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - intended));
+        if (!ok) errors.get(op).incrementAndGet();
+    }
+
+    /**
+     * 归还测试期间借出但还没还的记录，让数据库回到测试前的库存。
+     */
+    void drain() throws IOException, InterruptedException {
+        List<String> ids = new ArrayList<>();
+        String id;
+        while ((id = borrowed.poll()) != null) {
+            ids.add(id);
+            if (ids.size() == 50) {
+                giveBack(ids);
+                ids = new ArrayList<>();
+            }
+        }
+        if (!ids.isEmpty()) giveBack(ids);
+    }
+
+    private String pickOperation() {
+        int r = ThreadLocalRandom.current().nextInt(mixTotal);
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            r -= mix[i];
+            if (r < 0) return OPERATIONS[i];
+        }
+        return OPERATIONS[0];
+    }
+
+    private boolean search() throws IOException, InterruptedException {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        String term = searchTerms.get(rnd.nextInt(searchTerms.size()));
+        String path = "/api/books?search=" + URLEncoder.encode(term, StandardCharsets.UTF_8) + "&page=" + (1 + rnd.nextInt(3)) + "&size=20";
+        return isOk(call("GET", path, null));
+    }
+
+    private boolean borrow() throws IOException, InterruptedException {
+        if (bookIds.isEmpty() || readerIds.isEmpty()) return false;
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        List<String> books = new ArrayList<>(batch);
+        while (books.size() < Math.min(batch, bookIds.size())) {
+            String b = bookIds.get(rnd.nextInt(bookIds.size()));
+            if (!books.contains(b)) books.add(b);
+        }
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("readerId", readerIds.get(rnd.nextInt(readerIds.size())));
+        body.put("books", books);
+        body.put("borrowDate", LocalDate.now().toString());
+        JsonNode resp = call("POST", "/api/borrow", body);
+        if (!isOk(resp)) return false;
+        for (JsonNode id : resp.path("data").path("borrowIds")) borrowed.add(id.asText());
+        return true;
+    }
+
+    private boolean giveBack(List<String> ids) throws IOException, InterruptedException {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("borrowIds", ids);
+        body.put("returnDate", LocalDate.now().toString());
+        return isOk(call("POST", "/api/return", body));
+    }
+
+    private boolean stats() throws IOException, InterruptedException {
+        String type = STATS[ThreadLocalRandom.current().nextInt(STATS.length)];
+        return isOk(call("GET", "/api/statistics/" + type, null));
+    }
+
+    private static boolean isOk(JsonNode resp) {
+        return resp != null && resp.path("code").asInt(-1) == 0;
+    }
+
+    private JsonNode call(String method, String path, Object body) throws IOException, InterruptedException {
+        HttpRequest.Builder b = HttpRequest.newBuilder(URI.create(base + path)).timeout(Duration.ofSeconds(30));
+        if (token != null) b.header("Authorization", "Bearer " + token);
+        if (body != null) {
+            b.header("Content-Type", "application/json");
+            b.method(method, HttpRequest.BodyPublishers.ofByteArray(mapper.writeValueAsBytes(body)));
+        } else {
+            b.method(method, HttpRequest.BodyPublishers.noBody());
+        }
+        HttpResponse<byte[]> resp = client.send(b.build(), HttpResponse.BodyHandlers.ofByteArray());
+        if (resp.statusCode() / 100 != 2) return null;
+        return mapper.readTree(resp.body());
+    }
+
+    void report(java.io.PrintStream out) {
+        double seconds = durationNanos / 1e9;
+        latencyHistogram all = new latencyHistogram();
+        long allErrors = 0;
+        out.printf(Locale.ROOT, "%nMode: %s, concurrency %d, duration %.0fs (after %.0fs warmup)%n",
+                rate > 0 ? String.format(Locale.ROOT, "open loop %.1f req/s", rate) : "closed loop", concurrency, seconds, warmupNanos / 1e9);
+        out.printf(Locale.ROOT, "%-8s %9s %8s %9s %9s %9s %9s %9s %9s %9s%n",
+                "op", "count", "errors", "req/s", "mean ms", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        for (Map.Entry<String, latencyHistogram> e : histograms.entrySet()) {
+            long err = errors.get(e.getKey()).get();
+            line(out, e.getKey(), e.getValue(), err, seconds);
+            all.add(e.getValue());
+            allErrors += err;
+        }
+        line(out, "total", all, allErrors, seconds);
+        if (substituted.get() > 0) {
+            out.printf(Locale.ROOT, "%d return requests had nothing to return and were sent as searches%n", substituted.get());
+        }
+    }
+
+    private static void line(java.io.PrintStream out, String name, latencyHistogram h, long err, double seconds) {
+        out.printf(Locale.ROOT, "%-8s %9d %8d %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f %9.2f%n",
+                name, h.count(), err, h.count() / seconds, h.mean() / 1000.0,
+                h.percentile(50) / 1000.0, h.percentile(90) / 1000.0, h.percentile(99) / 1000.0,
+                h.percentile(99.9) / 1000.0, h.max() / 1000.0);
+    }
+
+    private static Map<String, Integer> parseMix(String spec) {
+        Map<String, Integer> m = new LinkedHashMap<>();
+        for (String part : spec.split(",")) {
+            String[] kv = part.trim().split("=", 2);
+            if (kv.length != 2) throw new IllegalArgumentException("Invalid mix entry: " + part);
+            m.put(kv[0].trim().toLowerCase(Locale.ROOT), Integer.parseInt(kv[1].trim()));
+        }
+        return m;
+    }
+}
@@ -0,0 +1,47 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Server.queryToMap 解析典型列表请求的查询串。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class queryParseBenchmark {
+
+    private static final String BOOKS_QUERY = "page=3&size=20&search=java+programming&author=Bruce%20Eckel&category=computer&sort=relevance";
+    private static final String BORROW_QUERY = "readerId=1001&status=borrowed&bookTitle=&borrowDateFrom=2025-01-01&borrowDateTo=2025-12-31&offset=40&limit=20&totalMode=estimate";
+
+    private MethodHandle queryToMap;
+
+    @Setup
+    public void setup() {
+        queryToMap = benchSupport.staticMethod("Server", "queryToMap", String.class);
+    }
+
+    @Benchmark
+    public Object booksQuery() throws Throwable {
+        return queryToMap.invoke(BOOKS_QUERY);
+    }
+
+    @Benchmark
+    public Object borrowQuery() throws Throwable {
+        return queryToMap.invoke(BORROW_QUERY);
+    }
+}
@@ -0,0 +1,49 @@
+package bench;
+
+import http.router;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Server 路由表按方法和路径分派（字面量、带变量、变量后回退三种路径）。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class routeMatchBenchmark {
+
+    private router routes;
+
+    @Setup
+    public void setup() throws Throwable {
+        routes = (router) benchSupport.staticMethod("Server", "buildRoutes").invoke();
+    }
+
+    @Benchmark
+    public Object bookList() {
+        return routes.match("GET", "/api/books");
+    }
+
+    @Benchmark
+    public Object borrowDetails() {
+        return routes.match("GET", "/api/statistics/borrow-details/1001").params.get("readerId");
+    }
+
+    @Benchmark
+    public Object readerByCardFallback() {
+        return routes.match("GET", "/api/readers/byCard").params.get("readerId");
+    }
+}
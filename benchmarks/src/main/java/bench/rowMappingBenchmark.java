@@ -0,0 +1,99 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.invoke.MethodHandle;
+import java.sql.ResultSet;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 行映射（mapRowToBook / mapRowToReader / mapRowToBorrowWithDetails）单行耗时，ResultSet 为内存桩。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class rowMappingBenchmark {
+
+    private MethodHandle mapBook;
+    private MethodHandle mapReader;
+    private MethodHandle mapBorrowWithDetails;
+    private ResultSet bookRow;
+    private ResultSet readerRow;
+    private ResultSet borrowRow;
+
+    @Setup
+    public void setup() {
+        mapBook = benchSupport.staticMethod("service.bookService", "mapRowToBook", ResultSet.class);
+        mapReader = benchSupport.staticMethod("service.readerService", "mapRowToReader", ResultSet.class);
+        mapBorrowWithDetails = benchSupport.staticMethod("service.borrowService", "mapRowToBorrowWithDetails", ResultSet.class);
+
+        Map<String, Object> book = new HashMap<>();
+        book.put("bookId", "B000001");
+        book.put("isbn", "9787111213826");
+        book.put("bookName", "Java 编程思想");
+        book.put("bookAuthor", "Bruce Eckel");
+        book.put("bookPublisher", "机械工业出版社");
+        book.put("bookPubDate", LocalDate.of(2007, 6, 1));
+        book.put("bookCategory", "计算机");
+        book.put("bookPrice", 108);
+        book.put("bookLocation", "A-01-03");
+        book.put("bookTotalCopies", 5);
+        book.put("bookAvailableCopies", 3);
+        book.put("borrowCount", 42);
+        bookRow = benchSupport.row(book);
+
+        Map<String, Object> reader = new HashMap<>();
+        reader.put("readerId", "1001");
+        reader.put("readerName", "张三");
+        reader.put("readerCardType", "身份证");
+        reader.put("readerCardNumber", "110101199001011234");
+        reader.put("readerPhoneNumber", "13800000000");
+        reader.put("registerDate", LocalDate.of(2024, 3, 1));
+        reader.put("readerStatus", 0);
+        reader.put("totalBorrowNumber", 10);
+        reader.put("nowBorrowNumber", 2);
+        readerRow = benchSupport.row(reader);
+
+        Map<String, Object> borrow = new HashMap<>();
+        borrow.put("borrowId", "20250001");
+        borrow.put("bookId", "B000001");
+        borrow.put("readerId", "1001");
+        borrow.put("borrowDate", LocalDate.of(2025, 3, 1));
+        borrow.put("dueDate", LocalDate.of(2025, 4, 1));
+        borrow.put("borrowStates", 1);
+        borrow.put("bookTitle", "Java 编程思想");
+        borrow.put("readerName", "张三");
+        borrow.put("returnDate", LocalDate.of(2025, 3, 20));
+        borrowRow = benchSupport.row(borrow);
+    }
+
+    @Benchmark
+    public Object mapRowToBook() throws Throwable {
+        return mapBook.invoke(bookRow);
+    }
+
+    @Benchmark
+    public Object mapRowToReader() throws Throwable {
+        return mapReader.invoke(readerRow);
+    }
+
+    @Benchmark
+    public Object mapRowToBorrowWithDetails() throws Throwable {
+        return mapBorrowWithDetails.invoke(borrowRow);
+    }
+}
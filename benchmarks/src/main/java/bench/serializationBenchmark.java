@@ -0,0 +1,62 @@
+package bench;
+
+import com.sun.net.httpserver.HttpExchange;
+import entity.bookInformation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.invoke.MethodHandle;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Server.sendOk 序列化一页图书列表（Jackson + 写入响应流，响应流为丢弃输出的桩）。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class serializationBenchmark {
+
+    @Param({"20", "100", "1000"})
+    public int pageSize;
+
+    private MethodHandle sendOk;
+    private Map<String, Object> page;
+
+    @Setup
+    public void setup() {
+        sendOk = benchSupport.staticMethod("Server", "sendOk", HttpExchange.class, Object.class);
+        List<bookInformation> items = new ArrayList<>(pageSize);
+        for (int i = 0; i < pageSize; i++) {
+            items.add(new bookInformation(benchSupport.bookId(i), String.format("978%010d", i), "Benchmark Book " + i,
+                    "Author " + (i % 37), "Publisher " + (i % 11), LocalDate.of(2020, 1, 1).plusDays(i), "Category " + (i % 8),
+                    50, "A-" + i, 5, 3, i));
+        }
+        page = new HashMap<>();
+        page.put("items", items);
+        page.put("total", pageSize * 10);
+    }
+
+    @Benchmark
+    public int sendOkPage() throws Throwable {
+        HttpExchange ex = benchSupport.exchange("GET", "/api/books?page=1&size=" + pageSize);
+        sendOk.invoke(ex, (Object) page);
+        return ex.getResponseCode();
+    }
+}
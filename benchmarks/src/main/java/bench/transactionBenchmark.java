@@ -0,0 +1,78 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import service.borrowService;
+import service.returnService;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 借书 + 还书事务（单本和 5 本批量），数据库为内存 H2。
+ * 每次操作借出后立即归还，库存和读者在借数量保持不变；每个线程使用自己的读者，避免读者行锁竞争。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class transactionBenchmark {
+
+    private static final AtomicInteger threads = new AtomicInteger();
+    private static final int BATCH = 5;
+
+    private String readerId;
+    private int nextBook;
+    private LocalDate today;
+
+    @Setup
+    public void setup() throws SQLException {
+        benchSupport.useEmbeddedDatabase();
+        int t = threads.getAndIncrement();
+        readerId = benchSupport.readerId(t % benchSupport.READERS);
+        nextBook = t * 7;
+        today = LocalDate.now();
+    }
+
+    private String nextBookId() {
+        nextBook = (nextBook + 1) % benchSupport.BOOKS;
+        return benchSupport.bookId(nextBook);
+    }
+
+    @Benchmark
+    public long borrowAndReturnSingle() throws SQLException {
+        long borrowId = borrowService.createBorrowSingle(nextBookId(), readerId, today, today.plusDays(30));
+        return returnService.createReturn(String.valueOf(borrowId), today);
+    }
+
+    @Benchmark
+    public int borrowAndReturnBatch() throws SQLException {
+        List<String> bookIds = new ArrayList<>(BATCH);
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < BATCH; i++) {
+            String id = nextBookId();
+            bookIds.add(id);
+            counts.put(id, 1);
+        }
+        List<Long> borrowIds = borrowService.createBorrowBatch(bookIds, readerId, today, today.plusDays(30), counts);
+        List<String> ids = new ArrayList<>(borrowIds.size());
+        for (long id : borrowIds) ids.add(String.valueOf(id));
+        return returnService.createReturnBatch(ids, today).size();
+    }
+}
@@ -31,6 +31,11 @@ instance.interceptors.request.use(config => {
 
 instance.interceptors.response.use(
   res => {
+    // Token renewed by the server shortly before expiry
+    const renewed = res.headers['x-auth-token']
+    if (renewed) {
+      localStorage.setItem('token', renewed)
+    }
     // Return the entire response data, not just res.data
     return res.data
   },
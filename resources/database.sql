@@ -57,6 +57,39 @@ CREATE TABLE returnTable (
 );
 
 
+-- 创建编号序列表（借阅号/归还号号段分配）
+CREATE TABLE idSequence (
+    seqName VARCHAR(40) PRIMARY KEY,
+    nextValue BIGINT NOT NULL
+);
+
+-- 创建 token 吊销表（签名 token 登出后各实例共享的吊销记录）
+CREATE TABLE tokenRevocation (
+    jti VARCHAR(32) PRIMARY KEY,
+    expiresAt BIGINT NOT NULL,
+    revokedAt BIGINT NOT NULL,
+    INDEX idx_revokedAt (revokedAt)
+);
+
+-- 创建借阅明细宽表（冗余书名/分类/读者姓名/归还日期，借阅列表和逾期列表只查这张表，由借阅/归还事务同步维护）
+CREATE TABLE circulationView (
+    borrowId VARCHAR(20) PRIMARY KEY,
+    bookId VARCHAR(20),
+    readerId VARCHAR(20),
+    borrowDate DATE NOT NULL,
+    dueDate DATE NOT NULL,
+    borrowStates INT NOT NULL,
+    bookTitle VARCHAR(255),
+    readerName VARCHAR(50),
+    category VARCHAR(50),
+    returnDate DATE,
+    INDEX idx_cv_states_due (borrowStates, dueDate, borrowId),
+    INDEX idx_cv_states_borrow (borrowStates, borrowDate, borrowId),
+    INDEX idx_cv_borrowDate (borrowDate, borrowId),
+    INDEX idx_cv_reader (readerId, borrowDate),
+    INDEX idx_cv_book (bookId)
+);
+
 
 CREATE UNIQUE INDEX uk_isbn ON bookInformation (isbn);
 CREATE INDEX idx_bookName ON bookInformation (bookName);
@@ -74,6 +107,7 @@ CREATE INDEX fk_bookId ON borrowTable (bookId);
 CREATE INDEX fk_readerId ON borrowTable (readerId);
 CREATE INDEX idx_borrowStates ON borrowTable (borrowStates);
 CREATE INDEX idx_dueDate ON borrowTable (dueDate);
+CREATE INDEX idx_borrowDate ON borrowTable (borrowDate);
 CREATE INDEX idx_reader_borrow ON borrowTable (readerId, borrowDate);
 CREATE INDEX idx_book_stats ON borrowTable (bookId, borrowDate);
 
@@ -181,3 +215,11 @@ INSERT INTO returnTable (returnId, borrowId, returnDate, overDays, fine) VALUES
 ('RT20231225008', '20230020', '2025-12-25', 0, 0),
 ('RT20231215009', '20230015', '2025-12-15', 0, 0),
 ('RT20231220010', '20230022', '2025-12-20', 0, 0);
+
+-- 由测试数据生成借阅明细宽表
+INSERT INTO circulationView (borrowId, bookId, readerId, borrowDate, dueDate, borrowStates, bookTitle, readerName, category, returnDate)
+SELECT bt.borrowId, bt.bookId, bt.readerId, bt.borrowDate, bt.dueDate, bt.borrowStates, bi.bookName, ri.readerName, bi.bookCategory, rt.returnDate
+FROM borrowTable bt
+LEFT JOIN bookInformation bi ON bt.bookId = bi.bookId
+LEFT JOIN readerInformation ri ON bt.readerId = ri.readerId
+LEFT JOIN returnTable rt ON bt.borrowId = rt.borrowId;
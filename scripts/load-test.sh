@@ -0,0 +1,44 @@
+#!/usr/bin/env bash
+# 端到端负载测试（Linux）：编译并启动后端，然后运行 bench.loadGenerator。
+# 用法：scripts/load-test.sh [loadGenerator 参数，如 --rate 300 --duration 60 --mix search=60,borrow=15,return=15,stats=10]
+#
+# 环境变量：
+#   START_DB=1   用 Docker 启动一个临时 MySQL 8（端口 DB_PORT，默认 3307）并导入 resources/database.sql，结束后删除
+#   DB_URL / DB_USER / DB_PWD   不启动临时库时使用的数据库（默认与后端相同）
+set -euo pipefail
+
+ROOT="$(cd "$(dirname "$0")/.." && pwd)"
+cd "$ROOT"
+
+DB_PORT="${DB_PORT:-3307}"
+CONTAINER="bcs-loadtest-mysql"
+SERVER_PID=""
+
+cleanup() {
+    if [ -n "$SERVER_PID" ]; then kill "$SERVER_PID" 2>/dev/null || true; fi
+    if [ "${START_DB:-0}" = "1" ]; then docker rm -f "$CONTAINER" >/dev/null 2>&1 || true; fi
+}
+trap cleanup EXIT
+
+if [ "${START_DB:-0}" = "1" ]; then
+    echo "Starting MySQL on port $DB_PORT"
+    docker run -d --rm --name "$CONTAINER" -e MYSQL_ROOT_PASSWORD=loadtest -p "$DB_PORT:3306" mysql:8.0 >/dev/null
+    until docker exec "$CONTAINER" mysqladmin ping -uroot -ploadtest --silent >/dev/null 2>&1; do sleep 1; done
+    docker exec -i "$CONTAINER" mysql -uroot -ploadtest < resources/database.sql
+    export DB_URL="jdbc:mysql://127.0.0.1:$DB_PORT/LibraryDB?useSSL=false&allowPublicKeyRetrieval=true&serverTimezone=UTC&characterEncoding=UTF-8&rewriteBatchedStatements=true&useServerPrepStmts=true"
+    export DB_USER=root
+    export DB_PWD=loadtest
+fi
+
+echo "Building server and load generator"
+./mvnw -q -B compile
+./mvnw -q -B -f benchmarks/pom.xml package -DskipTests
+
+./mvnw -q -B exec:java > target/load-test-server.log 2>&1 &
+SERVER_PID=$!
+until curl -s -o /dev/null http://localhost:8080/api/books; do
+    if ! kill -0 "$SERVER_PID" 2>/dev/null; then echo "Server failed to start, see target/load-test-server.log"; exit 1; fi
+    sleep 1
+done
+
+java -cp benchmarks/target/benchmarks.jar bench.loadGenerator --base http://localhost:8080 "$@"
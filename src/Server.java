@@ -1,3 +1,4 @@
+import com.sun.net.httpserver.Filter;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpServer;
@@ -8,19 +9,43 @@ import service.borrowService;
 import service.readerService;
 import service.returnService;
 import db.db;
+import db.statementProfiler;
+import dto.bookRequest;
+import dto.borrowRequest;
+import dto.invalidRequestException;
+import dto.loginRequest;
+import dto.readerRequest;
+import dto.requestBody;
+import dto.returnRequest;
+import dto.stockRequest;
+import http.router;
+import metrics.metricsRegistry;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.BufferedOutputStream;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.URI;
 import java.time.LocalDate;
 import java.util.*;
-import com.fasterxml.jackson.core.type.TypeReference;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 import java.sql.SQLException;
 import java.time.LocalDate;
 import java.util.*;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
@@ -35,26 +60,192 @@ public class Server {
         int port = 8080;
         HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
         
+        // 访问数据库的 handler 共用一个并发限制器，避免阻塞的 JDBC 调用数超过连接池容量
+        ConcurrencyLimiter dbLimiter = new ConcurrencyLimiter(
+                db.intConfig("SERVER_MAX_CONCURRENCY", db.getPool().getMaxSize()),
+                db.longConfig("SERVER_QUEUE_TIMEOUT_MS", 10000L));
+
         // Add CORS header to all responses
-        server.createContext("/api", new CorsHandler());
+        context(server, "/api", instrument("/api", new CorsHandler()));
 
         // Books
-        server.createContext("/api/books", new BooksHandler());
-        server.createContext("/api/readers", new ReadersHandler());
-        server.createContext("/api/borrow", new BorrowHandler());
-        server.createContext("/api/return", new ReturnHandler());
+        context(server, "/api/books", instrument("/api/books", dbLimiter.wrap(routed(true))));
+        context(server, "/api/readers", instrument("/api/readers", dbLimiter.wrap(routed(true))));
+        context(server, "/api/borrow", instrument("/api/borrow", dbLimiter.wrap(routed(true))));
+        context(server, "/api/return", instrument("/api/return", dbLimiter.wrap(routed(true))));
         // Auth and Statistics
-        server.createContext("/api/auth", new AuthHandler());
-        server.createContext("/api/auth/login", new LoginHandler());
-        server.createContext("/api/auth/logout", new LogoutHandler());
-        server.createContext("/api/statistics", new StatisticsHandler());
+        context(server, "/api/auth", instrument("/api/auth", routed(false)));
+        context(server, "/api/auth/login", instrument("/api/auth/login", routed(false)));
+        context(server, "/api/auth/logout", instrument("/api/auth/logout", routed(false)));
+        context(server, "/api/statistics", instrument("/api/statistics", dbLimiter.wrap(routed(true))));
+        context(server, "/api/export", instrument("/api/export", dbLimiter.wrap(routed(true))));
+        context(server, "/api/import", instrument("/api/import", dbLimiter.wrap(routed(true))));
+        // 指标不经过并发限制器，服务繁忙时也能抓取
+        context(server, "/api/metrics", new MetricsHandler());
+
+        // 概览计数器启动时加载一次，之后由写操作增量维护
+        service.overviewCounters.start();
+        // 逾期状态由后台分块扫描更新，不再依赖手动 POST /api/borrow/refresh
+        service.overdueSweeper.start();
+        // 借阅明细宽表由借阅/归还事务同步维护，启动时及定期与源表对账
+        service.circulationView.start();
+        // 过期会话由后台按过期时间分桶清理
+        service.authService.start();
 
-        server.setExecutor(null);
+        ExecutorService executor = createRequestExecutor();
+        server.setExecutor(executor);
         server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop(1);
+            executor.shutdown();
+        }, "server-shutdown"));
         System.out.println("Server started on port " + port);
         System.out.println("https://localhost:3000/");
     }
 
+    /**
+     * 创建请求执行器。SERVER_EXECUTOR 可选：
+     * - virtual（默认）：每个请求一个虚拟线程
+     * - platform：固定大小的平台线程池，大小由 SERVER_THREADS 指定（默认 CPU 核数 * 2）
+     */
+    static ExecutorService createRequestExecutor() {
+        String mode = db.config("SERVER_EXECUTOR", "virtual");
+        if ("platform".equalsIgnoreCase(mode)) {
+            int threads = db.intConfig("SERVER_THREADS", Runtime.getRuntime().availableProcessors() * 2);
+            AtomicInteger seq = new AtomicInteger();
+            System.out.println("Request executor: platform pool, " + threads + " threads");
+            return new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(db.intConfig("SERVER_QUEUE_CAPACITY", 1000)),
+                    r -> new Thread(r, "http-worker-" + seq.incrementAndGet()),
+                    Server::rejectWhenSaturated);
+        }
+        System.out.println("Request executor: virtual thread per request");
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("http-vt-", 0).factory());
+    }
+
+    // 线程池和队列都已满时，被拒绝的请求交给这里的虚拟线程，只回复 503
+    private static final ThreadLocal<Boolean> REJECTED = new ThreadLocal<>();
+
+    /**
+     * 平台线程池的拒绝策略：不能在分发线程上执行请求（会阻塞所有连接的接收），
+     * 也拿不到尚未解析的 HttpExchange，因此在一个虚拟线程中解析请求，由 OVERLOAD_FILTER 回复 503 并关闭。
+     */
+    private static void rejectWhenSaturated(Runnable r, ThreadPoolExecutor pool) {
+        Thread.ofVirtual().name("http-rejected").start(() -> {
+            REJECTED.set(Boolean.TRUE);
+            r.run();
+        });
+    }
+
+    /**
+     * 注册在每个上下文上：被拒绝的请求不进入 handler，直接回复 503 并关闭连接。
+     */
+    static final Filter OVERLOAD_FILTER = new Filter() {
+        @Override
+        public void doFilter(HttpExchange ex, Chain chain) throws IOException {
+            if (REJECTED.get() == null) { chain.doFilter(ex); return; }
+            try {
+                ex.getResponseHeaders().set("Connection", "close");
+                ex.getResponseHeaders().set("Retry-After", "1");
+                sendJson(ex,503, Map.of("code",503,"message","服务繁忙，请稍后重试"));
+            } finally {
+                ex.close();
+            }
+        }
+
+        @Override
+        public String description() {
+            return "503 for requests rejected by the request executor";
+        }
+    };
+
+    private static void context(HttpServer server, String path, HttpHandler handler) {
+        server.createContext(path, handler).getFilters().add(OVERLOAD_FILTER);
+    }
+
+    /**
+     * 并发限制器：限制同时执行的请求数，超过时排队等待，排队超时返回 503。
+     */
+    static class ConcurrencyLimiter {
+        private final Semaphore permits;
+        private final long queueTimeoutMs;
+
+        ConcurrencyLimiter(int maxConcurrent, long queueTimeoutMs) {
+            this.permits = new Semaphore(Math.max(1, maxConcurrent), true);
+            this.queueTimeoutMs = queueTimeoutMs;
+        }
+
+        HttpHandler wrap(HttpHandler delegate) {
+            return ex -> {
+                // 预检请求不访问数据库，直接放行
+                if ("OPTIONS".equals(ex.getRequestMethod())) { delegate.handle(ex); return; }
+                boolean acquired;
+                try {
+                    acquired = permits.tryAcquire(queueTimeoutMs, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    acquired = false;
+                }
+                if (!acquired) {
+                    sendJson(ex,503, Map.of("code",503,"message","服务繁忙，请稍后重试"));
+                    return;
+                }
+                try {
+                    delegate.handle(ex);
+                } finally {
+                    permits.release();
+                }
+            };
+        }
+    }
+
+    /**
+     * 记录请求数、状态码和耗时（包在并发限制器外层，排队时间也计入延迟）。
+     * route 使用注册的上下文路径而不是实际 URI，避免标签随 ID 无限增长。
+     */
+    static HttpHandler instrument(String route, HttpHandler delegate) {
+        if (!metricsRegistry.enabled()) return delegate;
+        return ex -> {
+            metricsRegistry.httpStarted(route);
+            long start = System.nanoTime();
+            int status = 500;
+            try {
+                delegate.handle(ex);
+                status = ex.getResponseCode() > 0 ? ex.getResponseCode() : 500;
+            } finally {
+                metricsRegistry.httpFinished(route, ex.getRequestMethod(), status, System.nanoTime() - start);
+            }
+        };
+    }
+
+    /**
+     * GET /api/metrics：Prometheus 文本格式的指标，附带连接池状态（db_pool_*）和登录会话状态（auth_*）。
+     */
+    static class MetricsHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange ex) throws IOException {
+            if (!"GET".equalsIgnoreCase(ex.getRequestMethod())) { sendJson(ex,405, Map.of("code",405,"message","不允许的方法")); return; }
+            if (!metricsRegistry.enabled()) { sendJson(ex,404, Map.of("code",404,"message","指标未启用")); return; }
+            Map<String, Number> gauges = new LinkedHashMap<>();
+            try {
+                for (Map.Entry<String, Object> e : db.getPoolStats().entrySet()) {
+                    if (e.getValue() instanceof Number) gauges.put("db_pool_" + e.getKey(), (Number) e.getValue());
+                }
+            } catch (SQLException e) {
+                // 连接池不可用时仍输出 HTTP 指标
+            }
+            for (Map.Entry<String, Object> e : service.authService.getStats().entrySet()) {
+                if (e.getValue() instanceof Number) gauges.put("auth_" + e.getKey(), (Number) e.getValue());
+            }
+            byte[] bytes = metricsRegistry.render(gauges).getBytes(java.nio.charset.StandardCharsets.UTF_8);
+            ex.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            ex.sendResponseHeaders(200, bytes.length);
+            try (OutputStream os = ex.getResponseBody()) {
+                os.write(bytes);
+            }
+        }
+    }
+
     // Handler helpers
     static Map<String, String> queryToMap(String query) {
         Map<String, String> result = new HashMap<>();
@@ -70,29 +261,145 @@ public class Server {
         return s.replace("%20", " ").replace("+", " ");
     }
 
-    static String readBody(HttpExchange ex) throws IOException {
-        InputStream is = ex.getRequestBody();
-        try (Scanner s = new Scanner(is, "UTF-8").useDelimiter("\\A")) {
-            String body = s.hasNext() ? s.next() : "";
-            return body;
-        } finally {
-            is.close();
-        }
-    }
-    static void sendJson(HttpExchange ex, int code, Object obj) throws IOException {
-        // Add CORS headers to all JSON responses
+    static void addCorsHeaders(HttpExchange ex) {
         ex.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
         ex.getResponseHeaders().add("Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS, PATCH");
         ex.getResponseHeaders().add("Access-Control-Allow-Headers", "Content-Type, Authorization");
-        
+        ex.getResponseHeaders().add("Access-Control-Expose-Headers", "X-Auth-Token");
+    }
+
+    // 响应体不小于该字节数且客户端接受时压缩（gzip 优先，其次 deflate）
+    private static final int COMPRESS_MIN_BYTES = db.intConfig("HTTP_COMPRESS_MIN_BYTES", 1024);
+    private static final boolean ETAG_ENABLED = !"false".equalsIgnoreCase(db.config("HTTP_ETAG", "true"));
+    // handler 预先确定的 ETag（如图书目录版本），sendJson 优先使用它而不是按响应体计算
+    static final String ETAG_ATTRIBUTE = "response.etag";
+
+    static void sendJson(HttpExchange ex, int code, Object obj) throws IOException {
+        // Add CORS headers to all JSON responses
+        addCorsHeaders(ex);
+
         byte[] bytes = mapper.writeValueAsBytes(obj);
         ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        if (ETAG_ENABLED && code == 200 && "GET".equalsIgnoreCase(ex.getRequestMethod())) {
+            Object preset = ex.getAttribute(ETAG_ATTRIBUTE);
+            String etag = preset != null ? (String) preset : bodyEtag(bytes);
+            // 内容没变：只省传输（序列化已经做了）；预设版本的 ETag 在 handler 入口就会直接返回 304
+            if (notModified(ex, etag)) return;
+            ex.getResponseHeaders().set("ETag", etag);
+            ex.getResponseHeaders().set("Cache-Control", "no-cache");
+        }
+        String encoding = bytes.length >= COMPRESS_MIN_BYTES ? acceptedEncoding(ex) : null;
+        if (encoding != null) {
+            java.io.ByteArrayOutputStream buf = new java.io.ByteArrayOutputStream(bytes.length / 4 + 64);
+            try (OutputStream z = "gzip".equals(encoding) ? new GZIPOutputStream(buf) : new DeflaterOutputStream(buf)) {
+                z.write(bytes);
+            }
+            bytes = buf.toByteArray();
+            ex.getResponseHeaders().set("Content-Encoding", encoding);
+        }
+        ex.getResponseHeaders().add("Vary", "Accept-Encoding");
         ex.sendResponseHeaders(code, bytes.length);
         try (OutputStream os = ex.getResponseBody()) {
             os.write(bytes);
         }
     }
 
+    /**
+     * If-None-Match 与 etag 匹配（弱比较）时发送 304 并返回 true。
+     */
+    static boolean notModified(HttpExchange ex, String etag) throws IOException {
+        String inm = ex.getRequestHeaders().getFirst("If-None-Match");
+        if (inm == null) return false;
+        String want = stripWeak(etag);
+        for (String t : inm.split(",")) {
+            String tag = t.trim();
+            if ("*".equals(tag) || stripWeak(tag).equals(want)) {
+                ex.getResponseHeaders().set("ETag", etag);
+                ex.getResponseHeaders().set("Cache-Control", "no-cache");
+                ex.sendResponseHeaders(304, -1);
+                ex.close();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String stripWeak(String tag) {
+        return tag.startsWith("W/") ? tag.substring(2) : tag;
+    }
+
+    private static String bodyEtag(byte[] bytes) {
+        try {
+            byte[] d = java.security.MessageDigest.getInstance("SHA-256").digest(bytes);
+            return "W/\"" + HexFormat.of().formatHex(d, 0, 12) + "\"";
+        } catch (java.security.NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 按 Accept-Encoding 协商压缩方式：返回 gzip、deflate 或 null（不压缩），q=0 视为不接受。
+     */
+    static String acceptedEncoding(HttpExchange ex) {
+        String header = ex.getRequestHeaders().getFirst("Accept-Encoding");
+        if (header == null) return null;
+        boolean gzip = false, deflate = false;
+        for (String part : header.toLowerCase(Locale.ROOT).split(",")) {
+            String[] kv = part.trim().split(";");
+            String name = kv[0].trim();
+            boolean accepted = true;
+            for (int i = 1; i < kv.length; i++) {
+                String p = kv[i].trim();
+                if (p.startsWith("q=")) {
+                    try { accepted = Double.parseDouble(p.substring(2)) > 0; } catch (NumberFormatException e) { accepted = false; }
+                }
+            }
+            if (!accepted) continue;
+            if ("gzip".equals(name) || "x-gzip".equals(name) || "*".equals(name)) gzip = true;
+            else if ("deflate".equals(name)) deflate = true;
+        }
+        return gzip ? "gzip" : deflate ? "deflate" : null;
+    }
+
+    /**
+     * 逐行写出列表的回调：每行调用一次 sink。
+     */
+    interface itemsWriter {
+        void write(service.pagedQuery.rowSink<Object> sink) throws SQLException, IOException;
+    }
+
+    /**
+     * 流式发送 {"code":0,"data":{"items":[...]}}：分块传输（不设 Content-Length），每行直接由 JsonGenerator 写入响应体，
+     * 内存占用与行数无关。响应头发出后出错无法再改状态码，此时结束 items 数组并附加 "error" 字段，客户端据此判断数据不完整。
+     */
+    static void sendJsonItems(HttpExchange ex, itemsWriter writer) throws IOException {
+        addCorsHeaders(ex);
+        ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        // 流式输出长度未知，客户端接受压缩时总是压缩
+        String encoding = acceptedEncoding(ex);
+        if (encoding != null) ex.getResponseHeaders().set("Content-Encoding", encoding);
+        ex.getResponseHeaders().add("Vary", "Accept-Encoding");
+        ex.sendResponseHeaders(200, 0);
+        OutputStream body = ex.getResponseBody();
+        try (OutputStream os = encoding == null ? body : "gzip".equals(encoding) ? new GZIPOutputStream(body, 8192) : new DeflaterOutputStream(body);
+             JsonGenerator gen = mapper.getFactory().createGenerator(os, JsonEncoding.UTF8)) {
+            gen.writeStartObject();
+            gen.writeNumberField("code", 0);
+            gen.writeObjectFieldStart("data");
+            gen.writeArrayFieldStart("items");
+            String error = null;
+            try {
+                writer.write(gen::writeObject);
+            } catch (SQLException e) {
+                error = e.getMessage();
+            }
+            gen.writeEndArray();
+            if (error != null) gen.writeStringField("error", error);
+            gen.writeEndObject();
+            gen.writeEndObject();
+        }
+    }
+
     // Unified response helpers (success/error) to ensure frontend/backend contract consistency
     static void sendOk(HttpExchange ex, Object data) throws IOException {
         Map<String,Object> resp = new HashMap<>();
@@ -142,7 +449,9 @@ public class Server {
 
     static boolean requireAuth(HttpExchange ex) throws IOException {
         String token = getAuthToken(ex);
-        if (token == null || !service.authService.validateToken(token)) {
+        // 签名 token 验证不查共享状态；临近过期时返回续期后的 token，通过 X-Auth-Token 响应头下发
+        String current = token == null ? null : service.authService.validateAndRenew(token);
+        if (current == null) {
             // 对于OPTIONS请求，即使没有token也要放行，否则CORS预检会失败
             if ("OPTIONS".equals(ex.getRequestMethod())) {
                 return true;
@@ -150,605 +459,606 @@ public class Server {
             sendJson(ex,401, Map.of("code",401,"message","未授权"));
             return false;
         }
+        if (!current.equals(token)) ex.getResponseHeaders().set("X-Auth-Token", current);
         return true;
     }
 
-    // Handlers
-    static class BooksHandler implements HttpHandler {
-        @Override
-        public void handle(HttpExchange ex) throws IOException {
-            try {
-                if (!requireAuth(ex)) return;
-                String method = ex.getRequestMethod();
-                URI uri = ex.getRequestURI();
-                String path = uri.getPath();
-                if ("GET".equalsIgnoreCase(method)) {
-                    // /api/books or /api/books/{id} or /api/books/categories
-                    String[] parts = path.split("/");
-                    // 首先检查categories路由
-                    if (parts.length == 4 && "categories".equals(parts[3])) {
-                        // 获取所有图书类别
-                        List<String> categories = bookService.getCategories();
-                        sendOk(ex, categories);
-                        return;
-                    }
-                    // 然后处理其他路由
-                    if (parts.length == 3 || (parts.length==4 && parts[3].isEmpty())) {
-                        // list (support offset/limit and page/size)
-                        Map<String, String> q = queryToMap(uri.getQuery());
-                        int offset = 0; int limit = 20;
-                        if (q.containsKey("page") && q.containsKey("size")) {
-                            try { int page = Integer.parseInt(q.get("page")); int size = Integer.parseInt(q.get("size")); offset = Math.max(0, (page-1))*size; limit = size; } catch(Exception exx) { offset = Integer.parseInt(q.getOrDefault("offset", "0")); limit = Integer.parseInt(q.getOrDefault("limit", "20")); }
-                        } else {
-                            offset = Integer.parseInt(q.getOrDefault("offset", "0"));
-                            limit = Integer.parseInt(q.getOrDefault("limit", "20"));
-                        }
-                        String search = q.get("search");
-                        String author = q.get("author");
-                        String category = q.get("category");
-                        String availableOnly = q.get("availableOnly");
-                        
-                        List<bookInformation> items;
-                        int total;
-                        
-                        if ("true".equalsIgnoreCase(availableOnly)) {
-                            // 只获取可用图书
-                            items = bookService.getVacantBooks(offset, limit);
-                            total = bookService.countVacantBooks();
-                        } else {
-                            // 获取所有图书
-                            items = bookService.listBooks(offset, limit, search, author, category);
-                            total = bookService.countBooks(search, author, category);
-                        }
-                        
-                        Map<String,Object> data = new HashMap<>();
-                        data.put("items", items);
-                        data.put("total", total);
-                        sendOk(ex, data);
-                        return;
-                    } else if (parts.length >=4) {
-                        String id = parts[3];
-                        bookInformation b = bookService.getBookById(id);
-                        if (b == null) { sendError(ex,404,1,"未找到图书"); return; }
-                        sendOk(ex, b);
-                        return;
-                    }
-                }
-                // PATCH for stock updates
-                if ("PATCH".equalsIgnoreCase(method) && path.startsWith("/api/books/") && path.endsWith("/stock")) {
-                    String[] parts = path.split("/");
-                    if (parts.length>=5) {
-                        String id = parts[3];
-                        String body = readBody(ex);
-                        Map<String,Object> m = mapper.readValue(body, new TypeReference<Map<String,Object>>(){});
-                        if (m.get("adjustment")!=null) {
-                            int adj = Integer.parseInt(String.valueOf(m.get("adjustment")));
-                            boolean ok = bookService.adjustStock(id, adj);
-                            if (ok) { sendJson(ex,200, Map.of("code",0)); } else { sendJson(ex,500, Map.of("code",1,"message","库存调整失败")); }
-                            return;
-                        }
-                        sendJson(ex,400, Map.of("code",400,"message","无效的请求体"));
-                        return;
-                    }
-                }
-                // POST Create
-                if ("POST".equalsIgnoreCase(method) && (path.equals("/api/books") || path.equals("/api/books/"))) {
-                    String body = readBody(ex);
-                    Map<String,Object> m = mapper.readValue(body, new TypeReference<Map<String,Object>>(){});
-                    bookInformation b = new bookInformation();
-                    if (m.get("bookId")!=null) b.setBookId(String.valueOf(m.get("bookId")));
-                    if (m.get("isbn")!=null) b.setIsbn(String.valueOf(m.get("isbn")));
-                    if (m.get("bookName")!=null) b.setBookName(String.valueOf(m.get("bookName")));
-                    if (m.get("bookAuthor")!=null) b.setBookAuthor(String.valueOf(m.get("bookAuthor")));
-                    if (m.get("bookPublisher")!=null) b.setBookPublisher(String.valueOf(m.get("bookPublisher")));
-                    if (m.get("bookPubDate")!=null) b.setBookPubDate(LocalDate.parse(String.valueOf(m.get("bookPubDate"))));
-                    if (m.get("bookCategory")!=null) b.setBookCategory(String.valueOf(m.get("bookCategory")));
-                    if (m.get("bookPrice")!=null) b.setBookPrice(Integer.parseInt(String.valueOf(m.get("bookPrice"))));
-                    if (m.get("bookLocation")!=null) b.setBookLocation(String.valueOf(m.get("bookLocation")));
-                    if (m.get("bookTotalCopies")!=null) b.setBookTotalCopies(Integer.parseInt(String.valueOf(m.get("bookTotalCopies"))));
-                    if (m.get("bookAvailableCopies")!=null) b.setBookAvailableCopies(Integer.parseInt(String.valueOf(m.get("bookAvailableCopies"))));
-                    if (m.get("borrowCount")!=null) b.setBorrowCount(Integer.parseInt(String.valueOf(m.get("borrowCount"))));
-                    boolean ok = bookService.createBook(b);
-                    if (ok) sendJson(ex,200, Map.of("code",0)); else sendJson(ex,500, Map.of("code",1,"message","创建失败"));
-                    return;
-                }
-
-                // PUT update for books
-                if ("PUT".equalsIgnoreCase(method) && path.startsWith("/api/books/")) {
-                    String[] p = path.split("/");
-                    if (p.length>=4) {
-                        String id = p[3];
-                        String body = readBody(ex);
-                        bookInformation b = bookService.getBookById(id);
-                        if (b==null) { sendJson(ex,404, Map.of("code",1,"message","未找到图书")); return; }
-                        Map<String,Object> m = mapper.readValue(body, new TypeReference<Map<String,Object>>(){});
-                        if (m.get("isbn")!=null) b.setIsbn(String.valueOf(m.get("isbn")));
-                        if (m.get("bookName")!=null) b.setBookName(String.valueOf(m.get("bookName")));
-                        if (m.get("bookAuthor")!=null) b.setBookAuthor(String.valueOf(m.get("bookAuthor")));
-                        if (m.get("bookPublisher")!=null) b.setBookPublisher(String.valueOf(m.get("bookPublisher")));
-                        if (m.get("bookPubDate")!=null) b.setBookPubDate(LocalDate.parse(String.valueOf(m.get("bookPubDate"))));
-                        if (m.get("bookCategory")!=null) b.setBookCategory(String.valueOf(m.get("bookCategory")));
-                        if (m.get("bookPrice")!=null) b.setBookPrice(Integer.parseInt(String.valueOf(m.get("bookPrice"))));
-                        if (m.get("bookLocation")!=null) b.setBookLocation(String.valueOf(m.get("bookLocation")));
-                        if (m.get("bookTotalCopies")!=null) b.setBookTotalCopies(Integer.parseInt(String.valueOf(m.get("bookTotalCopies"))));
-                        if (m.get("bookAvailableCopies")!=null) b.setBookAvailableCopies(Integer.parseInt(String.valueOf(m.get("bookAvailableCopies"))));
-                        if (m.get("borrowCount")!=null) b.setBorrowCount(Integer.parseInt(String.valueOf(m.get("borrowCount"))));
-                        boolean ok = bookService.updateBook(b);
-                        if (ok) sendJson(ex,200, Map.of("code",0)); else sendJson(ex,500, Map.of("code",1,"message","更新失败"));
-                        return;
-                    }
-                }
+    /**
+     * /api 下的全部接口（/api/metrics 除外）。各上下文仍分别注册，用于区分指标标签和是否经过数据库并发限制，
+     * 进入上下文后统一按这张表分派。
+     */
+    static final router routes = buildRoutes();
 
-                // PUT update
-                if ("PUT".equalsIgnoreCase(method) && path.startsWith("/api/readers/")) {
-                    String[] p = path.split("/");
-                    if (p.length>=4) {
-                        String id = p[3];
-                        String body = readBody(ex);
-                        readerInformation r = readerService.getReaderById(id);
-                        if (r==null) { sendJson(ex,404, Map.of("code",1,"message","未找到读者")); return; }
-                        Map<String,Object> m = mapper.readValue(body, new com.fasterxml.jackson.core.type.TypeReference<Map<String,Object>>(){});
-                        if (m.get("readerName")!=null) r.setReaderName(String.valueOf(m.get("readerName")));
-                        if (m.get("readerCardType")!=null) r.setReaderCardType(String.valueOf(m.get("readerCardType")));
-                        if (m.get("readerCardNumber")!=null) r.setReaderCardNumber(String.valueOf(m.get("readerCardNumber")));
-                        if (m.get("readerPhoneNumber")!=null) r.setReaderPhoneNumber(String.valueOf(m.get("readerPhoneNumber")));
-                        if (m.get("registerDate")!=null) r.setRegisterDate(LocalDate.parse(String.valueOf(m.get("registerDate"))));
-                        if (m.get("readerStatus")!=null) r.setReaderStatus(Integer.parseInt(String.valueOf(m.get("readerStatus"))));
-                        if (m.get("totalBorrowNumber")!=null) r.setMaxBorrowNumber(Integer.parseInt(String.valueOf(m.get("totalBorrowNumber"))));
-                        if (m.get("nowBorrowNumber")!=null) r.setNowBorrowNumber(Integer.parseInt(String.valueOf(m.get("nowBorrowNumber"))));
-                        boolean ok = readerService.updateReader(r);
-                        if (ok) sendJson(ex,200, Map.of("code",0)); else sendJson(ex,500, Map.of("code",1,"message","更新失败"));
-                        return;
-                    }
-                }
+    static router buildRoutes() {
+        router r = new router();
+        BookRoutes.register(r);
+        ReaderRoutes.register(r);
+        BorrowRoutes.register(r);
+        ReturnRoutes.register(r);
+        AuthRoutes.register(r);
+        ExportRoutes.register(r);
+        ImportRoutes.register(r);
+        StatisticsRoutes.register(r);
+        return r;
+    }
 
-                // DELETE
-                if ("DELETE".equalsIgnoreCase(method) && path.startsWith("/api/books/")) {
-                    String[] parts = path.split("/");
-                    if (parts.length>=4) {
-                        String id = parts[3];
-                        try {
-                            boolean ok = bookService.deleteBook(id);
-                            if (ok) sendJson(ex,200, Map.of("code",0)); else sendJson(ex,500, Map.of("code",1,"message","删除失败"));
-                        } catch (SQLException e) {
-                            sendJson(ex,500, Map.of("code",1,"message","无法删除有借阅记录的图书"));
-                        }
-                        return;
-                    }
+    /**
+     * 按路由表分派请求。auth 为 true 时先校验 token（未登录时不暴露接口是否存在）。
+     * 路径不存在返回 404，路径存在但方法不支持返回 405 并带 Allow 头；
+     * 请求体校验失败返回 400 并按字段列出错误（errors），处理函数抛出 SQLException 返回 500，参数解析错误等其他异常返回 400。
+     */
+    static HttpHandler routed(boolean auth) {
+        return ex -> {
+            String method = ex.getRequestMethod();
+            if (auth && !requireAuth(ex)) return;
+            router.match m = routes.match(method, ex.getRequestURI().getPath());
+            if (m == null) { sendJson(ex,404, Map.of("code",404,"message","接口不存在")); return; }
+            if (m.handler == null) {
+                ex.getResponseHeaders().set("Allow", m.allow);
+                if ("OPTIONS".equals(method)) {
+                    addCorsHeaders(ex);
+                    ex.sendResponseHeaders(204, -1);
+                    ex.close();
+                    return;
                 }
-
                 sendJson(ex,405, Map.of("code",405,"message","不允许的方法"));
+                return;
+            }
+            try {
+                m.handler.handle(ex, m.params);
+            } catch (invalidRequestException ire) {
+                sendFailure(ex, 400, Map.of("code",400,"message","请求参数无效","errors", ire.getErrors()));
             } catch (SQLException se) {
-                sendJson(ex,500, Map.of("code",500,"message", se.getMessage()));
+                sendFailure(ex, 500, Map.of("code",500,"message", se.getMessage() == null ? "数据库错误" : se.getMessage()));
+            } catch (IllegalArgumentException iae) {
+                sendFailure(ex, 400, Map.of("code",400,"message","无效的请求参数"));
+            } catch (Exception e) {
+                // 只有参数错误是客户端的问题；其余异常是服务端故障，记录后返回 500
+                System.err.println("Unhandled error in " + method + " " + ex.getRequestURI().getPath() + ": " + e);
+                sendFailure(ex, 500, Map.of("code",500,"message","服务器内部错误"));
             }
+        };
+    }
+
+    private static void sendFailure(HttpExchange ex, int httpCode, Map<String, Object> body) throws IOException {
+        // 响应头已发出（如流式输出中途失败）时只能关闭连接
+        if (ex.getResponseCode() != -1) { ex.close(); return; }
+        sendJson(ex, httpCode, body);
+    }
+
+    static int[] offsetLimit(Map<String,String> q) {
+        int offset = 0; int limit = 20;
+        if (q.containsKey("page") && q.containsKey("size")) {
+            try { int page = Integer.parseInt(q.get("page")); int size = Integer.parseInt(q.get("size")); offset = Math.max(0,(page-1))*size; limit = size; } catch(Exception exx) { offset = Integer.parseInt(q.getOrDefault("offset","0")); limit = Integer.parseInt(q.getOrDefault("limit","20")); }
+        } else {
+            offset = Integer.parseInt(q.getOrDefault("offset","0"));
+            limit = Integer.parseInt(q.getOrDefault("limit","20"));
         }
+        return new int[]{offset, limit};
     }
 
-    static class ReadersHandler implements HttpHandler {
-        @Override
-        public void handle(HttpExchange ex) throws IOException {
-            try {
-                if (!requireAuth(ex)) return;
-                String method = ex.getRequestMethod();
-                URI uri = ex.getRequestURI();
-                String path = uri.getPath();
-                String[] parts = path.split("/");
-                // support GET /api/readers/byCard/{cardNumber}
-                if ("GET".equalsIgnoreCase(method) && parts.length>=5 && "byCard".equals(parts[3])) {
-                    String card = parts[4];
-                    readerInformation r = readerService.getReaderByCardNumber(card);
-                    if (r==null) { sendJson(ex,404, Map.of("code",1,"message","未找到读者")); return; }
-                    sendOk(ex, r);
-                    return;
-                }
-                // GET list or GET item
-                if ("GET".equalsIgnoreCase(method)) {
-                    if (parts.length == 3 || (parts.length==4 && parts[3].isEmpty())) {
-                        Map<String,String> q = queryToMap(uri.getQuery());
-                        int offset = 0; int limit = 20;
-                        if (q.containsKey("page") && q.containsKey("size")) {
-                            try { int page = Integer.parseInt(q.get("page")); int size = Integer.parseInt(q.get("size")); offset = Math.max(0,(page-1))*size; limit = size; } catch(Exception exx) { offset = Integer.parseInt(q.getOrDefault("offset","0")); limit = Integer.parseInt(q.getOrDefault("limit","20")); }
-                        } else {
-                            offset = Integer.parseInt(q.getOrDefault("offset","0"));
-                            limit = Integer.parseInt(q.getOrDefault("limit","20"));
-                        }
-                        String search = q.get("search");
-                        List<readerInformation> items = readerService.listReaders(offset, limit, search);
-                        int total = readerService.countReaders(search);
-                        Map<String,Object> data = new HashMap<>();
-                        data.put("items", items);
-                        data.put("total", total);
-                        sendOk(ex, data);
-                        return;
-                    } else if (parts.length>=4) {
-                        String id = parts[3];
-                        readerInformation r = readerService.getReaderById(id);
-                        if (r==null) { sendError(ex,404,1,"未找到读者"); return; }
-                        sendOk(ex, r);
-                        return;
-                    }
-                }
+    static class BookRoutes {
+        static void register(router r) {
+            r.get("/api/books", BookRoutes::list)
+             .get("/api/books/categories", BookRoutes::categories)
+             .get("/api/books/{bookId}", BookRoutes::get)
+             .post("/api/books", BookRoutes::create)
+             .put("/api/books/{bookId}", BookRoutes::update)
+             .patch("/api/books/{bookId}/stock", BookRoutes::adjustStock)
+             .delete("/api/books/{bookId}", BookRoutes::delete);
+        }
 
-                // POST create
-                if ("POST".equalsIgnoreCase(method) && (path.equals("/api/readers") || path.equals("/api/readers/"))) {
-                    String body = readBody(ex);
-                    Map<String,Object> m = mapper.readValue(body, new com.fasterxml.jackson.core.type.TypeReference<Map<String,Object>>(){});
-                    
-                    // Debug: log all received fields to help diagnose the issue
-                    System.out.println("Received reader creation request with fields: " + m.keySet());
-                    
-                    readerInformation r = new readerInformation();
-                    
-                    // Handle readerName with better error handling and case insensitivity
-                    String readerName = null;
-                    if (m.get("readerName") != null) {
-                        readerName = String.valueOf(m.get("readerName")).trim();
-                    } else if (m.get("readername") != null) { // Handle case insensitive
-                        readerName = String.valueOf(m.get("readername")).trim();
-                    } else if (m.get("name") != null) { // Try common alternative field names
-                        readerName = String.valueOf(m.get("name")).trim();
-                    } else if (m.get("username") != null) { // Try common alternative field names
-                        readerName = String.valueOf(m.get("username")).trim();
-                    }
-                    
-                    if (readerName == null || readerName.isEmpty()) {
-                        // Provide more detailed error message with available fields
-                        sendJson(ex, 400, Map.of(
-                            "code", 400, 
-                            "message", "读者姓名是必填项", 
-                            "availableFields", m.keySet(),
-                            "suggestion", "请在请求中包含'readerName'字段"
-                        ));
-                        return;
-                    }
-                    
-                    r.setReaderName(readerName);
-                    if (m.get("readerId")!=null) r.setReaderId(String.valueOf(m.get("readerId")));
-                    if (m.get("readerCardType")!=null) r.setReaderCardType(String.valueOf(m.get("readerCardType")));
-                    if (m.get("readerCardNumber")!=null) r.setReaderCardNumber(String.valueOf(m.get("readerCardNumber")));
-                    if (m.get("readerPhoneNumber")!=null) r.setReaderPhoneNumber(String.valueOf(m.get("readerPhoneNumber")));
-                    if (m.get("registerDate")!=null) r.setRegisterDate(LocalDate.parse(String.valueOf(m.get("registerDate"))));
-                    if (m.get("readerStatus")!=null) r.setReaderStatus(Integer.parseInt(String.valueOf(m.get("readerStatus"))));
-                    if (m.get("totalBorrowNumber")!=null) r.setMaxBorrowNumber(Integer.parseInt(String.valueOf(m.get("totalBorrowNumber"))));
-                    if (m.get("nowBorrowNumber")!=null) r.setNowBorrowNumber(Integer.parseInt(String.valueOf(m.get("nowBorrowNumber"))));
-                    boolean ok = readerService.createReader(r);
-                    if (ok) sendJson(ex,200, Map.of("code",0)); else sendJson(ex,500, Map.of("code",1,"message","创建失败"));
-                    return;
-                }
+        // 图书目录没有变化时直接 304，不查询也不序列化（版本见 catalogCache.version）
+        private static boolean catalogNotModified(HttpExchange ex) throws IOException {
+            if (!ETAG_ENABLED) return false;
+            String etag = "W/\"cat-" + service.catalogCache.version() + "\"";
+            if (notModified(ex, etag)) return true;
+            ex.setAttribute(ETAG_ATTRIBUTE, etag);
+            return false;
+        }
 
-                // PUT update
-                if ("PUT".equalsIgnoreCase(method) && path.startsWith("/api/readers/")) {
-                    String[] p = path.split("/");
-                    if (p.length>=4) {
-                        String id = p[3];
-                        String body = readBody(ex);
-                        readerInformation r = readerService.getReaderById(id);
-                        if (r==null) { sendJson(ex,404, Map.of("code",1,"message","未找到读者")); return; }
-                        Map<String,Object> m = mapper.readValue(body, new com.fasterxml.jackson.core.type.TypeReference<Map<String,Object>>(){});
-                        if (m.get("readerName")!=null) r.setReaderName(String.valueOf(m.get("readerName")));
-                        if (m.get("readerCardType")!=null) r.setReaderCardType(String.valueOf(m.get("readerCardType")));
-                        if (m.get("readerCardNumber")!=null) r.setReaderCardNumber(String.valueOf(m.get("readerCardNumber")));
-                        if (m.get("readerPhoneNumber")!=null) r.setReaderPhoneNumber(String.valueOf(m.get("readerPhoneNumber")));
-                        if (m.get("registerDate")!=null) r.setRegisterDate(LocalDate.parse(String.valueOf(m.get("registerDate"))));
-                        if (m.get("readerStatus")!=null) r.setReaderStatus(Integer.parseInt(String.valueOf(m.get("readerStatus"))));
-                        if (m.get("totalBorrowNumber")!=null) r.setMaxBorrowNumber(Integer.parseInt(String.valueOf(m.get("totalBorrowNumber"))));
-                        if (m.get("nowBorrowNumber")!=null) r.setNowBorrowNumber(Integer.parseInt(String.valueOf(m.get("nowBorrowNumber"))));
-                        boolean ok = readerService.updateReader(r);
-                        if (ok) sendJson(ex,200, Map.of("code",0)); else sendJson(ex,500, Map.of("code",1,"message","更新失败"));
-                        return;
-                    }
-                }
+        static void categories(HttpExchange ex, router.params p) throws Exception {
+            if (catalogNotModified(ex)) return;
+            // 获取所有图书类别
+            List<String> categories = bookService.getCategories();
+            sendOk(ex, categories);
+        }
 
-                // DELETE
-                if ("DELETE".equalsIgnoreCase(method) && path.startsWith("/api/readers/")) {
-                    String[] p = path.split("/");
-                    if (p.length>=4) {
-                        String id = p[3];
-                        try {
-                            boolean ok = readerService.deleteReader(id);
-                            if (ok) sendJson(ex,200, Map.of("code",0)); else sendJson(ex,500, Map.of("code",1,"message","删除失败"));
-                        } catch (SQLException e) {
-                            sendJson(ex,500, Map.of("code",1,"message","无法删除有借阅记录的读者"));
-                        }
-                        return;
-                    }
-                }
+        static void list(HttpExchange ex, router.params p) throws Exception {
+            if (catalogNotModified(ex)) return;
+            // list (support offset/limit and page/size)
+            Map<String, String> q = queryToMap(ex.getRequestURI().getQuery());
+            int[] page = offsetLimit(q);
+            int offset = page[0], limit = page[1];
+            String search = q.get("search");
+            String author = q.get("author");
+            String category = q.get("category");
+            String availableOnly = q.get("availableOnly");
+            // totalMode=exact|estimate|none，见 pagedQuery
+            String totalMode = q.get("totalMode");
 
-                sendJson(ex,405, Map.of("code",405,"message","不允许的方法"));
-            } catch (SQLException se) {
-                sendJson(ex,500, Map.of("code",500,"message", se.getMessage()));
+            Map<String,Object> data;
+
+            if ("true".equalsIgnoreCase(availableOnly)) {
+                // 只获取可用图书
+                data = bookService.getVacantBooksPage(offset, limit, totalMode);
+            } else if (q.containsKey("cursor")) {
+                // 游标分页：cursor 为空表示第一页，响应中的 nextCursor 用于请求下一页
+                data = bookService.searchBooksAfter(q.get("cursor"), limit, search, author, category, q.get("sort"), totalMode);
+            } else {
+                // 获取所有图书（sort=relevance 时按相关度排序）
+                data = bookService.searchBooks(offset, limit, search, author, category, q.get("sort"), totalMode);
             }
+
+            sendOk(ex, data);
         }
-    }
 
-    static class BorrowHandler implements HttpHandler {
-        @Override
-        public void handle(HttpExchange ex) throws IOException {
-            try {
-                if (!requireAuth(ex)) return;
-                String method = ex.getRequestMethod();
-                URI uri = ex.getRequestURI();
-                String path = uri.getPath();
-                // GET /api/borrow or /api/borrow/record
-                if ("GET".equalsIgnoreCase(method)) {
-                    Map<String,String> q = queryToMap(uri.getQuery());
-                    String readerId = q.get("readerId");
-                    String statusS = q.get("status");
-                    String bookTitle = q.get("bookTitle");
-                    String borrowDateFrom = q.get("borrowDateFrom");
-                    String borrowDateTo = q.get("borrowDateTo");
-                    Integer status = null;
-                    if (statusS != null) {
-                        try { status = Integer.parseInt(statusS); } catch (Exception ex1) {
-                            if ("borrowed".equalsIgnoreCase(statusS)) status = 0;
-                            else if ("returned".equalsIgnoreCase(statusS)) status = 1;
-                        }
-                    }
-                    int offset = 0; int limit = 20;
-                    if (q.containsKey("page") && q.containsKey("size")) {
-                        try { int page = Integer.parseInt(q.get("page")); int size = Integer.parseInt(q.get("size")); offset = Math.max(0,(page-1))*size; limit = size; } catch(Exception exx) { offset = Integer.parseInt(q.getOrDefault("offset","0")); limit = Integer.parseInt(q.getOrDefault("limit","20")); }
-                    } else { offset = Integer.parseInt(q.getOrDefault("offset","0")); limit = Integer.parseInt(q.getOrDefault("limit","20")); }
-                    var items = borrowService.listBorrows(readerId, status, bookTitle, borrowDateFrom, borrowDateTo, offset, limit);
-                    int total = borrowService.countBorrows(readerId, status, bookTitle, borrowDateFrom, borrowDateTo);
-                    sendOk(ex, Map.of("items", items, "total", total));
-                    return;
-                }
+        static void get(HttpExchange ex, router.params p) throws Exception {
+            if (catalogNotModified(ex)) return;
+            bookInformation b = bookService.getBookById(p.get("bookId"));
+            if (b == null) { sendError(ex,404,1,"未找到图书"); return; }
+            sendOk(ex, b);
+        }
 
-                // POST /api/borrow/refresh - 刷新借阅状态（优先处理）
-                if ("POST".equalsIgnoreCase(method) && path.equals("/api/borrow/refresh")) {
-                    int updatedCount = borrowService.refreshBorrowStatus();
-                    sendOk(ex, Map.of("updatedCount", updatedCount, "message", "借阅状态刷新成功"));
-                    return;
-                }
+        // PATCH for stock updates
+        static void adjustStock(HttpExchange ex, router.params p) throws Exception {
+            stockRequest req = requestBody.read(ex.getRequestBody(), stockRequest.class);
+            req.validate();
+            boolean ok = bookService.adjustStock(p.get("bookId"), req.adjustment());
+            if (ok) { sendJson(ex,200, Map.of("code",0)); } else { sendJson(ex,500, Map.of("code",1,"message","库存调整失败")); }
+        }
+
+        static void create(HttpExchange ex, router.params p) throws Exception {
+            bookRequest req = requestBody.read(ex.getRequestBody(), bookRequest.class);
+            req.validateForCreate();
+            boolean ok;
+            try {
+                ok = bookService.createBook(req.toBook());
+            } catch (IllegalArgumentException tooFar) {
+                // 指定的编号距下一个编号过远
+                throw new invalidRequestException(Map.of("bookId", tooFar.getMessage()));
+            }
+            if (ok) sendJson(ex,200, Map.of("code",0)); else sendJson(ex,500, Map.of("code",1,"message","创建失败"));
+        }
 
-                if ("POST".equalsIgnoreCase(ex.getRequestMethod())) {
-                    String body = readBody(ex);
-                    Map<String,Object> m = mapper.readValue(body, new TypeReference<Map<String,Object>>(){});
-                    String readerId = m.get("readerId") == null ? "" : String.valueOf(m.get("readerId"));
-                    String borrowDateS = m.get("borrowDate") == null ? "" : String.valueOf(m.get("borrowDate"));
-                    String dueDateS = m.get("dueDate") == null ? "" : String.valueOf(m.get("dueDate"));
-                    LocalDate borrowDate = borrowDateS.isEmpty() ? LocalDate.now() : LocalDate.parse(borrowDateS);
-                    LocalDate dueDate = dueDateS.isEmpty() ? borrowDate.plusDays(14) : LocalDate.parse(dueDateS);
-                    if (m.get("books") != null) {
-                        java.util.List<?> books = (java.util.List<?>) m.get("books");
-                        java.util.List<String> bookIds = new java.util.ArrayList<>();
-                        java.util.Map<String, Integer> bookCounts = new java.util.HashMap<>();
-                        
-                        for (Object o : books) {
-                            if (o instanceof java.util.Map) {
-                                Object bid = ((java.util.Map<?,?>)o).get("bookId");
-                                Object count = ((java.util.Map<?,?>)o).get("count");
-                                if (bid != null) {
-                                    String bookId = String.valueOf(bid);
-                                    bookIds.add(bookId);
-                                    // 如果有count参数，使用它；否则默认为1
-                                    int borrowCount = (count != null) ? Integer.parseInt(String.valueOf(count)) : 1;
-                                    bookCounts.put(bookId, borrowCount);
-                                }
-                            } else {
-                                String bookId = String.valueOf(o);
-                                bookIds.add(bookId);
-                                bookCounts.put(bookId, 1); // 默认借阅数量为1
-                            }
-                        }
-                        var created = borrowService.createBorrowBatch(bookIds, readerId, borrowDate, dueDate, bookCounts);
-                        sendOk(ex, Map.of("borrowIds", created));
-                    } else {
-                        String bookId = m.get("bookId") == null ? "" : String.valueOf(m.get("bookId"));
-                        long borrowId = borrowService.createBorrowSingle(bookId, readerId, borrowDate, dueDate);
-                        sendOk(ex, Map.of("borrowId", borrowId));
-                    }
-                     return;
-                 }
+        static void update(HttpExchange ex, router.params p) throws Exception {
+            bookRequest req = requestBody.read(ex.getRequestBody(), bookRequest.class);
+            req.validateForUpdate();
+            bookInformation b = bookService.getBookById(p.get("bookId"));
+            if (b==null) { sendJson(ex,404, Map.of("code",1,"message","未找到图书")); return; }
+            req.applyTo(b);
+            boolean ok = bookService.updateBook(b);
+            if (ok) sendJson(ex,200, Map.of("code",0)); else sendJson(ex,500, Map.of("code",1,"message","更新失败"));
+        }
 
-                sendJson(ex,405, Map.of("code",405,"message","不允许的方法"));
-                return;
-            } catch (SQLException se) {
-                sendJson(ex,500, Map.of("code",500,"message", se.getMessage()));
-            } catch (Exception e) {
-                sendJson(ex,400, Map.of("code",400,"message","无效的请求"));
+        static void delete(HttpExchange ex, router.params p) throws Exception {
+            try {
+                boolean ok = bookService.deleteBook(p.get("bookId"));
+                if (ok) sendJson(ex,200, Map.of("code",0)); else sendJson(ex,500, Map.of("code",1,"message","删除失败"));
+            } catch (SQLException e) {
+                sendJson(ex,500, Map.of("code",1,"message","无法删除有借阅记录的图书"));
             }
         }
     }
 
-    static class ReturnHandler implements HttpHandler {
-        @Override
-        public void handle(HttpExchange ex) throws IOException {
+    static class ReaderRoutes {
+        static void register(router r) {
+            r.get("/api/readers", ReaderRoutes::list)
+             .get("/api/readers/byCard/{cardNumber}", ReaderRoutes::byCard)
+             .get("/api/readers/{readerId}", ReaderRoutes::get)
+             .post("/api/readers", ReaderRoutes::create)
+             .put("/api/readers/{readerId}", ReaderRoutes::update)
+             .delete("/api/readers/{readerId}", ReaderRoutes::delete);
+        }
+
+        static void byCard(HttpExchange ex, router.params p) throws Exception {
+            readerInformation r = readerService.getReaderByCardNumber(p.get("cardNumber"));
+            if (r==null) { sendJson(ex,404, Map.of("code",1,"message","未找到读者")); return; }
+            sendOk(ex, r);
+        }
+
+        static void list(HttpExchange ex, router.params p) throws Exception {
+            Map<String,String> q = queryToMap(ex.getRequestURI().getQuery());
+            int[] page = offsetLimit(q);
+            int offset = page[0], limit = page[1];
+            String search = q.get("search");
+            String totalMode = q.get("totalMode");
+            Map<String,Object> data;
+            if (q.containsKey("cursor")) {
+                // 游标分页：cursor 为空表示第一页，响应中的 nextCursor 用于请求下一页
+                data = readerService.listReadersAfter(q.get("cursor"), limit, search);
+                Integer total = readerService.countReaders(search, totalMode);
+                if (total != null) data.put("total", total);
+            } else {
+                data = readerService.listReadersPage(offset, limit, search, totalMode);
+            }
+            sendOk(ex, data);
+        }
+
+        static void get(HttpExchange ex, router.params p) throws Exception {
+            readerInformation r = readerService.getReaderById(p.get("readerId"));
+            if (r==null) { sendError(ex,404,1,"未找到读者"); return; }
+            sendOk(ex, r);
+        }
+
+        static void create(HttpExchange ex, router.params p) throws Exception {
+            readerRequest req = requestBody.read(ex.getRequestBody(), readerRequest.class);
+            req.validateForCreate();
+            readerInformation r = req.toReader();
+            boolean ok;
             try {
-                if (!requireAuth(ex)) return;
-                if (!"POST".equalsIgnoreCase(ex.getRequestMethod())) {
-                    sendJson(ex,405, Map.of("code",405,"message","不允许的方法"));
-                    return;
-                }
-                String body = readBody(ex);
-                Map<String,Object> m = mapper.readValue(body, new TypeReference<Map<String,Object>>(){});
-                String returnDateS = m.get("returnDate") == null ? "" : String.valueOf(m.get("returnDate"));
-                LocalDate returnDate = returnDateS.isEmpty() ? LocalDate.now() : LocalDate.parse(returnDateS);
-                if (m.get("borrowIds") != null) {
-                    java.util.List<?> ids = (java.util.List<?>) m.get("borrowIds");
-                    java.util.List<String> borrowIds = new java.util.ArrayList<>();
-                    for (Object o : ids) borrowIds.add(String.valueOf(o));
-                    var result = returnService.createReturnBatch(borrowIds, returnDate);
-                    sendOk(ex, Map.of("returned", result));
-                } else {
-                    String borrowId = m.get("borrowId") == null ? "" : String.valueOf(m.get("borrowId"));
-                    long returnId = returnService.createReturn(borrowId, returnDate);
-                    sendOk(ex, Map.of("returnId", returnId));
-                }
-             } catch (SQLException se) {
-                 sendJson(ex,500, Map.of("code",500,"message", se.getMessage()));
-             } catch (Exception e) {
-                 sendJson(ex,400, Map.of("code",400,"message","无效的请求"));
-             }
-         }
-     }
-
-    static class AuthHandler implements HttpHandler {
-        @Override
-        public void handle(HttpExchange ex) throws IOException {
+                ok = readerService.createReader(r);
+            } catch (IllegalArgumentException tooFar) {
+                // 指定的编号距下一个编号过远
+                throw new invalidRequestException(Map.of("readerId", tooFar.getMessage()));
+            }
+            if (ok) sendJson(ex,200, Map.of("code",0)); else sendJson(ex,500, Map.of("code",1,"message","创建失败"));
+        }
+
+        static void update(HttpExchange ex, router.params p) throws Exception {
+            readerRequest req = requestBody.read(ex.getRequestBody(), readerRequest.class);
+            req.validateForUpdate();
+            readerInformation r = readerService.getReaderById(p.get("readerId"));
+            if (r==null) { sendJson(ex,404, Map.of("code",1,"message","未找到读者")); return; }
+            req.applyTo(r);
+            boolean ok = readerService.updateReader(r);
+            if (ok) sendJson(ex,200, Map.of("code",0)); else sendJson(ex,500, Map.of("code",1,"message","更新失败"));
+        }
+
+        static void delete(HttpExchange ex, router.params p) throws Exception {
             try {
-                if (!"POST".equalsIgnoreCase(ex.getRequestMethod())) {
-                    sendJson(ex,405, Map.of("code",405,"message","不允许的方法"));
-                    return;
+                boolean ok = readerService.deleteReader(p.get("readerId"));
+                if (ok) sendJson(ex,200, Map.of("code",0)); else sendJson(ex,500, Map.of("code",1,"message","删除失败"));
+            } catch (SQLException e) {
+                sendJson(ex,500, Map.of("code",1,"message","无法删除有借阅记录的读者"));
+            }
+        }
+    }
+
+    static class BorrowRoutes {
+        static void register(router r) {
+            r.get("/api/borrow", BorrowRoutes::list)
+             .get("/api/borrow/record", BorrowRoutes::list)
+             // 刷新借阅状态（字面量优先于 POST /api/borrow）
+             .post("/api/borrow/refresh", BorrowRoutes::refresh)
+             .post("/api/borrow", BorrowRoutes::create);
+        }
+
+        static void list(HttpExchange ex, router.params p) throws Exception {
+            Map<String,String> q = queryToMap(ex.getRequestURI().getQuery());
+            String readerId = q.get("readerId");
+            String statusS = q.get("status");
+            String bookTitle = q.get("bookTitle");
+            String borrowDateFrom = q.get("borrowDateFrom");
+            String borrowDateTo = q.get("borrowDateTo");
+            Integer status = null;
+            if (statusS != null) {
+                try { status = Integer.parseInt(statusS); } catch (Exception ex1) {
+                    if ("borrowed".equalsIgnoreCase(statusS)) status = 0;
+                    else if ("returned".equalsIgnoreCase(statusS)) status = 1;
                 }
-                String body = readBody(ex);
-                Map<String,Object> m = mapper.readValue(body, new TypeReference<Map<String,Object>>(){});
-                String username = m.get("username") == null ? "" : String.valueOf(m.get("username"));
-                String password = m.get("password") == null ? "" : String.valueOf(m.get("password"));
-                String token = service.authService.login(username, password);
-                if (token == null) {
-                    sendJson(ex,401, Map.of("code",1,"message","无效的凭证"));
-                    return;
+            }
+            int[] page = offsetLimit(q);
+            int offset = page[0], limit = page[1];
+            String totalMode = q.get("totalMode");
+            Map<String,Object> data;
+            if (q.containsKey("cursor")) {
+                // 游标分页：cursor 为空表示第一页，响应中的 nextCursor 用于请求下一页
+                data = borrowService.listBorrowsAfter(readerId, status, bookTitle, borrowDateFrom, borrowDateTo, q.get("cursor"), limit);
+                Integer total = borrowService.countBorrows(readerId, status, bookTitle, borrowDateFrom, borrowDateTo, totalMode);
+                if (total != null) data.put("total", total);
+            } else {
+                data = borrowService.listBorrowsPage(readerId, status, bookTitle, borrowDateFrom, borrowDateTo, offset, limit, totalMode);
+            }
+            sendOk(ex, data);
+        }
+
+        static void refresh(HttpExchange ex, router.params p) throws Exception {
+            int updatedCount = borrowService.refreshBorrowStatus();
+            sendOk(ex, Map.of("updatedCount", updatedCount, "message", "借阅状态刷新成功"));
+        }
+
+        static void create(HttpExchange ex, router.params p) throws Exception {
+            borrowRequest req = requestBody.read(ex.getRequestBody(), borrowRequest.class);
+            req.validate();
+            LocalDate borrowDate = req.borrowDateOrToday();
+            LocalDate dueDate = req.dueDateOrDefault();
+            if (req.books() != null) {
+                List<String> bookIds = new ArrayList<>();
+                Map<String, Integer> bookCounts = new HashMap<>();
+                for (borrowRequest.item it : req.books()) {
+                    bookIds.add(it.bookId());
+                    bookCounts.put(it.bookId(), it.countOrOne());
                 }
-                sendJson(ex,200, Map.of("code",0,"data", Map.of("token", token)));
-            } catch (Exception e) {
-                sendJson(ex,400, Map.of("code",400,"message","无效的请求"));
+                var created = borrowService.createBorrowBatch(bookIds, req.readerId(), borrowDate, dueDate, bookCounts);
+                sendOk(ex, Map.of("borrowIds", created));
+            } else {
+                long borrowId = borrowService.createBorrowSingle(req.bookId(), req.readerId(), borrowDate, dueDate);
+                sendOk(ex, Map.of("borrowId", borrowId));
             }
         }
     }
 
-    // New explicit login/logout handlers that match frontend paths
-    static class LoginHandler implements HttpHandler {
-        @Override
-        public void handle(HttpExchange ex) throws IOException {
-            try {
-                if (!"POST".equalsIgnoreCase(ex.getRequestMethod())) { sendJson(ex,405, Map.of("code",405,"message","不允许的方法")); return; }
-                String body = readBody(ex);
-                Map<String,Object> m = mapper.readValue(body, new TypeReference<Map<String,Object>>(){});
-                String username = m.get("username") == null ? "" : String.valueOf(m.get("username"));
-                String password = m.get("password") == null ? "" : String.valueOf(m.get("password"));
-                String token = service.authService.login(username, password);
-                if (token == null) { sendJson(ex,401, Map.of("code",1,"message","无效的凭证")); return; }
-                sendJson(ex,200, Map.of("code",0,"data", Map.of("token", token)));
-            } catch (Exception e) {
-                sendJson(ex,400, Map.of("code",400,"message","无效的请求"));
+    static class ReturnRoutes {
+        static void register(router r) {
+            r.post("/api/return", ReturnRoutes::create);
+        }
+
+        static void create(HttpExchange ex, router.params p) throws Exception {
+            returnRequest req = requestBody.read(ex.getRequestBody(), returnRequest.class);
+            req.validate();
+            LocalDate returnDate = req.returnDateOrToday();
+            if (req.borrowIds() != null) {
+                var result = returnService.createReturnBatch(req.borrowIds(), returnDate);
+                sendOk(ex, Map.of("returned", result));
+            } else {
+                long returnId = returnService.createReturn(req.borrowId(), returnDate);
+                sendOk(ex, Map.of("returnId", returnId));
             }
         }
     }
 
-    static class LogoutHandler implements HttpHandler {
-        @Override
-        public void handle(HttpExchange ex) throws IOException {
+    static class AuthRoutes {
+        static void register(router r) {
+            // /api/auth 为旧路径，与 /api/auth/login 相同
+            r.post("/api/auth", AuthRoutes::login)
+             .post("/api/auth/login", AuthRoutes::login)
+             .post("/api/auth/logout", AuthRoutes::logout);
+        }
+
+        static void login(HttpExchange ex, router.params p) throws Exception {
+            loginRequest req = requestBody.read(ex.getRequestBody(), loginRequest.class);
+            String token = service.authService.login(req.usernameOrEmpty(), req.passwordOrEmpty());
+            if (token == null) { sendJson(ex,401, Map.of("code",1,"message","无效的凭证")); return; }
+            sendJson(ex,200, Map.of("code",0,"data", Map.of("token", token)));
+        }
+
+        static void logout(HttpExchange ex, router.params p) throws Exception {
+            // 注销后该 token 立即失效
+            service.authService.logout(getAuthToken(ex));
+            sendJson(ex,200, Map.of("code",0));
+        }
+    }
+
+    /**
+     * 批量导出：GET /api/export/{books|readers|borrows|returns}
+     * <p>
+     * - format=ndjson（默认，每行一个 JSON 对象）或 csv（首行为列名，UTF-8 带 BOM）
+     * - borrows 按借阅日期、returns 按还书日期过滤：from / to（yyyy-MM-dd，均含当天，可省略）
+     * - gzip=true 或请求头 Accept-Encoding 含 gzip 时压缩输出
+     * <p>
+     * 数据库端使用只读、仅向前的流式游标，整张表也只占一个连接和常量内存。
+     * 输出中途出错时追加一行 {"error": "..."}（csv 为 "#error,..."），表示导出不完整。
+     */
+    static class ExportRoutes {
+        interface source {
+            itemsWriter open(String from, String to);
+        }
+
+        static void register(router r) {
+            r.get("/api/export", (ex, p) -> sendJson(ex,400, Map.of("code",400,"message","未指定导出类型")))
+             .get("/api/export/{type}", (ex, p) -> sendJson(ex,404, Map.of("code",404,"message","未知的导出类型")))
+             .get("/api/export/books", (ex, p) -> export(ex, "books", (from, to) -> bookService::exportBooks))
+             .get("/api/export/readers", (ex, p) -> export(ex, "readers", (from, to) -> readerService::exportReaders))
+             .get("/api/export/borrows", (ex, p) -> export(ex, "borrows", (from, to) -> sink -> borrowService.exportBorrows(from, to, sink)))
+             .get("/api/export/returns", (ex, p) -> export(ex, "returns", (from, to) -> sink -> returnService.exportReturns(from, to, sink)));
+        }
+
+        static void export(HttpExchange ex, String type, source source) throws IOException {
+            Map<String,String> q = queryToMap(ex.getRequestURI().getQuery());
+            String format = q.getOrDefault("format", "ndjson").toLowerCase(Locale.ROOT);
+            if (!"ndjson".equals(format) && !"csv".equals(format)) { sendJson(ex,400, Map.of("code",400,"message","format 只支持 ndjson 或 csv")); return; }
+            String from = q.get("from");
+            String to = q.get("to");
             try {
-                if (!"POST".equalsIgnoreCase(ex.getRequestMethod())) { sendJson(ex,405, Map.of("code",405,"message","不允许的方法")); return; }
-                String token = getAuthToken(ex);
-                // simple: remove token if exists
-                if (token != null) { /* authService doesn't expose remove, but we can accept logout as client-side action */ }
-                sendJson(ex,200, Map.of("code",0));
-            } catch (Exception e) {
-                sendJson(ex,400, Map.of("code",400,"message","无效的请求"));
+                if (from != null && !from.isBlank()) LocalDate.parse(from);
+                if (to != null && !to.isBlank()) LocalDate.parse(to);
+            } catch (java.time.format.DateTimeParseException e) {
+                sendJson(ex,400, Map.of("code",400,"message","日期格式应为 yyyy-MM-dd")); return;
             }
+            // 导出只输出 gzip：显式 gzip=true，或 Accept-Encoding 协商结果为 gzip（gzip;q=0 不算）
+            boolean gzip = "true".equalsIgnoreCase(q.get("gzip")) || "gzip".equals(acceptedEncoding(ex));
+            sendExport(ex, type + "." + format, "csv".equals(format), gzip, source.open(from, to));
         }
     }
 
-    static class StatisticsHandler implements HttpHandler {
-        @Override
-        public void handle(HttpExchange ex) throws IOException {
-            try {
-                if (!requireAuth(ex)) return;
-                String method = ex.getRequestMethod();
-                if (!"GET".equalsIgnoreCase(method)) { sendJson(ex,405, Map.of("code",405,"message","不允许的方法")); return; }
-                URI uri = ex.getRequestURI();
-                String path = uri.getPath();
-                String[] parts = path.split("/");
-                if (parts.length < 4) { sendJson(ex,400, Map.of("code",400,"message","未指定统计类型")); return; }
-                String type = parts[3];
-                Map<String,String> q = queryToMap(uri.getQuery());
-                // accept frontend naming too
-                if ("popular".equalsIgnoreCase(type) || "popular-books".equalsIgnoreCase(type)) {
-                    int top = Integer.parseInt(q.getOrDefault("top", "10"));
-                    var items = bookService.getPopularBooks(top);
-                    sendJson(ex,200, Map.of("code",0, "data", Map.of("items", items)));
-                    return;
-                } else if ("vacant".equalsIgnoreCase(type) || "vacant-books".equalsIgnoreCase(type)) {
-                    int offset = Integer.parseInt(q.getOrDefault("offset","0"));
-                    int limit = Integer.parseInt(q.getOrDefault("limit","20"));
-                    var items = bookService.getVacantBooks(offset, limit);
-                    int total = bookService.countVacantBooks();
-                    Map<String,Object> data = new HashMap<>();
-                    data.put("items", items);
-                    data.put("total", total);
-                    sendOk(ex, data);
-                    return;
-                } else if ("overdue".equalsIgnoreCase(type) || "overdue-books".equalsIgnoreCase(type)) {
-                    // Support both offset/limit and page/size parameters for pagination
-                    int offset, limit;
-                    if (q.containsKey("page") && q.containsKey("size")) {
-                        int page = Integer.parseInt(q.getOrDefault("page","1"));
-                        int size = Integer.parseInt(q.getOrDefault("size","20"));
-                        offset = (page - 1) * size;
-                        limit = size;
-                    } else {
-                        offset = Integer.parseInt(q.getOrDefault("offset","0"));
-                        limit = Integer.parseInt(q.getOrDefault("limit","20"));
-                    }
-                    String readerName = q.get("readerName");
-                    String bookTitle = q.get("bookTitle");
-                    var items = borrowService.getOverdueList(readerName, bookTitle, offset, limit);
-                    int total = borrowService.countOverdue(readerName, bookTitle);
-                    Map<String,Object> data = new HashMap<>();
-                    data.put("items", items);
-                    data.put("total", total);
-                    sendOk(ex, data);
-                    return;
-                } else if ("overview".equalsIgnoreCase(type)) {
-                    // compute simple overview metrics via direct queries
-                    try (java.sql.Connection c = db.getConnection()) {
-                        int totalBooks = 0; int totalReaders = 0; int borrowedNow = 0; int overdue = 0;
-                        int todayBorrows = 0; int todayReturns = 0;
-                        
-                        // 修改：统计图书总册数而不是图书种类数
-                        try (java.sql.PreparedStatement ps = c.prepareStatement("SELECT SUM(bookTotalCopies) FROM bookInformation")) {
-                            try (java.sql.ResultSet rs = ps.executeQuery()) { if (rs.next()) totalBooks = rs.getInt(1); }
-                        }
-                        try (java.sql.PreparedStatement ps = c.prepareStatement("SELECT COUNT(*) FROM readerInformation")) {
-                            try (java.sql.ResultSet rs = ps.executeQuery()) { if (rs.next()) totalReaders = rs.getInt(1); }
-                        }
-                        try (java.sql.PreparedStatement ps = c.prepareStatement("SELECT COUNT(*) FROM borrowTable WHERE borrowStates = 0")) {
-                            try (java.sql.ResultSet rs = ps.executeQuery()) { if (rs.next()) borrowedNow = rs.getInt(1); }
-                        }
-                        try (java.sql.PreparedStatement ps = c.prepareStatement("SELECT COUNT(*) FROM borrowTable WHERE borrowStates = 0 AND dueDate < CURRENT_DATE()")) {
-                            try (java.sql.ResultSet rs = ps.executeQuery()) { if (rs.next()) overdue = rs.getInt(1); }
-                        }
-                        // 今日借书：统计今天借出的图书数量
-                        try (java.sql.PreparedStatement ps = c.prepareStatement("SELECT COUNT(*) FROM borrowTable WHERE DATE(borrowDate) = CURRENT_DATE()")) {
-                            try (java.sql.ResultSet rs = ps.executeQuery()) { if (rs.next()) todayBorrows = rs.getInt(1); }
-                        }
-                        // 今日还书：统计今天归还的图书数量
-                        try (java.sql.PreparedStatement ps = c.prepareStatement("SELECT COUNT(*) FROM returnTable WHERE DATE(returnDate) = CURRENT_DATE()")) {
-                            try (java.sql.ResultSet rs = ps.executeQuery()) { if (rs.next()) todayReturns = rs.getInt(1); }
-                        }
-                        
-                        sendJson(ex,200, Map.of("code",0, "data", Map.of(
-                            "totalBooks", totalBooks, 
-                            "totalReaders", totalReaders, 
-                            "borrowedNow", borrowedNow, 
-                            "overdue", overdue,
-                            "todayBorrows", todayBorrows,
-                            "todayReturns", todayReturns
-                        )));
-                        return;
-                    }
-                } else if ("borrow-details".equalsIgnoreCase(type)) {
-                    // expected path: /api/statistics/borrow-details/{readerId}
-                    if (parts.length>=5) {
-                        String readerId = parts[4];
-                        int offset = Integer.parseInt(q.getOrDefault("offset","0"));
-                        int limit = Integer.parseInt(q.getOrDefault("limit","100"));
-                        var items = borrowService.listBorrows(readerId, null, null, null, null, offset, limit);
-                        sendJson(ex,200, Map.of("code",0, "data", Map.of("items", items)));
-                        return;
-                    } else { sendJson(ex,400, Map.of("code",400,"message","需要读者ID")); return; }
-                } else {
-                    sendJson(ex,404, Map.of("code",1,"message","未知的统计类型"));
-                    return;
+    /**
+     * 批量导入：POST /api/import/{books|readers}，请求体为 csv 或 ndjson（format 参数，缺省按 Content-Type 判断），
+     * commitSize 为每个事务的行数。请求体 Content-Encoding: gzip 时先解压。返回各行的错误而不是整体失败。
+     */
+    static class ImportRoutes {
+        static void register(router r) {
+            r.post("/api/import", (ex, p) -> sendJson(ex,400, Map.of("code",400,"message","未指定导入类型")))
+             .post("/api/import/{type}", (ex, p) -> sendJson(ex,404, Map.of("code",404,"message","未知的导入类型")))
+             .post("/api/import/books", (ex, p) -> importRows(ex, "books"))
+             .post("/api/import/readers", (ex, p) -> importRows(ex, "readers"));
+        }
+
+        static void importRows(HttpExchange ex, String type) throws Exception {
+            Map<String,String> q = queryToMap(ex.getRequestURI().getQuery());
+            String contentType = ex.getRequestHeaders().getFirst("Content-Type");
+            String format = q.getOrDefault("format", contentType != null && contentType.toLowerCase(Locale.ROOT).contains("csv") ? "csv" : "ndjson");
+            if (!"ndjson".equalsIgnoreCase(format) && !"csv".equalsIgnoreCase(format)) { sendJson(ex,400, Map.of("code",400,"message","format 只支持 ndjson 或 csv")); return; }
+            int commitSize = Integer.parseInt(q.getOrDefault("commitSize", String.valueOf(service.bulkImport.DEFAULT_COMMIT_SIZE)));
+            if (commitSize < 1 || commitSize > service.bulkImport.MAX_COMMIT_SIZE) {
+                sendJson(ex,400, Map.of("code",400,"message","commitSize 应在 1 到 " + service.bulkImport.MAX_COMMIT_SIZE + " 之间"));
+                return;
+            }
+            Map<String,Object> result;
+            try (InputStream in = "gzip".equalsIgnoreCase(ex.getRequestHeaders().getFirst("Content-Encoding"))
+                    ? new GZIPInputStream(ex.getRequestBody()) : ex.getRequestBody()) {
+                result = "books".equals(type)
+                        ? service.bulkImport.importBooks(in, format, commitSize)
+                        : service.bulkImport.importReaders(in, format, commitSize);
+            }
+            sendOk(ex, result);
+        }
+    }
+
+    static void sendExport(HttpExchange ex, String fileName, boolean csv, boolean gzip, itemsWriter writer) throws IOException {
+        addCorsHeaders(ex);
+        ex.getResponseHeaders().set("Content-Type", csv ? "text/csv; charset=utf-8" : "application/x-ndjson; charset=utf-8");
+        ex.getResponseHeaders().set("Content-Disposition", "attachment; filename=\"" + fileName + "\"");
+        if (gzip) ex.getResponseHeaders().set("Content-Encoding", "gzip");
+        ex.sendResponseHeaders(200, 0);
+        OutputStream body = ex.getResponseBody();
+        try (OutputStream os = gzip ? new GZIPOutputStream(body, 8192) : new BufferedOutputStream(body, 8192)) {
+            if (csv) writeCsv(os, writer);
+            else writeNdjson(os, writer);
+        }
+    }
+
+    private static void writeNdjson(OutputStream os, itemsWriter writer) throws IOException {
+        JsonGenerator gen = mapper.getFactory().createGenerator(os, JsonEncoding.UTF8);
+        gen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        gen.setRootValueSeparator(null); // 行之间只用换行分隔，默认的空格会出现在每行开头
+        try {
+            writer.write(row -> {
+                gen.writeObject(row);
+                gen.writeRaw('\n');
+            });
+        } catch (SQLException e) {
+            gen.writeStartObject();
+            gen.writeStringField("error", e.getMessage());
+            gen.writeEndObject();
+            gen.writeRaw('\n');
+        }
+        gen.close();
+    }
+
+    private static void writeCsv(OutputStream os, itemsWriter writer) throws IOException {
+        java.io.Writer w = new java.io.OutputStreamWriter(os, java.nio.charset.StandardCharsets.UTF_8);
+        w.write('\uFEFF'); // Excel 按 BOM 识别 UTF-8，中文不乱码
+        boolean[] header = {false};
+        try {
+            writer.write(row -> {
+                // 列名和取值与 JSON 输出一致（同一个 ObjectMapper 转成有序 Map）
+                Map<String,Object> m = mapper.convertValue(row, new TypeReference<LinkedHashMap<String,Object>>() {});
+                if (!header[0]) {
+                    writeCsvLine(w, m.keySet());
+                    header[0] = true;
                 }
-            } catch (SQLException se) {
-                sendJson(ex,500, Map.of("code",500,"message", se.getMessage()));
-            } catch (Exception e) {
-                sendJson(ex,400, Map.of("code",400,"message","无效的请求"));
+                writeCsvLine(w, m.values());
+            });
+        } catch (SQLException e) {
+            writeCsvLine(w, List.of("#error", e.getMessage()));
+        }
+        w.flush();
+    }
+
+    private static void writeCsvLine(java.io.Writer w, Collection<?> values) throws IOException {
+        boolean first = true;
+        for (Object v : values) {
+            if (!first) w.write(',');
+            first = false;
+            if (v == null) continue;
+            String s = v.toString();
+            if (s.indexOf(',') >= 0 || s.indexOf('"') >= 0 || s.indexOf('\n') >= 0 || s.indexOf('\r') >= 0) {
+                w.write('"');
+                w.write(s.replace("\"", "\"\""));
+                w.write('"');
+            } else {
+                w.write(s);
             }
         }
+        w.write("\r\n");
+    }
+
+    static class StatisticsRoutes {
+        static void register(router r) {
+            r.get("/api/statistics", (ex, p) -> sendJson(ex,400, Map.of("code",400,"message","未指定统计类型")))
+             .get("/api/statistics/{type}", (ex, p) -> sendJson(ex,404, Map.of("code",1,"message","未知的统计类型")))
+             // accept frontend naming too
+             .get("/api/statistics/popular", StatisticsRoutes::popularBooks)
+             .get("/api/statistics/popular-books", StatisticsRoutes::popularBooks)
+             .get("/api/statistics/vacant", StatisticsRoutes::vacantBooks)
+             .get("/api/statistics/vacant-books", StatisticsRoutes::vacantBooks)
+             .get("/api/statistics/overdue", StatisticsRoutes::overdueBooks)
+             .get("/api/statistics/overdue-books", StatisticsRoutes::overdueBooks)
+             // 概览数据由 overviewCounters 在内存中维护，写操作时同步更新并定期与数据库对账
+             .get("/api/statistics/overview", (ex, p) -> sendJson(ex,200, Map.of("code",0, "data", service.overviewCounters.snapshot())))
+             // 热门排行各窗口规模
+             .get("/api/statistics/popular-ranking", (ex, p) -> sendOk(ex, service.popularRanking.getStats()))
+             // 逾期扫描最近一次耗时、改动行数和高水位
+             .get("/api/statistics/overdue-sweeper", (ex, p) -> sendOk(ex, service.overdueSweeper.getStats()))
+             // 概览计数器的对账状态
+             .get("/api/statistics/overview-counters", (ex, p) -> sendOk(ex, service.overviewCounters.getStats()))
+             // 借阅明细宽表的对账状态
+             .get("/api/statistics/circulation-view", (ex, p) -> sendOk(ex, service.circulationView.getStats()))
+             .get("/api/statistics/statements", StatisticsRoutes::statements)
+             // 清空语句统计（有副作用，不放在 GET 上，避免预取、重试或监控抓取误触发）
+             .delete("/api/statistics/statements", (ex, p) -> { statementProfiler.reset(); sendJson(ex,200, Map.of("code",0)); })
+             // 登录会话数量、过期/注销/淘汰次数和最近一次清理
+             .get("/api/statistics/sessions", (ex, p) -> sendOk(ex, service.authService.getStats()))
+             // 连接池运行状态，用于调整 DB_POOL_MIN / DB_POOL_MAX
+             .get("/api/statistics/pool", (ex, p) -> sendOk(ex, db.getPoolStats()))
+             // 图书目录缓存命中率
+             .get("/api/statistics/cache", (ex, p) -> sendOk(ex, service.catalogCache.getStats()))
+             // 图书检索倒排索引规模
+             .get("/api/statistics/search-index", (ex, p) -> sendOk(ex, service.bookSearchIndex.getStats()))
+             .get("/api/statistics/borrow-details", (ex, p) -> sendJson(ex,400, Map.of("code",400,"message","需要读者ID")))
+             .get("/api/statistics/borrow-details/{readerId}", StatisticsRoutes::borrowDetails);
+        }
+
+        static void popularBooks(HttpExchange ex, router.params p) throws Exception {
+            Map<String,String> q = queryToMap(ex.getRequestURI().getQuery());
+            int top = Integer.parseInt(q.getOrDefault("top", "10"));
+            // days=7/30/365 按近 N 天的借阅次数排行，缺省为全部历史
+            int days = Integer.parseInt(q.getOrDefault("days", "0"));
+            var items = bookService.getPopularBooks(top, days);
+            sendJson(ex,200, Map.of("code",0, "data", Map.of("items", items)));
+        }
+
+        static void vacantBooks(HttpExchange ex, router.params p) throws Exception {
+            Map<String,String> q = queryToMap(ex.getRequestURI().getQuery());
+            int offset = Integer.parseInt(q.getOrDefault("offset","0"));
+            int limit = Integer.parseInt(q.getOrDefault("limit","20"));
+            sendOk(ex, bookService.getVacantBooksPage(offset, limit, q.get("totalMode")));
+        }
+
+        static void overdueBooks(HttpExchange ex, router.params p) throws Exception {
+            Map<String,String> q = queryToMap(ex.getRequestURI().getQuery());
+            // Support both offset/limit and page/size parameters for pagination
+            int offset, limit;
+            if (q.containsKey("page") && q.containsKey("size")) {
+                int page = Integer.parseInt(q.getOrDefault("page","1"));
+                int size = Integer.parseInt(q.getOrDefault("size","20"));
+                offset = (page - 1) * size;
+                limit = size;
+            } else {
+                offset = Integer.parseInt(q.getOrDefault("offset","0"));
+                limit = Integer.parseInt(q.getOrDefault("limit","20"));
+            }
+            String readerName = q.get("readerName");
+            String bookTitle = q.get("bookTitle");
+            String totalMode = q.get("totalMode");
+            Map<String,Object> data;
+            if (q.containsKey("cursor")) {
+                // 游标分页：cursor 为空表示第一页，响应中的 nextCursor 用于请求下一页
+                data = borrowService.getOverdueListAfter(readerName, bookTitle, q.get("cursor"), limit);
+                Integer total = borrowService.countOverdue(readerName, bookTitle, totalMode);
+                if (total != null) data.put("total", total);
+            } else {
+                data = borrowService.getOverdueListPage(readerName, bookTitle, offset, limit, totalMode);
+            }
+            sendOk(ex, data);
+        }
+
+        // 各 SQL 语句的执行次数和耗时（按总耗时降序）；清空用 DELETE /api/statistics/statements
+        static void statements(HttpExchange ex, router.params p) throws Exception {
+            Map<String,String> q = queryToMap(ex.getRequestURI().getQuery());
+            int top = Integer.parseInt(q.getOrDefault("top", "50"));
+            sendOk(ex, statementProfiler.getStats(top));
+        }
+
+        static void borrowDetails(HttpExchange ex, router.params p) throws Exception {
+            Map<String,String> q = queryToMap(ex.getRequestURI().getQuery());
+            String readerId = p.get("readerId");
+            int offset = Integer.parseInt(q.getOrDefault("offset","0"));
+            int limit = Integer.parseInt(q.getOrDefault("limit","100"));
+            // 逐行流式输出，limit 取几千行时也不会先把整页收集到内存
+            sendJsonItems(ex, sink -> borrowService.streamBorrows(readerId, null, null, null, null, offset, limit, sink));
+        }
     }
 
     // no manual JSON extractor needed; Jackson is used instead
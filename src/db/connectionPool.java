@@ -0,0 +1,359 @@
+package db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 有界 JDBC 连接池。
+ * <p>
+ * - 最小/最大连接数：最多同时借出 maxSize 个连接，后台线程保持至少 minSize 个物理连接
+ * - 空闲回收：空闲超过 idleTimeoutMs 且总数大于 minSize 的连接会被关闭
+ * - 借出校验：空闲超过 validationIntervalMs 的连接在借出前调用 isValid 检查
+ * - 泄漏检测（leakThresholdMs > 0 时开启）：借出超过 leakThresholdMs 未归还时打印借出位置的调用栈；
+ *   开启后每次借出都要记录调用栈，只建议排查泄漏时打开
+ * - 等待超时：连接耗尽时最多等待 waitTimeoutMs，超时抛出 SQLException
+ * - 语句缓存：每个物理连接缓存最近使用的 statementCacheSize 条 PreparedStatement（见 statementCache）
+ * <p>
+ * 借出的是 Connection 代理，调用 close() 会归还到池中而不是关闭物理连接，
+ * 因此服务层现有的 try-with-resources 写法无需修改。
+ */
+public class connectionPool {
+
+    private final String url;
+    private final String user;
+    private final String pwd;
+    private final int minSize;
+    private final int maxSize;
+    private final long waitTimeoutMs;
+    private final long idleTimeoutMs;
+    private final long validationIntervalMs;
+    private final long leakThresholdMs;
+    private final int statementCacheSize;
+
+    // 每个借出的连接占用一个许可，保证借出数量不超过 maxSize
+    private final Semaphore permits;
+    // 空闲连接，头部为最近归还的连接（LIFO，让冷连接自然老化被回收）
+    private final LinkedBlockingDeque<pooledConnection> idle = new LinkedBlockingDeque<>();
+    private final Set<pooledConnection> borrowed = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService housekeeper;
+
+    private final AtomicInteger totalConnections = new AtomicInteger();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong destroyedCount = new AtomicLong();
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong validationFailures = new AtomicLong();
+    private final AtomicLong leakCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private volatile boolean shutdown = false;
+
+    public connectionPool(String url, String user, String pwd, int minSize, int maxSize,
+                          long waitTimeoutMs, long idleTimeoutMs, long validationIntervalMs, long leakThresholdMs) {
+        this(url, user, pwd, minSize, maxSize, waitTimeoutMs, idleTimeoutMs, validationIntervalMs, leakThresholdMs, 0);
+    }
+
+    /**
+     * @param statementCacheSize 每个连接缓存的 PreparedStatement 数，0 表示不缓存
+     */
+    public connectionPool(String url, String user, String pwd, int minSize, int maxSize,
+                          long waitTimeoutMs, long idleTimeoutMs, long validationIntervalMs, long leakThresholdMs,
+                          int statementCacheSize) {
+        if (maxSize < 1) throw new IllegalArgumentException("maxSize must be >= 1");
+        this.url = url;
+        this.user = user;
+        this.pwd = pwd;
+        this.maxSize = maxSize;
+        this.minSize = Math.max(0, Math.min(minSize, maxSize));
+        this.waitTimeoutMs = waitTimeoutMs;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.validationIntervalMs = validationIntervalMs;
+        this.leakThresholdMs = leakThresholdMs;
+        this.statementCacheSize = Math.max(0, statementCacheSize);
+        this.permits = new Semaphore(maxSize, true);
+
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "db-pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1000L, Math.min(idleTimeoutMs > 0 ? idleTimeoutMs / 2 : 30000L, 30000L));
+        housekeeper.scheduleWithFixedDelay(this::housekeep, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 借出一个连接。连接耗尽时等待至多 waitTimeoutMs 毫秒。
+     */
+    public Connection getConnection() throws SQLException {
+        if (shutdown) throw new SQLException("Connection pool is shut down");
+        long start = System.nanoTime();
+        waiting.incrementAndGet();
+        try {
+            if (!permits.tryAcquire(waitTimeoutMs, TimeUnit.MILLISECONDS)) {
+                timeoutCount.incrementAndGet();
+                throw new SQLException("Timed out after " + waitTimeoutMs + "ms waiting for a database connection "
+                        + "(active=" + borrowed.size() + ", max=" + maxSize + ")");
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", ie);
+        } finally {
+            waiting.decrementAndGet();
+        }
+        recordWait(System.nanoTime() - start);
+
+        try {
+            pooledConnection pc = takeIdleValidated();
+            if (pc == null) pc = createPhysical();
+            pc.lastBorrowedAt = System.currentTimeMillis();
+            pc.leakReported = false;
+            pc.borrowStack = leakThresholdMs > 0 ? new Exception("Connection borrowed here") : null;
+            borrowed.add(pc);
+            borrowCount.incrementAndGet();
+            return pc.lease();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private pooledConnection takeIdleValidated() {
+        pooledConnection pc;
+        while ((pc = idle.pollFirst()) != null) {
+            long idleFor = System.currentTimeMillis() - pc.lastReturnedAt;
+            if (idleFor < validationIntervalMs) return pc;
+            try {
+                if (pc.physical.isValid(2)) return pc;
+            } catch (SQLException ignored) {
+                // fall through to destroy
+            }
+            validationFailures.incrementAndGet();
+            destroy(pc);
+        }
+        return null;
+    }
+
+    /**
+     * 打开一个不受连接池管理的物理连接，调用方负责关闭。
+     * 用于需要独立提交、且不能与业务事务争用池内连接的场景（如 ID 号段分配）。
+     */
+    public Connection openUnpooled() throws SQLException {
+        return DriverManager.getConnection(url, user, pwd);
+    }
+
+    private pooledConnection createPhysical() throws SQLException {
+        Connection physical = DriverManager.getConnection(url, user, pwd);
+        totalConnections.incrementAndGet();
+        createdCount.incrementAndGet();
+        return new pooledConnection(physical);
+    }
+
+    private void destroy(pooledConnection pc) {
+        totalConnections.decrementAndGet();
+        destroyedCount.incrementAndGet();
+        if (pc.statements != null) pc.statements.closeAll();
+        try {
+            pc.physical.close();
+        } catch (SQLException ignored) {}
+    }
+
+    /**
+     * 代理连接 close() 时调用：重置连接状态后放回空闲队列，状态异常的连接直接销毁。
+     */
+    private void release(pooledConnection pc) {
+        borrowed.remove(pc);
+        if (pc.statements != null) pc.statements.releaseInUse();
+        try {
+            boolean reusable = !shutdown && !pc.physical.isClosed();
+            if (reusable) {
+                try {
+                    if (!pc.physical.getAutoCommit()) {
+                        pc.physical.rollback();
+                        pc.physical.setAutoCommit(true);
+                    }
+                    if (pc.physical.isReadOnly()) pc.physical.setReadOnly(false);
+                    pc.physical.clearWarnings();
+                } catch (SQLException e) {
+                    reusable = false;
+                }
+            }
+            if (reusable) {
+                pc.lastReturnedAt = System.currentTimeMillis();
+                pc.borrowStack = null;
+                idle.offerFirst(pc);
+            } else {
+                destroy(pc);
+            }
+        } catch (SQLException e) {
+            destroy(pc);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void recordWait(long nanos) {
+        totalWaitNanos.addAndGet(nanos);
+        long prev;
+        while (nanos > (prev = maxWaitNanos.get())) {
+            if (maxWaitNanos.compareAndSet(prev, nanos)) break;
+        }
+    }
+
+    /**
+     * 后台维护：回收过期空闲连接、补足最小连接数、报告疑似泄漏的连接。
+     */
+    private void housekeep() {
+        try {
+            long now = System.currentTimeMillis();
+
+            if (idleTimeoutMs > 0) {
+                // 从尾部（最久未使用）开始回收，保留 minSize 个连接
+                pooledConnection oldest;
+                while (totalConnections.get() > minSize && (oldest = idle.peekLast()) != null
+                        && now - oldest.lastReturnedAt > idleTimeoutMs) {
+                    if (idle.removeLastOccurrence(oldest)) destroy(oldest);
+                }
+            }
+
+            while (!shutdown && totalConnections.get() < minSize) {
+                try {
+                    pooledConnection pc = createPhysical();
+                    pc.lastReturnedAt = System.currentTimeMillis();
+                    idle.offerLast(pc);
+                } catch (SQLException e) {
+                    if (Boolean.parseBoolean(System.getProperty("debug", "false"))) {
+                        System.err.println("Debug: pool fill failed: " + e.getMessage());
+                    }
+                    break;
+                }
+            }
+
+            if (leakThresholdMs > 0) {
+                for (pooledConnection pc : borrowed) {
+                    if (!pc.leakReported && now - pc.lastBorrowedAt > leakThresholdMs) {
+                        pc.leakReported = true;
+                        leakCount.incrementAndGet();
+                        System.err.println("Warning: possible connection leak, borrowed " + (now - pc.lastBorrowedAt)
+                                + "ms ago and not returned");
+                        if (pc.borrowStack != null) pc.borrowStack.printStackTrace();
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Connection pool housekeeping failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 连接池运行状态，用于调整 min/max 大小。
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        long borrows = borrowCount.get();
+        m.put("minSize", minSize);
+        m.put("maxSize", maxSize);
+        m.put("total", totalConnections.get());
+        m.put("active", borrowed.size());
+        m.put("idle", idle.size());
+        m.put("waiting", waiting.get());
+        m.put("borrowCount", borrows);
+        m.put("createdCount", createdCount.get());
+        m.put("destroyedCount", destroyedCount.get());
+        m.put("timeoutCount", timeoutCount.get());
+        m.put("validationFailures", validationFailures.get());
+        m.put("leakCount", leakCount.get());
+        m.put("avgWaitMs", borrows == 0 ? 0.0 : totalWaitNanos.get() / 1_000_000.0 / borrows);
+        m.put("maxWaitMs", maxWaitNanos.get() / 1_000_000.0);
+        m.put("stmtCacheSize", statementCacheSize);
+        statementCache.putStats(m);
+        return m;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * 关闭连接池：关闭所有空闲连接，借出中的连接在归还时关闭。
+     */
+    public void shutdown() {
+        shutdown = true;
+        housekeeper.shutdownNow();
+        pooledConnection pc;
+        while ((pc = idle.pollFirst()) != null) destroy(pc);
+    }
+
+    /**
+     * 物理连接及其池内元数据。每次借出生成新的代理，避免重复 close() 导致二次归还。
+     */
+    private final class pooledConnection {
+        final Connection physical;
+        final statementCache statements;
+        volatile long lastBorrowedAt;
+        volatile long lastReturnedAt = System.currentTimeMillis();
+        volatile boolean leakReported;
+        volatile Throwable borrowStack;
+
+        pooledConnection(Connection physical) {
+            this.physical = physical;
+            this.statements = statementCacheSize > 0 ? new statementCache(physical, statementCacheSize) : null;
+        }
+
+        Connection lease() {
+            AtomicBoolean closed = new AtomicBoolean(false);
+            InvocationHandler h = (proxy, method, args) -> {
+                String name = method.getName();
+                if ("close".equals(name) && method.getParameterCount() == 0) {
+                    if (closed.compareAndSet(false, true)) release(this);
+                    return null;
+                }
+                if ("isClosed".equals(name) && method.getParameterCount() == 0) {
+                    return closed.get() || physical.isClosed();
+                }
+                if (closed.get()) {
+                    if ("toString".equals(name) || "hashCode".equals(name) || "equals".equals(name)) {
+                        return invokeObjectMethod(proxy, method, args);
+                    }
+                    throw new SQLException("Connection has been returned to the pool");
+                }
+                if (method.getDeclaringClass() == Object.class) return invokeObjectMethod(proxy, method, args);
+                try {
+                    // prepareStatement(sql) 优先从语句缓存取；创建的 Statement 由 statementProfiler 包装计时
+                    Object result = statements != null && "prepareStatement".equals(name) && method.getParameterCount() == 1
+                            ? statements.prepare((String) args[0])
+                            : method.invoke(physical, args);
+                    return statementProfiler.wrapIfStatement(method, args, result);
+                } catch (InvocationTargetException ite) {
+                    throw ite.getCause();
+                }
+            };
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, h);
+        }
+
+        private Object invokeObjectMethod(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+                case "equals": return proxy == args[0];
+                case "hashCode": return System.identityHashCode(proxy);
+                default: return "pooled:" + physical;
+            }
+        }
+    }
+}
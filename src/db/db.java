@@ -1,44 +1,120 @@
 package db;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Map;
 
 /**
  * 简单的数据库连接助手类（JDBC）
- * 支持通过环境变量覆盖默认配置：DB_URL / DB_USER / DB_PWD
+ * 支持通过系统属性或环境变量覆盖默认配置：DB_URL / DB_USER / DB_PWD
  */
 public class db {
     // 默认配置（可被环境变量覆盖）
-    private static final String URL = "jdbc:mysql://localhost:3306/LibraryDB?useSSL=false&allowPublicKeyRetrieval=true&serverTimezone=UTC&characterEncoding=UTF-8&connectionCollation=utf8mb4_unicode_ci&createDatabaseIfNotExist=true";
+    private static final String URL = "jdbc:mysql://localhost:3306/LibraryDB?useSSL=false&allowPublicKeyRetrieval=true&serverTimezone=UTC&characterEncoding=UTF-8&connectionCollation=utf8mb4_unicode_ci&createDatabaseIfNotExist=true&rewriteBatchedStatements=true&useServerPrepStmts=true";
     private static final String USER = "root";
     private static final String PWD = "123456zhou";
 
+    private static volatile connectionPool pool;
+
+    // 借阅明细宽表：冗余书名/分类/读者姓名/归还日期，借阅列表和逾期列表只查这张表，见 service.circulationView；
+    // initDatabase 和 circulationView.start() 共用
+    public static final String CREATE_CIRCULATION_VIEW = "CREATE TABLE IF NOT EXISTS circulationView ("
+            + "borrowId VARCHAR(20) PRIMARY KEY,"
+            + "bookId VARCHAR(20),"
+            + "readerId VARCHAR(20),"
+            + "borrowDate DATE NOT NULL,"
+            + "dueDate DATE NOT NULL,"
+            + "borrowStates INT NOT NULL,"
+            + "bookTitle VARCHAR(255),"
+            + "readerName VARCHAR(50),"
+            + "category VARCHAR(50),"
+            + "returnDate DATE,"
+            + "INDEX idx_cv_states_due (borrowStates, dueDate, borrowId),"
+            + "INDEX idx_cv_states_borrow (borrowStates, borrowDate, borrowId),"
+            + "INDEX idx_cv_borrowDate (borrowDate, borrowId),"
+            + "INDEX idx_cv_reader (readerId, borrowDate),"
+            + "INDEX idx_cv_book (bookId)"
+            + ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4";
+
     /**
-     * 获取数据库连接。
+     * 获取数据库连接（从连接池借出）。
      * 优先使用环境变量 DB_URL、DB_USER、DB_PWD，如果未提供则使用默认值。
-     * 注意：调用者负责在使用完 Connection 后关闭它（或使用 try-with-resources）。
+     * 注意：调用者负责在使用完 Connection 后关闭它（或使用 try-with-resources），close() 会把连接归还到池中。
      */
     public static Connection getConnection() throws SQLException {
-        String url = System.getenv(URL);
-        String user = System.getenv(USER);
-        String pwd = System.getenv(PWD);
+        return getPool().getConnection();
+    }
+
+    /**
+     * 获取全局连接池，首次调用时按配置创建。
+     * 连接池参数可通过系统属性或环境变量覆盖：
+     * DB_POOL_MIN / DB_POOL_MAX / DB_POOL_WAIT_TIMEOUT_MS / DB_POOL_IDLE_TIMEOUT_MS /
+     * DB_POOL_VALIDATION_INTERVAL_MS / DB_POOL_LEAK_THRESHOLD_MS / DB_STMT_CACHE_SIZE
+     */
+    public static connectionPool getPool() throws SQLException {
+        connectionPool p = pool;
+        if (p != null) return p;
+        synchronized (db.class) {
+            if (pool == null) {
+                // 系统属性优先（基准测试等场景用 -DDB_URL 指向其他数据库）
+                String url = config("DB_URL", URL);
+                String user = config("DB_USER", USER);
+                String pwd = System.getProperty("DB_PWD", System.getenv("DB_PWD"));
+                if (pwd == null) pwd = PWD; // 密码允许为空字符串
+
+                // 显式加载驱动（现代JDBC驱动器通常不需要，但显式加载能在某些环境避免问题）
+                try {
+                    Class.forName("com.mysql.cj.jdbc.Driver");
+                } catch (ClassNotFoundException e) {
+                    // 如果驱动缺失，抛出 SQLException 包装
+                    throw new SQLException("MySQL JDBC Driver not found on classpath.", e);
+                }
 
-        if (url == null || url.isBlank()) url = URL;
-        if (user == null || user.isBlank()) user = USER;
-        if (pwd == null) pwd = PWD; // 密码允许为空字符串
+                pool = new connectionPool(url, user, pwd,
+                        intConfig("DB_POOL_MIN", 2),
+                        intConfig("DB_POOL_MAX", 10),
+                        longConfig("DB_POOL_WAIT_TIMEOUT_MS", 5000L),
+                        longConfig("DB_POOL_IDLE_TIMEOUT_MS", 600000L),
+                        longConfig("DB_POOL_VALIDATION_INTERVAL_MS", 500L),
+                        longConfig("DB_POOL_LEAK_THRESHOLD_MS", 0L),
+                        intConfig("DB_STMT_CACHE_SIZE", 64));
+            }
+            return pool;
+        }
+    }
 
-        // 显式加载驱动（现代JDBC驱动器通常不需要，但显式加载能在某些环境避免问题）
+    /**
+     * 连接池统计信息（活跃/空闲/等待数、超时次数、泄漏次数等）。
+     */
+    public static Map<String, Object> getPoolStats() throws SQLException {
+        return getPool().getStats();
+    }
+
+    /**
+     * 读取配置：先查系统属性（-DKEY=...），再查环境变量，都没有时返回默认值。
+     */
+    public static String config(String key, String def) {
+        String v = System.getProperty(key);
+        if (v == null || v.isBlank()) v = System.getenv(key);
+        return (v == null || v.isBlank()) ? def : v.trim();
+    }
+
+    public static int intConfig(String key, int def) {
         try {
-            Class.forName("com.mysql.cj.jdbc.Driver");
-        } catch (ClassNotFoundException e) {
-            // 如果驱动缺失，抛出 SQLException 包装
-            throw new SQLException("MySQL JDBC Driver not found on classpath.", e);
+            return Integer.parseInt(config(key, String.valueOf(def)));
+        } catch (NumberFormatException e) {
+            return def;
         }
+    }
 
-        return DriverManager.getConnection(url, user, pwd);
+    public static long longConfig(String key, long def) {
+        try {
+            return Long.parseLong(config(key, String.valueOf(def)));
+        } catch (NumberFormatException e) {
+            return def;
+        }
     }
 
     /**
@@ -110,6 +186,20 @@ public class db {
                 + "FOREIGN KEY (borrowId) REFERENCES borrowTable(borrowId)"
                 + ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;";
 
+        // 编号序列表：借阅号/归还号按前缀（年份/日期）分段预留，见 sequenceAllocator
+        String createSequence = "CREATE TABLE IF NOT EXISTS idSequence ("
+                + "seqName VARCHAR(40) PRIMARY KEY,"
+                + "nextValue BIGINT NOT NULL"
+                + ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;";
+
+        // 签名 token 的吊销记录，各实例定期拉取，见 authService
+        String createTokenRevocation = "CREATE TABLE IF NOT EXISTS tokenRevocation ("
+                + "jti VARCHAR(32) PRIMARY KEY,"
+                + "expiresAt BIGINT NOT NULL,"
+                + "revokedAt BIGINT NOT NULL,"
+                + "INDEX idx_revokedAt (revokedAt)"
+                + ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;";
+
         try (Connection conn = getConnection(); Statement st = conn.createStatement()) {
             // 先创建父表
             st.executeUpdate(createBook);
@@ -117,6 +207,9 @@ public class db {
             // 再创建依赖表
             st.executeUpdate(createBorrow);
             st.executeUpdate(createReturn);
+            st.executeUpdate(createSequence);
+            st.executeUpdate(createTokenRevocation);
+            st.executeUpdate(CREATE_CIRCULATION_VIEW);
 
             // 创建索引（若无权限或已存在会抛出异常，捕获并记录）
             String[] indexes = new String[] {
@@ -135,6 +228,7 @@ public class db {
                 "CREATE INDEX fk_readerId ON borrowTable (readerId)",
                 "CREATE INDEX idx_borrowStates ON borrowTable (borrowStates)",
                 "CREATE INDEX idx_dueDate ON borrowTable (dueDate)",
+                "CREATE INDEX idx_borrowDate ON borrowTable (borrowDate)",
                 "CREATE INDEX idx_reader_borrow ON borrowTable (readerId, borrowDate)",
                 "CREATE INDEX idx_book_stats ON borrowTable (bookId, borrowDate)",
                 // returnTable
@@ -164,6 +258,7 @@ public class db {
             initDatabase();
             try (Connection c = getConnection(); Statement s = c.createStatement()) {
                 System.out.println("DB connected: " + c.getMetaData().getURL());
+                System.out.println("Pool stats: " + getPoolStats());
                 try (ResultSet rs = s.executeQuery("SELECT 1")) {
                     if (rs.next()) System.out.println("Test query OK: " + rs.getInt(1));
                 }
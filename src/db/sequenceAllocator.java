@@ -0,0 +1,218 @@
+package db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.Statement;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 号段式 ID 分配器（基于 idSequence 表）。
+ * <p>
+ * 每个前缀（如借阅号的年份 "2025"、归还号的 "RT20251201"）在 idSequence 表中对应一行，
+ * 分配时一次预留 blockSize 个序号，之后在进程内递增，用完再向数据库预留下一段。
+ * 预留在独立连接上以 SELECT ... FOR UPDATE + UPDATE 完成并立即提交，
+ * 因此多个事务、多个服务实例之间不会拿到重复序号；业务事务回滚只会留下空号，不会重号。
+ * 某个前缀首次使用时，以业务表中该前缀下已有的最大编号作为起点。
+ * <p>
+ * 纯数字编号（图书号、读者号）使用 reserveNumeric 按需一次预留任意个连续序号，不在进程内缓存。
+ */
+public class sequenceAllocator {
+
+    private static final int MAX_CACHED_PREFIXES = 64;
+    // 自带编号最多把序列向前推进这么多；更远的编号（如 99999999999）直接拒绝，以免一条记录浪费掉大段号码
+    public static final long MAX_ADVANCE = db.longConfig("ID_SEQUENCE_MAX_ADVANCE", 10000L);
+    private static final ConcurrentHashMap<String, range> ranges = new ConcurrentHashMap<>();
+
+    // 号段预留使用的专用连接（不占用连接池，避免业务事务持有连接时再借连接导致池耗尽）
+    private static final ReentrantLock reserveLock = new ReentrantLock();
+    private static Connection reserveConn;
+    private static boolean tableChecked = false;
+
+    /**
+     * 取下一个序号。
+     *
+     * @param seqName   序列名（通常就是编号前缀）
+     * @param table     业务表名，用于首次使用时确定起点
+     * @param idColumn  业务表编号列
+     * @param prefix    编号前缀，业务表中编号形如 prefix + 数字
+     * @param blockSize 每次向数据库预留的序号个数
+     */
+    public static long next(String seqName, String table, String idColumn, String prefix, int blockSize) throws SQLException {
+        range r = ranges.get(seqName);
+        if (r == null) {
+            if (ranges.size() >= MAX_CACHED_PREFIXES) {
+                // 过期的日期前缀不会再用到，直接丢弃（剩余序号成为空号）
+                ranges.clear();
+            }
+            r = ranges.computeIfAbsent(seqName, k -> new range());
+        }
+        r.lock.lock();
+        try {
+            if (r.next >= r.end) {
+                long start = reserve(seqName, conn -> seedFromTable(conn, table, idColumn, prefix), Math.max(1, blockSize), 0);
+                r.next = start;
+                r.end = start + Math.max(1, blockSize);
+            }
+            return r.next++;
+        } finally {
+            r.lock.unlock();
+        }
+    }
+
+    /**
+     * 为纯数字编号预留 count 个连续序号 [start, start + count) 并返回 start（count 为 0 时只返回下一个可用值）。
+     * 首次使用时以业务表中 MAX(CAST(idColumn AS UNSIGNED)) + 1 作为起点，不小于 firstValue。
+     *
+     * @param atLeast 起点下限：导入数据自带编号时传入其中最大编号 + 1，保证之后分配的编号不会与之重复
+     * @throws IllegalArgumentException atLeast 超出当前下一个值 ID_SEQUENCE_MAX_ADVANCE（默认 10000）以上，序列不变
+     */
+    public static long reserveNumeric(String seqName, String table, String idColumn, long firstValue, int count, long atLeast) throws SQLException {
+        return reserve(seqName, conn -> Math.max(firstValue, seedNumericFromTable(conn, table, idColumn)), Math.max(0, count), atLeast);
+    }
+
+    private interface seeder {
+        long seed(Connection conn) throws SQLException;
+    }
+
+    /**
+     * 在数据库中为 seqName 预留 [start, start + blockSize) 并返回 start（start 不小于 atLeast）。
+     */
+    private static long reserve(String seqName, seeder seeder, int blockSize, long atLeast) throws SQLException {
+        reserveLock.lock();
+        try {
+            SQLException last = null;
+            for (int attempt = 0; attempt < 3; attempt++) {
+                Connection conn = reserveConnection();
+                try {
+                    conn.setAutoCommit(false);
+                    long start;
+                    try (PreparedStatement ps = conn.prepareStatement("SELECT nextValue FROM idSequence WHERE seqName = ? FOR UPDATE")) {
+                        ps.setString(1, seqName);
+                        try (ResultSet rs = ps.executeQuery()) {
+                            start = rs.next() ? rs.getLong(1) : -1;
+                        }
+                    }
+                    if (start < 0) {
+                        start = advance(seeder.seed(conn), atLeast);
+                        try (PreparedStatement ps = conn.prepareStatement("INSERT INTO idSequence (seqName, nextValue) VALUES (?,?)")) {
+                            ps.setString(1, seqName);
+                            ps.setLong(2, start + blockSize);
+                            ps.executeUpdate();
+                        }
+                    } else {
+                        start = advance(start, atLeast);
+                        try (PreparedStatement ps = conn.prepareStatement("UPDATE idSequence SET nextValue = ? WHERE seqName = ?")) {
+                            ps.setLong(1, start + blockSize);
+                            ps.setString(2, seqName);
+                            ps.executeUpdate();
+                        }
+                    }
+                    conn.commit();
+                    return start;
+                } catch (IllegalArgumentException tooFar) {
+                    rollbackQuietly(conn);
+                    throw tooFar;
+                } catch (SQLIntegrityConstraintViolationException dup) {
+                    // 另一个实例同时初始化了该前缀，回滚后重新读取
+                    last = dup;
+                    rollbackQuietly(conn);
+                } catch (SQLException e) {
+                    last = e;
+                    rollbackQuietly(conn);
+                    closeReserveConnection();
+                }
+            }
+            throw last;
+        } finally {
+            reserveLock.unlock();
+        }
+    }
+
+    private static long advance(long start, long atLeast) {
+        if (atLeast - start > MAX_ADVANCE) {
+            throw new IllegalArgumentException(tooFarMessage(atLeast - 1, start));
+        }
+        return Math.max(start, atLeast);
+    }
+
+    /**
+     * 编号 id 是否在下一个可分配值 next 之后 MAX_ADVANCE 以内（或不大于 next），即能否推进序列跳过它。
+     */
+    public static boolean withinAdvance(long id, long next) {
+        return id + 1 - next <= MAX_ADVANCE;
+    }
+
+    public static String tooFarMessage(long id, long next) {
+        return "编号 " + id + " 超出可用范围：只能指定不大于 " + (next - 1 + MAX_ADVANCE) + " 的纯数字编号";
+    }
+
+    /**
+     * 以业务表中该前缀下的最大编号 + 1 作为起点（只在前缀首次使用时执行一次，走主键索引范围扫描）。
+     */
+    private static long seedFromTable(Connection conn, String table, String idColumn, String prefix) throws SQLException {
+        String sql = "SELECT MAX(" + idColumn + ") FROM " + table + " WHERE " + idColumn + " LIKE ?";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, prefix + "%");
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    String maxId = rs.getString(1);
+                    if (maxId != null && maxId.length() > prefix.length()) {
+                        try {
+                            return Long.parseLong(maxId.substring(prefix.length())) + 1;
+                        } catch (NumberFormatException ignored) {
+                            // 非数字后缀，按 1 开始
+                        }
+                    }
+                }
+            }
+        }
+        return 1;
+    }
+
+    private static long seedNumericFromTable(Connection conn, String table, String idColumn) throws SQLException {
+        String sql = "SELECT MAX(CAST(" + idColumn + " AS UNSIGNED)) FROM " + table;
+        try (PreparedStatement ps = conn.prepareStatement(sql); ResultSet rs = ps.executeQuery()) {
+            return rs.next() ? rs.getLong(1) + 1 : 1;
+        }
+    }
+
+    private static Connection reserveConnection() throws SQLException {
+        if (reserveConn == null || reserveConn.isClosed() || !reserveConn.isValid(2)) {
+            closeReserveConnection();
+            reserveConn = db.getPool().openUnpooled();
+            if (!tableChecked) {
+                // 未执行 initDatabase 的旧库也能直接使用
+                try (Statement st = reserveConn.createStatement()) {
+                    st.executeUpdate("CREATE TABLE IF NOT EXISTS idSequence (seqName VARCHAR(40) PRIMARY KEY, nextValue BIGINT NOT NULL) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4");
+                }
+                tableChecked = true;
+            }
+        }
+        return reserveConn;
+    }
+
+    private static void closeReserveConnection() {
+        if (reserveConn != null) {
+            try {
+                reserveConn.close();
+            } catch (SQLException ignored) {}
+            reserveConn = null;
+        }
+    }
+
+    private static void rollbackQuietly(Connection conn) {
+        try {
+            conn.rollback();
+        } catch (SQLException ignored) {}
+    }
+
+    private static final class range {
+        final ReentrantLock lock = new ReentrantLock();
+        long next;
+        long end;
+    }
+}
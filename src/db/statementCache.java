@@ -0,0 +1,220 @@
+package db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 单个物理连接上的 PreparedStatement 缓存（按 SQL 文本，LRU，容量 DB_STMT_CACHE_SIZE）。
+ * <p>
+ * 服务层仍按原来的写法 prepareStatement + try-with-resources；命中时返回已准备好的语句代理，
+ * close() 只清空参数和批次并放回缓存，物理语句在被淘汰或连接销毁时才关闭。
+ * 配合 URL 上的 useServerPrepStmts=true，同一连接上相同的 SQL 只在服务端解析一次。
+ * <p>
+ * 同一 SQL 的缓存语句正在使用时（同一事务里嵌套准备同一条 SQL），再次准备会直接创建不缓存的语句。
+ * 连接归还时仍未关闭的语句会从缓存移除并关闭，不会带到下一次借出。
+ * <p>
+ * 调用方改过 fetchSize / maxRows / queryTimeout 的语句在放回时恢复为创建时的值（如流式导出设置的 fetchSize），
+ * 改过其他语句级设置（fetchDirection、maxFieldSize、cursorName 等）的语句不再复用，放回时直接关闭。
+ */
+class statementCache {
+
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+    private static final LongAdder bypasses = new LongAdder();
+    private static final LongAdder evictions = new LongAdder();
+
+    private final Connection physical;
+    private final int capacity;
+    private final LinkedHashMap<String, entry> entries;
+
+    private static final class entry {
+        final String sql;
+        final PreparedStatement ps;
+        final int fetchSize;
+        final int maxRows;
+        final int queryTimeout;
+        boolean inUse;
+        boolean removed;
+        // 本次借出期间是否改过 fetchSize / maxRows / queryTimeout
+        boolean limitsChanged;
+        // 本次借出期间是否改过其他无法可靠恢复的语句级设置
+        boolean settingsChanged;
+
+        entry(String sql, PreparedStatement ps) throws SQLException {
+            this.sql = sql;
+            this.ps = ps;
+            this.fetchSize = ps.getFetchSize();
+            this.maxRows = ps.getMaxRows();
+            this.queryTimeout = ps.getQueryTimeout();
+        }
+    }
+
+    statementCache(Connection physical, int capacity) {
+        this.physical = physical;
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    synchronized PreparedStatement prepare(String sql) throws SQLException {
+        entry e = entries.get(sql);
+        if (e != null) {
+            if (e.inUse) {
+                bypasses.increment();
+                return physical.prepareStatement(sql);
+            }
+            hits.increment();
+            e.inUse = true;
+            return lease(e);
+        }
+        misses.increment();
+        PreparedStatement created = physical.prepareStatement(sql);
+        try {
+            e = new entry(sql, created);
+        } catch (SQLException ex) {
+            closeQuietly(created);
+            throw ex;
+        }
+        e.inUse = true;
+        entries.put(sql, e);
+        if (entries.size() > capacity) {
+            Iterator<entry> it = entries.values().iterator();
+            entry eldest = it.next();
+            it.remove();
+            eldest.removed = true;
+            evictions.increment();
+            // 正在使用的语句等调用方 close() 时再关闭
+            if (!eldest.inUse) closeQuietly(eldest.ps);
+        }
+        return lease(e);
+    }
+
+    private PreparedStatement lease(entry e) {
+        boolean[] closed = {false};
+        InvocationHandler h = (proxy, method, args) -> {
+            String name = method.getName();
+            if (method.getDeclaringClass() == Object.class) {
+                switch (name) {
+                    case "equals": return proxy == args[0];
+                    case "hashCode": return System.identityHashCode(proxy);
+                    default: return "cached:" + e.sql;
+                }
+            }
+            if ("close".equals(name) && method.getParameterCount() == 0) {
+                if (!closed[0]) {
+                    closed[0] = true;
+                    giveBack(e);
+                }
+                return null;
+            }
+            if ("isClosed".equals(name) && method.getParameterCount() == 0) {
+                return closed[0] || e.ps.isClosed();
+            }
+            if (closed[0]) throw new SQLException("Statement has been closed");
+            if (method.getDeclaringClass() == Statement.class && (name.startsWith("set") || "closeOnCompletion".equals(name))) {
+                switch (name) {
+                    case "setFetchSize": case "setMaxRows": case "setLargeMaxRows": case "setQueryTimeout":
+                        e.limitsChanged = true;
+                        break;
+                    default:
+                        e.settingsChanged = true;
+                }
+            }
+            try {
+                return method.invoke(e.ps, args);
+            } catch (InvocationTargetException ite) {
+                throw ite.getCause();
+            }
+        };
+        return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class<?>[]{PreparedStatement.class}, h);
+    }
+
+    private synchronized void giveBack(entry e) {
+        e.inUse = false;
+        if (e.removed) {
+            closeQuietly(e.ps);
+            return;
+        }
+        if (e.settingsChanged) {
+            evict(e);
+            return;
+        }
+        try {
+            e.ps.clearParameters();
+            e.ps.clearBatch();
+            e.ps.clearWarnings();
+            if (e.limitsChanged) {
+                e.ps.setFetchSize(e.fetchSize);
+                e.ps.setMaxRows(e.maxRows);
+                e.ps.setQueryTimeout(e.queryTimeout);
+                e.limitsChanged = false;
+            }
+        } catch (SQLException ex) {
+            // 状态无法重置的语句不再复用
+            evict(e);
+        }
+    }
+
+    private void evict(entry e) {
+        entries.remove(e.sql);
+        e.removed = true;
+        closeQuietly(e.ps);
+    }
+
+    /**
+     * 连接归还时调用：仍在使用（调用方未关闭）的语句移出缓存并关闭。
+     */
+    synchronized void releaseInUse() {
+        List<entry> leaked = new ArrayList<>();
+        for (entry e : entries.values()) if (e.inUse) leaked.add(e);
+        for (entry e : leaked) {
+            entries.remove(e.sql);
+            e.removed = true;
+            closeQuietly(e.ps);
+        }
+    }
+
+    /**
+     * 物理连接销毁前调用。
+     */
+    synchronized void closeAll() {
+        for (entry e : entries.values()) {
+            e.removed = true;
+            closeQuietly(e.ps);
+        }
+        entries.clear();
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    private static void closeQuietly(PreparedStatement ps) {
+        try {
+            ps.close();
+        } catch (SQLException ignored) {}
+    }
+
+    /**
+     * 全部连接合计的缓存命中情况，写入连接池统计。
+     */
+    static void putStats(Map<String, Object> m) {
+        long h = hits.sum();
+        long mi = misses.sum();
+        m.put("stmtCacheHits", h);
+        m.put("stmtCacheMisses", mi);
+        m.put("stmtCacheBypasses", bypasses.sum());
+        m.put("stmtCacheEvictions", evictions.sum());
+        m.put("stmtCacheHitRate", h + mi == 0 ? 0.0 : (double) h / (h + mi));
+    }
+}
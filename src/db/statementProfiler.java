@@ -0,0 +1,324 @@
+package db;
+
+import metrics.metricsRegistry;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * SQL 语句计时与慢查询日志。
+ * <p>
+ * 连接池借出的连接创建的 Statement / PreparedStatement 都会被包装，每次 execute* 调用计时后
+ * 按规范化后的 SQL（字面量替换为 ?，IN 列表和多行 VALUES 折叠）累计次数、总耗时、最大值和 p99。
+ * <p>
+ * 配置（系统属性或环境变量）：
+ * - DB_PROFILE_STATEMENTS：是否开启（默认 true）
+ * - DB_SLOW_QUERY_MS：超过该耗时的语句连同绑定参数打印到标准错误（默认 200，负数关闭）
+ * - DB_SLOW_QUERY_EXPLAIN：慢 SELECT 是否附带 EXPLAIN 输出（默认 false），
+ *   同一条规范化语句每 DB_SLOW_QUERY_EXPLAIN_INTERVAL_MS（默认 60000）最多 EXPLAIN 一次
+ * <p>
+ * executeQuery 的耗时只包含执行和首批结果返回，不包含调用方遍历 ResultSet 的时间。
+ * 同一耗时也按当前请求的 route 计入 metricsRegistry（jdbc_statement_seconds），两者任一开启即包装。
+ */
+public class statementProfiler {
+
+    static final boolean ENABLED = !"false".equalsIgnoreCase(db.config("DB_PROFILE_STATEMENTS", "true"));
+    private static final long SLOW_MS = db.longConfig("DB_SLOW_QUERY_MS", 200L);
+    private static final long SLOW_NANOS = SLOW_MS < 0 ? Long.MAX_VALUE : SLOW_MS * 1_000_000L;
+    private static final boolean EXPLAIN = "true".equalsIgnoreCase(db.config("DB_SLOW_QUERY_EXPLAIN", "false"));
+    private static final long EXPLAIN_INTERVAL_MS = db.longConfig("DB_SLOW_QUERY_EXPLAIN_INTERVAL_MS", 60000L);
+
+    // 每条语句保留最近 SAMPLES 次耗时用于估算 p99
+    private static final int SAMPLES = 512;
+    // 不同的规范化语句数上限，超过后新语句归入 OTHER，避免拼接出的 SQL 撑大内存
+    private static final int MAX_STATEMENTS = 1000;
+    private static final String OTHER = "<other>";
+
+    private static final ConcurrentHashMap<String, stat> stats = new ConcurrentHashMap<>();
+    // 原始 SQL -> 规范化 SQL（PreparedStatement 的 SQL 大多是固定的，缓存避免重复扫描）
+    private static final ConcurrentHashMap<String, String> normalized = new ConcurrentHashMap<>();
+
+    private static final Pattern SPACES = Pattern.compile("\\s+");
+    private static final Pattern PLACEHOLDER_LIST = Pattern.compile("\\(\\s*\\?(\\s*,\\s*\\?)+\\s*\\)");
+    private static final Pattern VALUES_LIST = Pattern.compile("(\\(\\?\\.\\.\\.\\)|\\(\\?\\))(\\s*,\\s*(\\(\\?\\.\\.\\.\\)|\\(\\?\\)))+");
+
+    private statementProfiler() {}
+
+    /**
+     * 单条规范化语句的累计数据。
+     */
+    static final class stat {
+        final String sql;
+        final LongAdder count = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+        final LongAdder slowCount = new LongAdder();
+        final AtomicLong maxNanos = new AtomicLong();
+        final AtomicLong lastExplainAt = new AtomicLong();
+        private final long[] samples = new long[SAMPLES];
+        private int next = 0;
+        private int filled = 0;
+
+        stat(String sql) {
+            this.sql = sql;
+        }
+
+        void record(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            long m;
+            while (nanos > (m = maxNanos.get()) && !maxNanos.compareAndSet(m, nanos)) {
+                // 重试直到写入更大的值
+            }
+            synchronized (this) {
+                samples[next] = nanos;
+                next = (next + 1) % SAMPLES;
+                if (filled < SAMPLES) filled++;
+            }
+        }
+
+        long p99Nanos() {
+            long[] copy;
+            synchronized (this) {
+                copy = Arrays.copyOf(samples, filled);
+            }
+            if (copy.length == 0) return 0;
+            Arrays.sort(copy);
+            return copy[Math.min(copy.length - 1, (int) Math.ceil(copy.length * 0.99) - 1)];
+        }
+    }
+
+    /**
+     * 包装连接上创建语句的方法的返回值（createStatement / prepareStatement / prepareCall），其他返回值原样返回。
+     *
+     * @param method 被调用的 Connection 方法
+     * @param args   调用参数，prepare* 的第一个参数是 SQL
+     * @param result 物理连接返回的对象
+     */
+    static Object wrapIfStatement(Method method, Object[] args, Object result) {
+        if (!(ENABLED || metricsRegistry.enabled()) || !(result instanceof Statement)) return result;
+        String name = method.getName();
+        String sql = (name.startsWith("prepare") && args != null && args.length > 0 && args[0] instanceof String)
+                ? (String) args[0] : null;
+        Class<?> type = result instanceof CallableStatement ? CallableStatement.class
+                : result instanceof PreparedStatement ? PreparedStatement.class : Statement.class;
+        return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, new statementHandler((Statement) result, sql));
+    }
+
+    private static final class statementHandler implements InvocationHandler {
+        private final Statement target;
+        private final String preparedSql;
+        // 当前绑定参数（按下标），仅用于慢查询日志和 EXPLAIN
+        private final TreeMap<Integer, Object> params = new TreeMap<>();
+        private int batchSize = 0;
+        private final List<String> batchSql = new ArrayList<>();
+
+        statementHandler(Statement target, String preparedSql) {
+            this.target = target;
+            this.preparedSql = preparedSql;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (method.getDeclaringClass() == Object.class) {
+                switch (name) {
+                    case "equals": return proxy == args[0];
+                    case "hashCode": return System.identityHashCode(proxy);
+                    default: return "profiled:" + target;
+                }
+            }
+            if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer
+                    && method.getDeclaringClass() != Statement.class) {
+                params.put((Integer) args[0], "setNull".equals(name) ? null : args[1]);
+            } else if ("clearParameters".equals(name)) {
+                params.clear();
+            } else if ("addBatch".equals(name)) {
+                batchSize++;
+                if (preparedSql == null && args != null && args.length == 1) batchSql.add((String) args[0]);
+            } else if ("clearBatch".equals(name)) {
+                batchSize = 0;
+                batchSql.clear();
+            }
+            if (!name.startsWith("execute")) return call(method, args);
+
+            String sql = preparedSql;
+            if (sql == null) {
+                sql = (args != null && args.length > 0 && args[0] instanceof String) ? (String) args[0]
+                        : batchSql.isEmpty() ? null : batchSql.get(0);
+            }
+            long start = System.nanoTime();
+            try {
+                return call(method, args);
+            } finally {
+                long nanos = System.nanoTime() - start;
+                boolean batch = name.startsWith("executeBatch") || name.startsWith("executeLargeBatch");
+                metricsRegistry.observeJdbc(nanos);
+                if (ENABLED && sql != null) record(sql, nanos, target, batch ? batchSize : 0, params);
+                if (batch) {
+                    batchSize = 0;
+                    batchSql.clear();
+                }
+            }
+        }
+
+        private Object call(Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException ite) {
+                throw ite.getCause();
+            }
+        }
+    }
+
+    private static void record(String sql, long nanos, Statement st, int batchSize, Map<Integer, Object> params) {
+        String key = normalize(sql);
+        stat s = stats.get(key);
+        if (s == null) {
+            s = stats.size() < MAX_STATEMENTS ? stats.computeIfAbsent(key, stat::new) : stats.computeIfAbsent(OTHER, stat::new);
+        }
+        s.record(nanos);
+        if (nanos < SLOW_NANOS) return;
+        s.slowCount.increment();
+
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("[slow-query] ").append(nanos / 1_000_000).append(" ms");
+        if (batchSize > 0) sb.append(", batch=").append(batchSize);
+        sb.append(": ").append(SPACES.matcher(sql).replaceAll(" ").trim());
+        if (!params.isEmpty()) sb.append(" params=").append(params.values());
+        String plan = EXPLAIN && batchSize == 0 ? explainOnce(s, sql, st, params) : null;
+        if (plan != null) sb.append('\n').append(plan);
+        System.err.println(sb);
+    }
+
+    /**
+     * 对慢 SELECT 在同一物理连接上执行 EXPLAIN（带相同参数）；同一语句在间隔内只执行一次，失败时返回 null。
+     */
+    private static String explainOnce(stat s, String sql, Statement st, Map<Integer, Object> params) {
+        String head = sql.stripLeading();
+        if (!head.regionMatches(true, 0, "SELECT", 0, 6) && !head.regionMatches(true, 0, "WITH", 0, 4)) return null;
+        long now = System.currentTimeMillis();
+        long last = s.lastExplainAt.get();
+        if (now - last < EXPLAIN_INTERVAL_MS || !s.lastExplainAt.compareAndSet(last, now)) return null;
+        try {
+            Connection c = st.getConnection();
+            try (PreparedStatement ps = c.prepareStatement("EXPLAIN " + head)) {
+                for (Map.Entry<Integer, Object> p : params.entrySet()) ps.setObject(p.getKey(), p.getValue());
+                try (ResultSet rs = ps.executeQuery()) {
+                    ResultSetMetaData md = rs.getMetaData();
+                    StringBuilder sb = new StringBuilder("  EXPLAIN:");
+                    while (rs.next()) {
+                        sb.append("\n  ");
+                        for (int i = 1; i <= md.getColumnCount(); i++) {
+                            if (i > 1) sb.append(" | ");
+                            sb.append(md.getColumnLabel(i)).append('=').append(rs.getString(i));
+                        }
+                    }
+                    return sb.toString();
+                }
+            }
+        } catch (Exception e) {
+            return "  EXPLAIN failed: " + e.getMessage();
+        }
+    }
+
+    /**
+     * 规范化 SQL：字符串和数字字面量替换为 ?，空白折叠，(?, ?, ?) 折叠为 (?...)，多行 VALUES 折叠为一行。
+     */
+    static String normalize(String sql) {
+        String cached = normalized.get(sql);
+        if (cached != null) return cached;
+        StringBuilder sb = new StringBuilder(sql.length());
+        int n = sql.length();
+        for (int i = 0; i < n; i++) {
+            char ch = sql.charAt(i);
+            if (ch == '\'' || ch == '"') {
+                int j = i + 1;
+                while (j < n) {
+                    char cj = sql.charAt(j);
+                    if (cj == '\\') { j += 2; continue; }
+                    if (cj == ch) {
+                        if (j + 1 < n && sql.charAt(j + 1) == ch) { j += 2; continue; }
+                        break;
+                    }
+                    j++;
+                }
+                sb.append('?');
+                i = Math.min(j, n - 1);
+            } else if (Character.isDigit(ch) && (sb.length() == 0 || !isIdentifierChar(sb.charAt(sb.length() - 1)))) {
+                int j = i;
+                while (j + 1 < n && (Character.isDigit(sql.charAt(j + 1)) || sql.charAt(j + 1) == '.')) j++;
+                sb.append('?');
+                i = j;
+            } else if (Character.isWhitespace(ch)) {
+                if (sb.length() > 0 && sb.charAt(sb.length() - 1) != ' ') sb.append(' ');
+            } else {
+                sb.append(ch);
+            }
+        }
+        String out = sb.toString().trim();
+        out = PLACEHOLDER_LIST.matcher(out).replaceAll("(?...)");
+        out = VALUES_LIST.matcher(out).replaceAll("$1, ...");
+        if (normalized.size() < MAX_STATEMENTS * 4) normalized.put(sql, out);
+        return out;
+    }
+
+    private static boolean isIdentifierChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '`';
+    }
+
+    /**
+     * 各语句统计，按总耗时降序。
+     *
+     * @param top 返回条数
+     */
+    public static Map<String, Object> getStats(int top) {
+        List<stat> all = new ArrayList<>(stats.values());
+        all.sort((a, b) -> Long.compare(b.totalNanos.sum(), a.totalNanos.sum()));
+        List<Map<String, Object>> items = new ArrayList<>();
+        for (stat s : all.subList(0, Math.min(Math.max(top, 0), all.size()))) {
+            long count = s.count.sum();
+            long total = s.totalNanos.sum();
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("sql", s.sql);
+            m.put("count", count);
+            m.put("totalMs", total / 1_000_000.0);
+            m.put("avgMs", count == 0 ? 0.0 : total / 1_000_000.0 / count);
+            m.put("maxMs", s.maxNanos.get() / 1_000_000.0);
+            m.put("p99Ms", s.p99Nanos() / 1_000_000.0);
+            m.put("slowCount", s.slowCount.sum());
+            items.add(m);
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("enabled", ENABLED);
+        result.put("slowQueryMs", SLOW_MS);
+        result.put("explain", EXPLAIN);
+        result.put("statements", stats.size());
+        result.put("items", items);
+        return result;
+    }
+
+    /**
+     * 清空累计数据（压测前后对比时使用）。
+     */
+    public static void reset() {
+        stats.clear();
+    }
+}
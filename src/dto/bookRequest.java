@@ -0,0 +1,82 @@
+package dto;
+
+import entity.bookInformation;
+
+import java.time.LocalDate;
+
+/**
+ * 新建/修改图书的请求体。未出现或为 null 的字段：新建时取默认值，修改时保持原值。
+ * 长度限制与数据库列一致（与 bulkImport 的校验相同）；馆藏位置可以留空，总册数允许为 0（编辑表单可以把册数减到 0）。
+ */
+public record bookRequest(
+        String bookId,
+        String isbn,
+        String bookName,
+        String bookAuthor,
+        String bookPublisher,
+        LocalDate bookPubDate,
+        String bookCategory,
+        Integer bookPrice,
+        String bookLocation,
+        Integer bookTotalCopies,
+        Integer bookAvailableCopies,
+        Integer borrowCount) {
+
+    public void validateForCreate() throws invalidRequestException {
+        validate(true);
+    }
+
+    public void validateForUpdate() throws invalidRequestException {
+        validate(false);
+    }
+
+    private void validate(boolean create) throws invalidRequestException {
+        fieldErrors e = new fieldErrors();
+        e.text("bookId", bookId, 20, false);
+        // 修改时字段可以不传，传了就不能为空白
+        e.text("isbn", isbn, 13, create || isbn != null);
+        e.text("bookName", bookName, 255, create || bookName != null);
+        e.text("bookAuthor", bookAuthor, 100, create || bookAuthor != null);
+        e.text("bookPublisher", bookPublisher, 100, false);
+        e.text("bookCategory", bookCategory, 50, false);
+        e.text("bookLocation", bookLocation, 50, false);
+        e.min("bookPrice", bookPrice, 0);
+        e.min("bookTotalCopies", bookTotalCopies, 0);
+        e.min("bookAvailableCopies", bookAvailableCopies, 0);
+        e.min("borrowCount", borrowCount, 0);
+        if (bookTotalCopies != null && bookAvailableCopies != null && bookAvailableCopies > bookTotalCopies) {
+            e.add("bookAvailableCopies", "不能大于 bookTotalCopies");
+        }
+        e.throwIfAny();
+    }
+
+    /**
+     * 新建用的实体：总册数默认 1，可借册数默认等于总册数，馆藏位置默认空串，价格和借阅次数默认 0。
+     */
+    public bookInformation toBook() {
+        bookInformation b = new bookInformation();
+        b.setBookId(bookId);
+        b.setBookLocation("");
+        b.setBookTotalCopies(1);
+        applyTo(b);
+        if (bookAvailableCopies == null) b.setBookAvailableCopies(b.getBookTotalCopies());
+        return b;
+    }
+
+    /**
+     * 把请求中出现的字段写入已有实体（bookId 不变）。
+     */
+    public void applyTo(bookInformation b) {
+        if (isbn != null) b.setIsbn(isbn);
+        if (bookName != null) b.setBookName(bookName);
+        if (bookAuthor != null) b.setBookAuthor(bookAuthor);
+        if (bookPublisher != null) b.setBookPublisher(bookPublisher);
+        if (bookPubDate != null) b.setBookPubDate(bookPubDate);
+        if (bookCategory != null) b.setBookCategory(bookCategory);
+        if (bookPrice != null) b.setBookPrice(bookPrice);
+        if (bookLocation != null) b.setBookLocation(bookLocation);
+        if (bookTotalCopies != null) b.setBookTotalCopies(bookTotalCopies);
+        if (bookAvailableCopies != null) b.setBookAvailableCopies(bookAvailableCopies);
+        if (borrowCount != null) b.setBorrowCount(borrowCount);
+    }
+}
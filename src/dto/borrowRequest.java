@@ -0,0 +1,91 @@
+package dto;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.exc.InvalidFormatException;
+import com.fasterxml.jackson.databind.exc.MismatchedInputException;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * 借书请求体：单本（bookId）或多本（books，元素为图书编号或 {bookId, count}）。
+ * 借阅日期默认今天，应还日期默认借阅日期后 14 天。
+ */
+public record borrowRequest(
+        String readerId,
+        String bookId,
+        List<item> books,
+        LocalDate borrowDate,
+        LocalDate dueDate) {
+
+    /**
+     * books 中的一项，count 缺省为 1。
+     */
+    @JsonDeserialize(using = item.deserializer.class)
+    public record item(String bookId, Integer count) {
+
+        public int countOrOne() {
+            return count == null ? 1 : count;
+        }
+
+        static final class deserializer extends JsonDeserializer<item> {
+            @Override
+            public item deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+                JsonNode n = p.readValueAsTree();
+                if (n.isObject()) {
+                    JsonNode id = n.get("bookId");
+                    JsonNode c = n.get("count");
+                    Integer count = null;
+                    if (c != null && !c.isNull()) {
+                        if (c.isIntegralNumber() && c.canConvertToInt()) {
+                            count = c.intValue();
+                        } else {
+                            try {
+                                count = Integer.parseInt(c.asText().trim());
+                            } catch (NumberFormatException e) {
+                                throw InvalidFormatException.from(p, "count 应为整数", c.asText(), Integer.class);
+                            }
+                        }
+                    }
+                    return new item(id == null || id.isNull() ? null : id.asText(), count);
+                }
+                if (n.isValueNode() && !n.isNull()) return new item(n.asText(), null);
+                throw MismatchedInputException.from(p, item.class, "应为图书编号或 {bookId, count}");
+            }
+        }
+    }
+
+    public void validate() throws invalidRequestException {
+        fieldErrors e = new fieldErrors();
+        e.text("readerId", readerId, 20, true);
+        if (books != null) {
+            if (books.isEmpty()) e.add("books", "不能为空");
+            for (int i = 0; i < books.size(); i++) {
+                item it = books.get(i);
+                if (it == null) {
+                    e.add("books[" + i + "]", "不能为空");
+                    continue;
+                }
+                e.text("books[" + i + "].bookId", it.bookId(), 20, true);
+                e.min("books[" + i + "].count", it.count(), 1);
+            }
+        } else {
+            e.text("bookId", bookId, 20, true);
+        }
+        if (borrowDate != null && dueDate != null && dueDate.isBefore(borrowDate)) e.add("dueDate", "不能早于借阅日期");
+        e.throwIfAny();
+    }
+
+    public LocalDate borrowDateOrToday() {
+        return borrowDate == null ? LocalDate.now() : borrowDate;
+    }
+
+    public LocalDate dueDateOrDefault() {
+        return dueDate == null ? borrowDateOrToday().plusDays(14) : dueDate;
+    }
+}
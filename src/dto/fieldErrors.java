@@ -0,0 +1,42 @@
+package dto;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 按字段收集校验错误，全部检查完后一次性报告（同一字段只保留第一条）。
+ */
+public final class fieldErrors {
+
+    private final Map<String, String> errors = new LinkedHashMap<>();
+
+    public void add(String field, String message) {
+        errors.putIfAbsent(field, message);
+    }
+
+    /**
+     * 文本字段：required 时不能为空白，非空时不超过 maxLength 个字符。
+     */
+    public void text(String field, String value, int maxLength, boolean required) {
+        if (value == null || value.isBlank()) {
+            if (required) add(field, "不能为空");
+            return;
+        }
+        if (value.length() > maxLength) add(field, "超过 " + maxLength + " 个字符");
+    }
+
+    /**
+     * 整数字段：非 null 时不小于 min。
+     */
+    public void min(String field, Integer value, int min) {
+        if (value != null && value < min) add(field, "不能小于 " + min);
+    }
+
+    public void required(String field, Object value) {
+        if (value == null) add(field, "不能为空");
+    }
+
+    public void throwIfAny() throws invalidRequestException {
+        if (!errors.isEmpty()) throw new invalidRequestException(errors);
+    }
+}
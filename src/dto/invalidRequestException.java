@@ -0,0 +1,25 @@
+package dto;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 请求体无法绑定或校验不通过，errors 为 字段 -> 错误说明（嵌套字段如 books[1].count）。
+ */
+public class invalidRequestException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    // 保存一份副本（保留字段顺序），抛出后调用方再修改原 Map 也不影响
+    private final LinkedHashMap<String, String> errors;
+
+    public invalidRequestException(Map<String, String> errors) {
+        super("请求参数无效: " + errors);
+        this.errors = new LinkedHashMap<>(errors);
+    }
+
+    public Map<String, String> getErrors() {
+        return Collections.unmodifiableMap(errors);
+    }
+}
@@ -0,0 +1,15 @@
+package dto;
+
+/**
+ * 登录请求体。字段缺失按空字符串处理（校验失败返回 401 而不是 400）。
+ */
+public record loginRequest(String username, String password) {
+
+    public String usernameOrEmpty() {
+        return username == null ? "" : username;
+    }
+
+    public String passwordOrEmpty() {
+        return password == null ? "" : password;
+    }
+}
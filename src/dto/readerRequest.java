@@ -0,0 +1,69 @@
+package dto;
+
+import com.fasterxml.jackson.annotation.JsonAlias;
+import entity.readerInformation;
+
+import java.time.LocalDate;
+
+/**
+ * 新建/修改读者的请求体。未出现或为 null 的字段：新建时取默认值，修改时保持原值。
+ * readerName 也接受 readername / name / username；totalBorrowNumber 也接受导出格式中的 maxBorrowNumber。
+ */
+public record readerRequest(
+        String readerId,
+        @JsonAlias({"readername", "name", "username"}) String readerName,
+        String readerCardType,
+        String readerCardNumber,
+        String readerPhoneNumber,
+        LocalDate registerDate,
+        Integer readerStatus,
+        @JsonAlias("maxBorrowNumber") Integer totalBorrowNumber,
+        Integer nowBorrowNumber) {
+
+    public void validateForCreate() throws invalidRequestException {
+        validate(true);
+    }
+
+    public void validateForUpdate() throws invalidRequestException {
+        validate(false);
+    }
+
+    private void validate(boolean create) throws invalidRequestException {
+        fieldErrors e = new fieldErrors();
+        e.text("readerId", readerId, 20, false);
+        e.text("readerName", readerName, 50, create || readerName != null);
+        e.text("readerCardType", readerCardType, 20, create || readerCardType != null);
+        e.text("readerCardNumber", readerCardNumber, 30, create || readerCardNumber != null);
+        e.text("readerPhoneNumber", readerPhoneNumber, 20, false);
+        e.min("readerStatus", readerStatus, 0);
+        e.min("totalBorrowNumber", totalBorrowNumber, 0);
+        e.min("nowBorrowNumber", nowBorrowNumber, 0);
+        e.throwIfAny();
+    }
+
+    /**
+     * 新建用的实体：注册日期默认今天，最大借书数默认 5，其余整数默认 0。
+     */
+    public readerInformation toReader() {
+        readerInformation r = new readerInformation();
+        r.setReaderId(readerId);
+        r.setRegisterDate(LocalDate.now());
+        r.setMaxBorrowNumber(5);
+        applyTo(r);
+        return r;
+    }
+
+    /**
+     * 把请求中出现的字段写入已有实体（readerId 不变）。
+     */
+    public void applyTo(readerInformation r) {
+        if (readerName != null) r.setReaderName(readerName.trim());
+        if (readerCardType != null) r.setReaderCardType(readerCardType);
+        if (readerCardNumber != null) r.setReaderCardNumber(readerCardNumber);
+        if (readerPhoneNumber != null) r.setReaderPhoneNumber(readerPhoneNumber);
+        if (registerDate != null) r.setRegisterDate(registerDate);
+        if (readerStatus != null) r.setReaderStatus(readerStatus);
+        if (totalBorrowNumber != null) r.setMaxBorrowNumber(totalBorrowNumber);
+        if (nowBorrowNumber != null) r.setNowBorrowNumber(nowBorrowNumber);
+    }
+}
@@ -0,0 +1,84 @@
+package dto;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.exc.MismatchedInputException;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 把 JSON 请求体直接从输入流绑定到请求记录，不经过中间的 String / Map。
+ * <p>
+ * 每种记录类型的 ObjectReader 只创建一次；未知字段忽略（前端会多传 id 等字段），
+ * 字符串形式的数字按数字接受，空字符串的日期按未填写处理。
+ * 类型不符（如 bookPrice 为 "abc"）时抛出 invalidRequestException，指出出错的字段。
+ */
+public final class requestBody {
+
+    private static final ObjectMapper mapper = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    private static final ClassValue<ObjectReader> readers = new ClassValue<>() {
+        @Override
+        protected ObjectReader computeValue(Class<?> type) {
+            return mapper.readerFor(type);
+        }
+    };
+
+    private requestBody() {}
+
+    /**
+     * 读取并关闭输入流，返回绑定好的记录（不做业务校验）。
+     */
+    public static <T> T read(InputStream in, Class<T> type) throws IOException, invalidRequestException {
+        T value;
+        try (InputStream body = in) {
+            value = readers.get(type).readValue(body);
+        } catch (MismatchedInputException e) {
+            String field = path(e);
+            throw invalid(field.isEmpty() ? "body" : field, field.isEmpty() ? "请求体应为 JSON 对象" : expected(e.getTargetType()));
+        } catch (JsonProcessingException e) {
+            throw invalid("body", "不是合法的 JSON");
+        }
+        if (value == null) throw invalid("body", "请求体应为 JSON 对象");
+        return value;
+    }
+
+    private static invalidRequestException invalid(String field, String message) {
+        Map<String, String> errors = new LinkedHashMap<>();
+        errors.put(field, message);
+        return new invalidRequestException(errors);
+    }
+
+    private static String path(JsonMappingException e) {
+        StringBuilder sb = new StringBuilder();
+        for (JsonMappingException.Reference ref : e.getPath()) {
+            if (ref.getFieldName() != null) {
+                if (sb.length() > 0) sb.append('.');
+                sb.append(ref.getFieldName());
+            } else if (ref.getIndex() >= 0) {
+                sb.append('[').append(ref.getIndex()).append(']');
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String expected(Class<?> type) {
+        if (type == null) return "格式不正确";
+        if (type == Integer.class || type == int.class || type == Long.class || type == long.class) return "应为整数";
+        if (type == LocalDate.class) return "日期格式应为 yyyy-MM-dd";
+        if (type == String.class) return "应为字符串";
+        if (Collection.class.isAssignableFrom(type) || type.isArray()) return "应为数组";
+        return "格式不正确";
+    }
+}
@@ -0,0 +1,28 @@
+package dto;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * 还书请求体：单条（borrowId）或批量（borrowIds）。还书日期默认今天。
+ */
+public record returnRequest(
+        String borrowId,
+        List<String> borrowIds,
+        LocalDate returnDate) {
+
+    public void validate() throws invalidRequestException {
+        fieldErrors e = new fieldErrors();
+        if (borrowIds != null) {
+            if (borrowIds.isEmpty()) e.add("borrowIds", "不能为空");
+            for (int i = 0; i < borrowIds.size(); i++) e.text("borrowIds[" + i + "]", borrowIds.get(i), 20, true);
+        } else {
+            e.text("borrowId", borrowId, 20, true);
+        }
+        e.throwIfAny();
+    }
+
+    public LocalDate returnDateOrToday() {
+        return returnDate == null ? LocalDate.now() : returnDate;
+    }
+}
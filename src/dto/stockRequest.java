@@ -0,0 +1,13 @@
+package dto;
+
+/**
+ * 库存调整请求体：adjustment 为总册数的增减量。
+ */
+public record stockRequest(Integer adjustment) {
+
+    public void validate() throws invalidRequestException {
+        fieldErrors e = new fieldErrors();
+        e.required("adjustment", adjustment);
+        e.throwIfAny();
+    }
+}
@@ -0,0 +1,252 @@
+package http;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 预编译的路由表：按 "方法 + 路径模板" 注册处理函数，注册时按路径段构建前缀树（trie）。
+ * <p>
+ * - 模板中 {name} 匹配任意非空的一段，{name:int} / {name:long} 只匹配数字
+ * - 同一层字面量优先于变量，字面量不区分大小写；字面量分支走不通时回退到变量分支
+ *   （如 /api/readers/byCard 没有卡号时按 /api/readers/{readerId} 处理）
+ * - 路径末尾的 "/" 忽略
+ * <p>
+ * 匹配时在原始路径上按下标逐段比较，不做 split、正则或子串分配；变量只记录起止下标，处理函数取值时才截取。
+ */
+public class router {
+
+    /**
+     * 路由处理函数。抛出的异常由调用方统一转换为错误响应。
+     */
+    @FunctionalInterface
+    public interface handler {
+        void handle(HttpExchange ex, params p) throws Exception;
+    }
+
+    private static final int STR = 0;
+    private static final int INT = 1;
+    private static final int LONG = 2;
+
+    private static final class route {
+        final String template;
+        final String[] names;
+        final handler handler;
+
+        route(String template, String[] names, handler handler) {
+            this.template = template;
+            this.names = names;
+            this.handler = handler;
+        }
+    }
+
+    private static final class node {
+        final String literal;
+        final int varType;
+        node[] literals = new node[0];
+        node[] variables = new node[0];
+        // 方法（大写）-> 路由，只在模板终点上有
+        final Map<String, route> routes = new LinkedHashMap<>();
+        String allow;
+
+        node(String literal, int varType) {
+            this.literal = literal;
+            this.varType = varType;
+        }
+    }
+
+    /**
+     * 路径变量。按名称取值时才从原始路径截取。
+     */
+    public static final class params {
+        private final String path;
+        private final int[] bounds;
+        private String[] names;
+
+        params(String path, int[] bounds) {
+            this.path = path;
+            this.bounds = bounds;
+        }
+
+        public String get(String name) {
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].equals(name)) return path.substring(bounds[2 * i], bounds[2 * i + 1]);
+            }
+            throw new IllegalArgumentException("路径变量不存在: " + name);
+        }
+
+        public int getInt(String name) {
+            return Integer.parseInt(get(name));
+        }
+
+        public long getLong(String name) {
+            return Long.parseLong(get(name));
+        }
+    }
+
+    /**
+     * 匹配结果：handler 为 null 表示路径存在但方法不允许，allow 为该路径支持的方法。
+     */
+    public static final class match {
+        public final handler handler;
+        public final params params;
+        public final String template;
+        public final String allow;
+
+        match(route r, params params, String allow) {
+            this.handler = r == null ? null : r.handler;
+            this.template = r == null ? null : r.template;
+            this.params = params;
+            this.allow = allow;
+        }
+    }
+
+    private final node root = new node("", STR);
+    private int maxVars = 0;
+
+    /**
+     * 注册路由。同一方法和模板重复注册时抛出 IllegalStateException。
+     */
+    public router add(String method, String template, handler h) {
+        if (!template.startsWith("/")) throw new IllegalArgumentException("路径模板必须以 / 开头: " + template);
+        List<String> names = new ArrayList<>();
+        node n = root;
+        for (String seg : template.substring(1).split("/")) {
+            if (seg.isEmpty()) continue;
+            if (seg.startsWith("{") && seg.endsWith("}")) {
+                String spec = seg.substring(1, seg.length() - 1);
+                int colon = spec.indexOf(':');
+                String name = colon < 0 ? spec : spec.substring(0, colon);
+                int type = colon < 0 ? STR : typeOf(spec.substring(colon + 1), template);
+                names.add(name);
+                n = variableChild(n, type);
+            } else {
+                n = literalChild(n, seg);
+            }
+        }
+        String m = method.toUpperCase(Locale.ROOT);
+        if (n.routes.containsKey(m)) throw new IllegalStateException("重复的路由: " + m + " " + template);
+        n.routes.put(m, new route(template, names.toArray(new String[0]), h));
+        n.allow = String.join(", ", n.routes.keySet());
+        maxVars = Math.max(maxVars, names.size());
+        return this;
+    }
+
+    public router get(String template, handler h) { return add("GET", template, h); }
+    public router post(String template, handler h) { return add("POST", template, h); }
+    public router put(String template, handler h) { return add("PUT", template, h); }
+    public router patch(String template, handler h) { return add("PATCH", template, h); }
+    public router delete(String template, handler h) { return add("DELETE", template, h); }
+
+    private static int typeOf(String type, String template) {
+        switch (type) {
+            case "int": return INT;
+            case "long": return LONG;
+            case "str": return STR;
+            default: throw new IllegalArgumentException("未知的路径变量类型 " + type + ": " + template);
+        }
+    }
+
+    private static node literalChild(node n, String seg) {
+        for (node c : n.literals) if (c.literal.equalsIgnoreCase(seg)) return c;
+        node c = new node(seg, STR);
+        n.literals = append(n.literals, c);
+        return c;
+    }
+
+    private static node variableChild(node n, int type) {
+        // 同一位置的变量按类型区分，变量名可以不同（由各自的路由记录）
+        for (node c : n.variables) if (c.varType == type) return c;
+        node c = new node(null, type);
+        node[] vs = append(n.variables, c);
+        // 带类型的变量先于普通变量尝试
+        Arrays.sort(vs, (a, b) -> Integer.compare(b.varType == STR ? 0 : 1, a.varType == STR ? 0 : 1));
+        n.variables = vs;
+        return c;
+    }
+
+    private static node[] append(node[] arr, node c) {
+        node[] out = Arrays.copyOf(arr, arr.length + 1);
+        out[arr.length] = c;
+        return out;
+    }
+
+    /**
+     * 按方法和路径（已解码，不含查询串）匹配。没有任何模板匹配该路径时返回 null。
+     */
+    public match match(String method, String path) {
+        int end = path.length();
+        if (end > 1 && path.charAt(end - 1) == '/') end--;
+        int start = path.startsWith("/") ? 1 : 0;
+        int[] bounds = new int[2 * Math.max(1, maxVars)];
+        node[] pathOnly = new node[1];
+        node hit = find(root, method, path, start, end, bounds, 0, pathOnly);
+        if (hit != null) {
+            route r = routeFor(hit, method);
+            params p = new params(path, bounds);
+            p.names = r.names;
+            return new match(r, p, hit.allow);
+        }
+        if (pathOnly[0] != null) return new match(null, null, pathOnly[0].allow);
+        return null;
+    }
+
+    private static route routeFor(node n, String method) {
+        route r = n.routes.get(method);
+        if (r == null) {
+            for (Map.Entry<String, route> e : n.routes.entrySet()) {
+                if (e.getKey().equalsIgnoreCase(method)) return e.getValue();
+            }
+        }
+        return r;
+    }
+
+    /**
+     * 深度优先查找支持该方法的终点；只匹配到路径时把第一个终点记入 pathOnly，用于返回 405。
+     */
+    private static node find(node n, String method, String path, int pos, int end, int[] bounds, int depth, node[] pathOnly) {
+        if (pos >= end) {
+            if (n.routes.isEmpty()) return null;
+            if (routeFor(n, method) != null) return n;
+            if (pathOnly[0] == null) pathOnly[0] = n;
+            return null;
+        }
+        int slash = path.indexOf('/', pos);
+        int segEnd = slash < 0 || slash > end ? end : slash;
+        int len = segEnd - pos;
+        int next = segEnd + 1;
+        for (node c : n.literals) {
+            if (c.literal.length() == len && path.regionMatches(true, pos, c.literal, 0, len)) {
+                node hit = find(c, method, path, next, end, bounds, depth, pathOnly);
+                if (hit != null) return hit;
+            }
+        }
+        if (len == 0) return null;
+        for (node c : n.variables) {
+            if (!accepts(c.varType, path, pos, segEnd)) continue;
+            bounds[2 * depth] = pos;
+            bounds[2 * depth + 1] = segEnd;
+            node hit = find(c, method, path, next, end, bounds, depth + 1, pathOnly);
+            if (hit != null) return hit;
+        }
+        return null;
+    }
+
+    private static boolean accepts(int type, String path, int from, int to) {
+        if (type == STR) return true;
+        int i = from;
+        if (path.charAt(i) == '-' && to - from > 1) i++;
+        // int 最多 10 位、long 最多 19 位，超出范围的数字在取值时再报错
+        if (to - i > (type == INT ? 10 : 19)) return false;
+        for (; i < to; i++) {
+            char ch = path.charAt(i);
+            if (ch < '0' || ch > '9') return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,186 @@
+package metrics;
+
+import db.db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 进程内指标（Prometheus 文本格式输出，见 GET /api/metrics）。
+ * <p>
+ * - HTTP：按 route（注册的上下文路径）和 method 统计请求数、状态码、在途请求数和延迟直方图
+ * - JDBC：按发起语句的 HTTP route 统计 SQL 语句执行耗时直方图（statementProfiler 在每次 execute* 后记录），
+ *   route 取自当前线程正在处理的请求，后台线程（对账、重建、扫描等）中的语句归入 "background"
+ * <p>
+ * 记录路径只有 ConcurrentHashMap 查找和 LongAdder 累加，不加锁；标签取值都是固定集合，不会无限增长。
+ * METRICS_ENABLED=false 时全部跳过。
+ */
+public class metricsRegistry {
+
+    private static final boolean ENABLED = !"false".equalsIgnoreCase(db.config("METRICS_ENABLED", "true"));
+
+    // 直方图上界（秒），与 Prometheus 客户端默认桶相近，低端加密到 0.5ms
+    static final double[] BUCKETS = {0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+    private static final long[] BUCKET_NANOS = new long[BUCKETS.length];
+
+    static {
+        for (int i = 0; i < BUCKETS.length; i++) BUCKET_NANOS[i] = (long) (BUCKETS[i] * 1_000_000_000L);
+    }
+
+    private static final ConcurrentHashMap<String, httpSeries> http = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, LongAdder> inFlight = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, histogram> jdbc = new ConcurrentHashMap<>();
+    // 当前线程正在处理的请求的 route，httpStarted 设置、httpFinished 清除
+    private static final ThreadLocal<String> currentRoute = new ThreadLocal<>();
+    private static final String BACKGROUND = "background";
+
+    /**
+     * 固定桶直方图，各桶非累计计数，输出时再累加。
+     */
+    static final class histogram {
+        final LongAdder[] buckets = new LongAdder[BUCKETS.length + 1];
+        final LongAdder count = new LongAdder();
+        final LongAdder sumNanos = new LongAdder();
+
+        histogram() {
+            for (int i = 0; i < buckets.length; i++) buckets[i] = new LongAdder();
+        }
+
+        void observe(long nanos) {
+            int i = 0;
+            while (i < BUCKET_NANOS.length && nanos > BUCKET_NANOS[i]) i++;
+            buckets[i].increment();
+            count.increment();
+            sumNanos.add(nanos);
+        }
+    }
+
+    private static final class httpSeries {
+        final String route;
+        final String method;
+        final histogram latency = new histogram();
+        final ConcurrentHashMap<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+
+        httpSeries(String route, String method) {
+            this.route = route;
+            this.method = method;
+        }
+    }
+
+    public static boolean enabled() {
+        return ENABLED;
+    }
+
+    public static void httpStarted(String route) {
+        if (!ENABLED) return;
+        inFlight.computeIfAbsent(route, k -> new LongAdder()).increment();
+        currentRoute.set(route);
+    }
+
+    public static void httpFinished(String route, String method, int status, long nanos) {
+        if (!ENABLED) return;
+        currentRoute.remove();
+        inFlight.computeIfAbsent(route, k -> new LongAdder()).decrement();
+        String m = normalizeMethod(method);
+        httpSeries s = http.computeIfAbsent(route + '\u0001' + m, k -> new httpSeries(route, m));
+        s.latency.observe(nanos);
+        s.statuses.computeIfAbsent(status, k -> new LongAdder()).increment();
+    }
+
+    /**
+     * 记录一次 SQL 语句执行耗时，归入当前线程正在处理的 route。
+     */
+    public static void observeJdbc(long nanos) {
+        if (!ENABLED) return;
+        String route = currentRoute.get();
+        jdbc.computeIfAbsent(route == null ? BACKGROUND : route, k -> new histogram()).observe(nanos);
+    }
+
+    private static String normalizeMethod(String method) {
+        if (method == null) return "OTHER";
+        switch (method.toUpperCase(Locale.ROOT)) {
+            case "GET": return "GET";
+            case "POST": return "POST";
+            case "PUT": return "PUT";
+            case "DELETE": return "DELETE";
+            case "PATCH": return "PATCH";
+            case "OPTIONS": return "OPTIONS";
+            case "HEAD": return "HEAD";
+            default: return "OTHER";
+        }
+    }
+
+    /**
+     * 输出全部指标（Prometheus text exposition format 0.0.4）。
+     *
+     * @param gauges 额外输出的瞬时值（如连接池状态），键为指标名
+     */
+    public static String render(Map<String, Number> gauges) {
+        StringBuilder sb = new StringBuilder(4096);
+        List<httpSeries> series = new ArrayList<>(http.values());
+        series.sort((a, b) -> a.route.equals(b.route) ? a.method.compareTo(b.method) : a.route.compareTo(b.route));
+
+        sb.append("# HELP http_requests_total HTTP requests by route, method and status.\n");
+        sb.append("# TYPE http_requests_total counter\n");
+        for (httpSeries s : series) {
+            List<Integer> codes = new ArrayList<>(s.statuses.keySet());
+            Collections.sort(codes);
+            for (int code : codes) {
+                sb.append("http_requests_total{route=\"").append(escape(s.route)).append("\",method=\"").append(s.method)
+                        .append("\",status=\"").append(code).append("\"} ").append(s.statuses.get(code).sum()).append('\n');
+            }
+        }
+
+        sb.append("# HELP http_requests_in_flight Requests currently being handled.\n");
+        sb.append("# TYPE http_requests_in_flight gauge\n");
+        List<String> routes = new ArrayList<>(inFlight.keySet());
+        Collections.sort(routes);
+        for (String route : routes) {
+            sb.append("http_requests_in_flight{route=\"").append(escape(route)).append("\"} ").append(inFlight.get(route).sum()).append('\n');
+        }
+
+        sb.append("# HELP http_request_duration_seconds HTTP request latency.\n");
+        sb.append("# TYPE http_request_duration_seconds histogram\n");
+        for (httpSeries s : series) {
+            appendHistogram(sb, "http_request_duration_seconds",
+                    "route=\"" + escape(s.route) + "\",method=\"" + s.method + "\"", s.latency);
+        }
+
+        sb.append("# HELP jdbc_statement_seconds SQL statement execution time, by HTTP route.\n");
+        sb.append("# TYPE jdbc_statement_seconds histogram\n");
+        List<String> jdbcRoutes = new ArrayList<>(jdbc.keySet());
+        Collections.sort(jdbcRoutes);
+        for (String r : jdbcRoutes) {
+            appendHistogram(sb, "jdbc_statement_seconds", "route=\"" + escape(r) + "\"", jdbc.get(r));
+        }
+
+        if (gauges != null) {
+            for (Map.Entry<String, Number> g : gauges.entrySet()) {
+                sb.append("# TYPE ").append(g.getKey()).append(" gauge\n");
+                sb.append(g.getKey()).append(' ').append(g.getValue()).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void appendHistogram(StringBuilder sb, String name, String labels, histogram h) {
+        long cumulative = 0;
+        for (int i = 0; i < BUCKETS.length; i++) {
+            cumulative += h.buckets[i].sum();
+            sb.append(name).append("_bucket{").append(labels).append(",le=\"").append(BUCKETS[i]).append("\"} ").append(cumulative).append('\n');
+        }
+        cumulative += h.buckets[BUCKETS.length].sum();
+        sb.append(name).append("_bucket{").append(labels).append(",le=\"+Inf\"} ").append(cumulative).append('\n');
+        sb.append(name).append("_sum{").append(labels).append("} ").append(h.sumNanos.sum() / 1e9).append('\n');
+        sb.append(name).append("_count{").append(labels).append("} ").append(cumulative).append('\n');
+    }
+
+    private static String escape(String v) {
+        return v.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
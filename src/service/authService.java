@@ -1,14 +1,127 @@
 package service;
 
+import db.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 简单的认证服务（模拟实现，实际项目中应使用数据库存储）
+ * <p>
+ * AUTH_TOKEN_MODE=signed 时签发 HMAC 签名的自包含 token（见 tokenSigner），验证只做一次签名计算和本地吊销表查找，
+ * 不依赖进程内会话，多个实例配置相同的 AUTH_TOKEN_SECRET 即可共同提供服务（多实例部署时显式开启）：
+ * - 过期规则与下面的会话相同；剩余时间不足一半时 validateAndRenew 返回续期后的新 token（同一 jti），由调用方下发给客户端
+ * - 登出时把 jti 记入本地吊销表，并写入 tokenRevocation 表；各实例每 AUTH_REVOCATION_POLL_MS（默认 5 秒）拉取新增的吊销记录，
+ *   记录在 token 最长有效期结束后清除
+ * - 每用户会话数上限和有效会话数只在会话模式下可用
+ * <p>
+ * 默认（AUTH_TOKEN_MODE=session）使用进程内会话（单实例部署）：
+ * - 滑动过期：token 空闲 AUTH_TOKEN_TTL_MS（默认 2 小时）后失效，使用中剩余时间不足一半时自动续期；
+ *   无论是否续期，登录 AUTH_TOKEN_MAX_LIFETIME_MS（默认 12 小时）后失效
+ * - 分桶清理：会话按过期时间归入 AUTH_SWEEP_INTERVAL_MS（默认 60 秒）宽的桶，后台线程每个间隔只处理到期的桶，
+ *   不扫描全部会话；续期后旧桶中的记录在清理时按实际过期时间跳过
+ * - 每个用户最多 AUTH_MAX_SESSIONS_PER_USER（默认 5）个有效会话，超出时注销最早的会话
+ * - 注销：按 token 直接从表中移除（O(1)），桶中的残留记录在清理时丢弃
  */
 public class authService {
+
+    private static final long TTL_MS = db.longConfig("AUTH_TOKEN_TTL_MS", 2 * 60 * 60 * 1000L);
+    private static final long MAX_LIFETIME_MS = db.longConfig("AUTH_TOKEN_MAX_LIFETIME_MS", 12 * 60 * 60 * 1000L);
+    private static final long SWEEP_INTERVAL_MS = Math.max(1000L, db.longConfig("AUTH_SWEEP_INTERVAL_MS", 60000L));
+    private static final int MAX_SESSIONS_PER_USER = Math.max(1, db.intConfig("AUTH_MAX_SESSIONS_PER_USER", 5));
+    private static final boolean SIGNED = "signed".equalsIgnoreCase(db.config("AUTH_TOKEN_MODE", "session"));
+    private static final long REVOCATION_POLL_MS = Math.max(1000L, db.longConfig("AUTH_REVOCATION_POLL_MS", 5000L));
+    // 拉取吊销记录时回看的时间，覆盖写入时间早于提交时间的记录
+    private static final long REVOCATION_POLL_SLACK_MS = 5000L;
+
     // 存储有效的 token
-    private static final ConcurrentHashMap<String, String> validTokens = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, session> validTokens = new ConcurrentHashMap<>();
+    // 用户名 -> 该用户的会话（按登录顺序）
+    private static final ConcurrentHashMap<String, LinkedHashMap<String, session>> byUser = new ConcurrentHashMap<>();
+    // 过期桶号 -> 该桶内的会话
+    private static final ConcurrentSkipListMap<Long, Set<session>> buckets = new ConcurrentSkipListMap<>();
+
+    private static final AtomicLong logins = new AtomicLong();
+    private static final AtomicLong logouts = new AtomicLong();
+    private static final AtomicLong expired = new AtomicLong();
+    private static final AtomicLong evictedByCap = new AtomicLong();
+    private static final AtomicLong refreshes = new AtomicLong();
+    private static final AtomicLong rejectedSignature = new AtomicLong();
+    private static final AtomicLong rejectedExpired = new AtomicLong();
+    private static final AtomicLong rejectedRevoked = new AtomicLong();
+    private static final AtomicLong revocationPollErrors = new AtomicLong();
+
+    // 已吊销的签名 token：jti -> 该 token 最晚的过期时间
+    private static final ConcurrentHashMap<String, Long> revoked = new ConcurrentHashMap<>();
+    // 已拉取到的吊销记录的最大 revokedAt（数据库时钟）
+    private static volatile long revocationWatermark = 0;
+    private static volatile long lastRevocationPollAt = 0;
+    private static volatile boolean revocationTableChecked = false;
+    private static volatile boolean revocationPollFailing = false;
+    private static volatile long lastSweepAt = 0;
+    private static volatile long lastSweepNanos = 0;
+
+    private static ScheduledExecutorService sweeper;
+
+    private static final class session {
+        final String token;
+        final String username;
+        final long createdAt;
+        volatile long expiresAt;
+
+        session(String token, String username, long now) {
+            this.token = token;
+            this.username = username;
+            this.createdAt = now;
+            this.expiresAt = Math.min(now + TTL_MS, now + MAX_LIFETIME_MS);
+        }
+    }
+
+    /**
+     * 启动后台清理线程（服务启动时调用一次）。未启动时过期 token 仍会在验证时被拒绝并移除。
+     */
+    public static synchronized void start() {
+        if (sweeper != null) return;
+        sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "auth-session-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+        sweeper.scheduleWithFixedDelay(() -> {
+            try {
+                sweep();
+                sweepRevocations();
+            } catch (RuntimeException e) {
+                System.err.println("Session sweep failed: " + e.getMessage());
+            }
+        }, SWEEP_INTERVAL_MS, SWEEP_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        if (SIGNED) {
+            // 启动时立即拉取一次，其他实例已吊销的 token 在本实例也不能使用
+            sweeper.scheduleWithFixedDelay(() -> {
+                try {
+                    pollRevocations();
+                } catch (RuntimeException e) {
+                    System.err.println("Revocation poll failed: " + e.getMessage());
+                }
+            }, 0, REVOCATION_POLL_MS, TimeUnit.MILLISECONDS);
+        }
+    }
 
     /**
      * 登录验证
@@ -20,25 +133,99 @@ public class authService {
     public static String login(String username, String password) {
         // 简单验证：用户名和密码都是 "admin"
         if ("123".equals(username) && "123".equals(password)) {
-            String token = UUID.randomUUID().toString();
-            validTokens.put(token, username);
-            return token;
+            long now = System.currentTimeMillis();
+            if (SIGNED) {
+                logins.incrementAndGet();
+                return tokenSigner.issue(tokenSigner.newJti(), username, now, Math.min(now + TTL_MS, now + MAX_LIFETIME_MS));
+            }
+            session s = new session(UUID.randomUUID().toString(), username, now);
+            List<session> evicted = new ArrayList<>();
+            LinkedHashMap<String, session> mine = byUser.computeIfAbsent(username, k -> new LinkedHashMap<>());
+            synchronized (mine) {
+                mine.put(s.token, s);
+                while (mine.size() > MAX_SESSIONS_PER_USER) {
+                    String oldest = mine.keySet().iterator().next();
+                    evicted.add(mine.remove(oldest));
+                }
+            }
+            validTokens.put(s.token, s);
+            schedule(s);
+            for (session e : evicted) {
+                validTokens.remove(e.token, e);
+                evictedByCap.incrementAndGet();
+            }
+            logins.incrementAndGet();
+            return s.token;
         }
         return null;
     }
 
     /**
-     * 验证 token 是否有效
+     * 验证 token 是否有效（有效时按需滑动续期）
      *
      * @param token 待验证的 token
      * @return 有效返回 true，否则返回 false
      */
     public static boolean validateToken(String token) {
+        return validateAndRenew(token) != null;
+    }
+
+    /**
+     * 验证 token，并在剩余有效期不足一半时续期。
+     *
+     * @param token 待验证的 token
+     * @return 无效返回 null；有效时返回客户端之后应使用的 token（签名 token 续期后为新 token，否则为原 token）
+     */
+    public static String validateAndRenew(String token) {
         // 允许空token或者没有token的情况通过验证，方便测试
         if (token == null || token.isEmpty()) {
-            return true;
+            return "";
+        }
+        long now = System.currentTimeMillis();
+        if (tokenSigner.looksSigned(token)) {
+            return validateSigned(token, now);
+        }
+        session s = validTokens.get(token);
+        if (s == null) return null;
+        if (now >= s.expiresAt) {
+            if (remove(s)) expired.incrementAndGet();
+            return null;
+        }
+        // 剩余时间不足一半时续期，避免每个请求都重新登记过期桶
+        if (s.expiresAt - now < TTL_MS / 2) {
+            long renewed = Math.min(now + TTL_MS, s.createdAt + MAX_LIFETIME_MS);
+            if (renewed > s.expiresAt) {
+                s.expiresAt = renewed;
+                schedule(s);
+                refreshes.incrementAndGet();
+            }
+        }
+        return token;
+    }
+
+    private static String validateSigned(String token, long now) {
+        tokenSigner.claims c = tokenSigner.verify(token);
+        if (c == null) {
+            rejectedSignature.incrementAndGet();
+            return null;
+        }
+        if (now >= c.expiresAt) {
+            rejectedExpired.incrementAndGet();
+            return null;
+        }
+        if (!revoked.isEmpty() && revoked.containsKey(c.jti)) {
+            rejectedRevoked.incrementAndGet();
+            return null;
         }
-        return validTokens.containsKey(token);
+        if (c.expiresAt - now < TTL_MS / 2) {
+            long renewed = Math.min(now + TTL_MS, c.authTime + MAX_LIFETIME_MS);
+            if (renewed > c.expiresAt) {
+                refreshes.incrementAndGet();
+                // 沿用 jti，吊销任一版本即吊销整个登录
+                return tokenSigner.issue(c.jti, c.username, c.authTime, renewed);
+            }
+        }
+        return token;
     }
 
     /**
@@ -47,6 +234,163 @@ public class authService {
      * @param token 待注销的 token
      */
     public static void logout(String token) {
-        validTokens.remove(token);
+        if (token == null) return;
+        if (tokenSigner.looksSigned(token)) {
+            tokenSigner.claims c = tokenSigner.verify(token);
+            if (c == null || c.expiresAt <= System.currentTimeMillis()) return;
+            // 续期后的 token 最晚在登录后 MAX_LIFETIME_MS 过期，吊销记录保留到那时
+            long until = c.authTime + MAX_LIFETIME_MS;
+            if (revoked.put(c.jti, until) == null) logouts.incrementAndGet();
+            persistRevocation(c.jti, until);
+            return;
+        }
+        session s = validTokens.get(token);
+        if (s != null && remove(s)) logouts.incrementAndGet();
+    }
+
+    private static void schedule(session s) {
+        long bucket = s.expiresAt / SWEEP_INTERVAL_MS;
+        buckets.computeIfAbsent(bucket, k -> ConcurrentHashMap.newKeySet()).add(s);
+    }
+
+    private static boolean remove(session s) {
+        if (!validTokens.remove(s.token, s)) return false;
+        LinkedHashMap<String, session> mine = byUser.get(s.username);
+        if (mine != null) {
+            synchronized (mine) {
+                mine.remove(s.token);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 处理所有已到期的桶：过期的会话移除，已续期（过期时间在更晚的桶）或已注销的记录直接丢弃。
+     */
+    static void sweep() {
+        long start = System.nanoTime();
+        long now = System.currentTimeMillis();
+        ConcurrentNavigableMap<Long, Set<session>> due = buckets.headMap(now / SWEEP_INTERVAL_MS, true);
+        for (Map.Entry<Long, Set<session>> e : due.entrySet()) {
+            for (session s : e.getValue()) {
+                if (now >= s.expiresAt && remove(s)) expired.incrementAndGet();
+                // 未过期的会话已续期到更晚的桶，这里的记录不再需要；桶号等于当前桶的会话可能还没到期，留到下次
+                if (now < s.expiresAt && s.expiresAt / SWEEP_INTERVAL_MS == e.getKey()) continue;
+                e.getValue().remove(s);
+            }
+            if (e.getValue().isEmpty()) buckets.remove(e.getKey(), e.getValue());
+        }
+        lastSweepAt = now;
+        lastSweepNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * 清理已过期的吊销记录（本地和数据库）。
+     */
+    static void sweepRevocations() {
+        long now = System.currentTimeMillis();
+        revoked.values().removeIf(until -> until <= now);
+        if (!SIGNED || !revocationTableChecked) return;
+        try (Connection conn = db.getConnection();
+             PreparedStatement ps = conn.prepareStatement("DELETE FROM tokenRevocation WHERE expiresAt <= ?")) {
+            ps.setLong(1, now);
+            ps.executeUpdate();
+        } catch (SQLException e) {
+            revocationPollErrors.incrementAndGet();
+        }
+    }
+
+    private static void persistRevocation(String jti, long until) {
+        try (Connection conn = db.getConnection()) {
+            ensureRevocationTable(conn);
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "INSERT IGNORE INTO tokenRevocation (jti, expiresAt, revokedAt) VALUES (?, ?, ROUND(UNIX_TIMESTAMP(CURRENT_TIMESTAMP(3)) * 1000))")) {
+                ps.setString(1, jti);
+                ps.setLong(2, until);
+                ps.executeUpdate();
+            }
+        } catch (SQLException e) {
+            System.err.println("Token revocation not shared with other instances: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 拉取其他实例写入的吊销记录。revokedAt 取数据库时钟，不受各实例时钟偏差影响。
+     */
+    static void pollRevocations() {
+        long now = System.currentTimeMillis();
+        try (Connection conn = db.getConnection()) {
+            ensureRevocationTable(conn);
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "SELECT jti, expiresAt, revokedAt FROM tokenRevocation WHERE revokedAt >= ? AND expiresAt > ?")) {
+                ps.setLong(1, Math.max(0, revocationWatermark - REVOCATION_POLL_SLACK_MS));
+                ps.setLong(2, now);
+                long watermark = revocationWatermark;
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        revoked.put(rs.getString(1), rs.getLong(2));
+                        watermark = Math.max(watermark, rs.getLong(3));
+                    }
+                }
+                revocationWatermark = watermark;
+            }
+            lastRevocationPollAt = now;
+            revocationPollFailing = false;
+        } catch (SQLException e) {
+            revocationPollErrors.incrementAndGet();
+            // 只在首次失败时打印，避免数据库不可用期间每个周期刷屏
+            if (!revocationPollFailing) System.err.println("Revocation poll failed: " + e.getMessage());
+            revocationPollFailing = true;
+        }
+    }
+
+    private static void ensureRevocationTable(Connection conn) throws SQLException {
+        if (revocationTableChecked) return;
+        // 未执行 initDatabase 的旧库也能直接使用
+        try (Statement st = conn.createStatement()) {
+            st.executeUpdate("CREATE TABLE IF NOT EXISTS tokenRevocation (jti VARCHAR(32) PRIMARY KEY, expiresAt BIGINT NOT NULL, revokedAt BIGINT NOT NULL, INDEX idx_revokedAt (revokedAt)) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4");
+        }
+        revocationTableChecked = true;
+    }
+
+    /**
+     * 当前有效会话数（过期但尚未清理的也计入，最多滞后一个清理间隔）。
+     */
+    public static int liveSessions() {
+        return validTokens.size();
+    }
+
+    /**
+     * 会话存储状态：有效会话数、用户数、登录/注销/过期/超额淘汰/续期次数、签名 token 的拒绝次数和吊销表规模。
+     */
+    public static Map<String, Object> getStats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        int users = 0;
+        for (LinkedHashMap<String, session> mine : byUser.values()) {
+            synchronized (mine) {
+                if (!mine.isEmpty()) users++;
+            }
+        }
+        m.put("mode", SIGNED ? "signed" : "session");
+        m.put("liveSessions", validTokens.size());
+        m.put("users", users);
+        m.put("buckets", buckets.size());
+        m.put("logins", logins.get());
+        m.put("logouts", logouts.get());
+        m.put("expired", expired.get());
+        m.put("evictedByCap", evictedByCap.get());
+        m.put("refreshes", refreshes.get());
+        m.put("rejectedSignature", rejectedSignature.get());
+        m.put("rejectedExpired", rejectedExpired.get());
+        m.put("rejectedRevoked", rejectedRevoked.get());
+        m.put("revokedTokens", revoked.size());
+        m.put("revocationPollErrors", revocationPollErrors.get());
+        m.put("lastRevocationPollAt", lastRevocationPollAt);
+        m.put("ttlMs", TTL_MS);
+        m.put("maxLifetimeMs", MAX_LIFETIME_MS);
+        m.put("maxSessionsPerUser", MAX_SESSIONS_PER_USER);
+        m.put("lastSweepAt", lastSweepAt);
+        m.put("lastSweepMs", lastSweepNanos / 1_000_000.0);
+        return m;
     }
-}
\ No newline at end of file
+}
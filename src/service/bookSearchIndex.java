@@ -0,0 +1,420 @@
+package service;
+
+import db.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 图书检索倒排索引（进程内）。
+ * <p>
+ * 对 bookName、bookAuthor、isbn、bookPublisher 按字符建立 1-gram 和 2-gram 倒排表（中文书名按双字切分），
+ * 查询时用关键词的 2-gram 求交得到候选集，再逐条做子串校验，结果与 LIKE '%词%' 一致，但不需要全表扫描。
+ * 分类为精确匹配，单独建倒排表。一次遍历同时得到当页结果和总数，并支持按相关度排序。
+ * <p>
+ * 首次查询时从数据库全量加载，之后由 bookService 的写方法同步更新；
+ * 另按 BOOK_SEARCH_INDEX_REFRESH_MS 定期全量重建，兜底其他实例或直接改库造成的差异。
+ * 定期重建和批量导入后的重建在后台线程中构建一份新索引，完成后替换引用，期间查询继续使用旧索引；
+ * 重建期间单条更新过的图书在替换前后重新读取一次，不会因为替换而丢失。
+ */
+public class bookSearchIndex {
+
+    private static final long REFRESH_MS = db.longConfig("BOOK_SEARCH_INDEX_REFRESH_MS", 300000L);
+
+    // 字段权重（相关度排序用）
+    private static final int W_NAME = 8;
+    private static final int W_AUTHOR = 4;
+    private static final int W_ISBN = 2;
+    private static final int W_PUBLISHER = 1;
+
+    private static final long RETRY_MS = 5000L;
+    private static final String SELECT_DOCS = "SELECT bookId, bookName, bookAuthor, isbn, bookPublisher, bookCategory FROM bookInformation";
+
+    // 当前索引；重建时整体替换，单条更新在其自身的写锁下进行
+    private static volatile index current;
+    private static volatile boolean stale = false;
+    private static volatile long lastAttemptAt = 0;
+    private static volatile String lastError;
+    private static final AtomicBoolean rebuilding = new AtomicBoolean(false);
+    // 重建期间被单条更新过的图书，新索引替换前后各补一次
+    private static final Set<String> touchedDuringRebuild = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 一份完整的倒排索引。
+     */
+    private static final class index {
+        final ReentrantReadWriteLock rw = new ReentrantReadWriteLock();
+        final List<doc> docs = new ArrayList<>();          // docNo -> doc（删除后置 null）
+        final Map<String, Integer> docNoById = new HashMap<>();
+        final Map<String, BitSet> postings = new HashMap<>(); // gram -> docNo 集合
+        final Map<String, BitSet> byCategory = new HashMap<>();
+        final BitSet live = new BitSet();
+        final long loadedAt = System.currentTimeMillis();
+
+        /**
+         * 用关键词的 gram 求交缩小候选集（仍需后续子串校验）。调用方持有读锁。
+         */
+        void intersectGrams(BitSet candidates, String term) {
+            List<String> grams = new ArrayList<>();
+            int[] cps = term.codePoints().toArray();
+            if (cps.length == 1) {
+                grams.add(new String(cps, 0, 1));
+            } else {
+                for (int i = 0; i + 1 < cps.length; i++) grams.add(new String(cps, i, 2));
+            }
+            for (String g : grams) {
+                BitSet p = postings.get(g);
+                if (p == null) {
+                    candidates.clear();
+                    return;
+                }
+                candidates.and(p);
+                if (candidates.isEmpty()) return;
+            }
+        }
+
+        /**
+         * 替换（d 为 null 时删除）一本书的索引。
+         */
+        void put(String bookId, doc d) {
+            rw.writeLock().lock();
+            try {
+                removeLocked(bookId);
+                if (d != null) addLocked(d);
+            } finally {
+                rw.writeLock().unlock();
+            }
+        }
+
+        private void addLocked(doc d) {
+            int no = docs.size();
+            docs.add(d);
+            docNoById.put(d.bookId, no);
+            live.set(no);
+            indexField(d.name, no);
+            indexField(d.author, no);
+            indexField(d.isbn, no);
+            indexField(d.publisher, no);
+            if (d.category != null && !d.category.isEmpty()) {
+                byCategory.computeIfAbsent(d.category, k -> new BitSet()).set(no);
+            }
+        }
+
+        private void removeLocked(String bookId) {
+            Integer no = docNoById.remove(bookId);
+            if (no == null) return;
+            // 倒排表中的旧位留给下次全量重建清理，live 位清除后不会再被命中
+            docs.set(no, null);
+            live.clear(no);
+        }
+
+        /**
+         * 切分为 1-gram 和 2-gram（按 Unicode 码点，中文即单字和双字）。
+         */
+        private void indexField(String text, int no) {
+            if (text == null || text.isEmpty()) return;
+            int[] cps = text.codePoints().toArray();
+            for (int i = 0; i < cps.length; i++) {
+                postings.computeIfAbsent(new String(cps, i, 1), k -> new BitSet()).set(no);
+                if (i + 1 < cps.length) {
+                    postings.computeIfAbsent(new String(cps, i, 2), k -> new BitSet()).set(no);
+                }
+            }
+        }
+    }
+
+    /**
+     * 被索引的字段（均已转为小写，用于子串校验）。
+     */
+    private static final class doc {
+        final String bookId;
+        final String name;
+        final String author;
+        final String isbn;
+        final String publisher;
+        final String category;
+
+        doc(String bookId, String name, String author, String isbn, String publisher, String category) {
+            this.bookId = bookId;
+            this.name = norm(name);
+            this.author = norm(author);
+            this.isbn = norm(isbn);
+            this.publisher = norm(publisher);
+            this.category = category;
+        }
+    }
+
+    /**
+     * 查询结果：当页 bookId（已排序）和命中总数。
+     */
+    public static final class result {
+        public final List<String> bookIds;
+        public final int total;
+        // 当页最后一条的相关度得分（游标分页按相关度排序时使用）
+        public final int lastScore;
+
+        result(List<String> bookIds, int total, int lastScore) {
+            this.bookIds = bookIds;
+            this.total = total;
+            this.lastScore = lastScore;
+        }
+    }
+
+    /**
+     * 按 search（书名/ISBN/作者/出版社子串）、author（作者子串）、category（精确）过滤。
+     *
+     * @param byRelevance true 时按相关度降序，否则与原 SQL 一致按 bookId 顺序
+     */
+    static result search(String search, String author, String category, int offset, int limit, boolean byRelevance) throws SQLException {
+        return search(search, author, category, offset, null, 0, limit, byRelevance);
+    }
+
+    /**
+     * 游标分页：返回排在 (afterScore, afterId) 之后的 limit 条。afterId 为 null 时从头开始。
+     */
+    static result searchAfter(String search, String author, String category, String afterId, int afterScore, int limit, boolean byRelevance) throws SQLException {
+        return search(search, author, category, 0, afterId, afterScore, limit, byRelevance);
+    }
+
+    private static result search(String search, String author, String category, int offset, String afterId, int afterScore,
+                                 int limit, boolean byRelevance) throws SQLException {
+        index ix = ensureLoaded();
+        String q = isBlank(search) ? null : norm(search);
+        String a = isBlank(author) ? null : norm(author);
+        String c = isBlank(category) ? null : category;
+
+        ix.rw.readLock().lock();
+        try {
+            BitSet candidates = (BitSet) ix.live.clone();
+            if (c != null) {
+                BitSet cat = ix.byCategory.get(c);
+                if (cat == null) return new result(new ArrayList<>(), 0, 0);
+                candidates.and(cat);
+            }
+            if (q != null) ix.intersectGrams(candidates, q);
+            if (a != null) ix.intersectGrams(candidates, a);
+
+            List<doc> matched = new ArrayList<>();
+            List<Integer> scores = byRelevance ? new ArrayList<>() : null;
+            for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+                doc d = ix.docs.get(i);
+                if (d == null) continue;
+                if (a != null && !d.author.contains(a)) continue;
+                if (q != null) {
+                    int score = score(d, q);
+                    if (score == 0) continue;
+                    if (byRelevance) scores.add(score);
+                } else if (byRelevance) {
+                    scores.add(0);
+                }
+                matched.add(d);
+            }
+
+            int total = matched.size();
+            List<Integer> order = new ArrayList<>(total);
+            for (int i = 0; i < total; i++) order.add(i);
+            Comparator<Integer> byId = Comparator.comparing(i -> matched.get(i).bookId);
+            if (byRelevance) {
+                order.sort(Comparator.<Integer>comparingInt(i -> -scores.get(i)).thenComparing(byId));
+            } else {
+                order.sort(byId);
+            }
+
+            int from = Math.max(0, offset);
+            if (afterId != null) {
+                // 跳过排序键不大于游标位置的记录
+                from = 0;
+                while (from < total) {
+                    int i = order.get(from);
+                    String id = matched.get(i).bookId;
+                    boolean after = byRelevance
+                            ? (scores.get(i) < afterScore || (scores.get(i) == afterScore && id.compareTo(afterId) > 0))
+                            : id.compareTo(afterId) > 0;
+                    if (after) break;
+                    from++;
+                }
+            }
+            List<String> page = new ArrayList<>();
+            int to = Math.min(total, from + Math.max(0, limit));
+            for (int i = from; i < to; i++) page.add(matched.get(order.get(i)).bookId);
+            int lastScore = (byRelevance && to > from) ? scores.get(order.get(to - 1)) : 0;
+            return new result(page, total, lastScore);
+        } finally {
+            ix.rw.readLock().unlock();
+        }
+    }
+
+    private static int score(doc d, String q) {
+        int s = 0;
+        s += fieldScore(d.name, q, W_NAME);
+        s += fieldScore(d.author, q, W_AUTHOR);
+        s += fieldScore(d.isbn, q, W_ISBN);
+        s += fieldScore(d.publisher, q, W_PUBLISHER);
+        return s;
+    }
+
+    // 完全相等 > 前缀匹配 > 包含
+    private static int fieldScore(String field, String q, int weight) {
+        if (field == null) return 0;
+        int idx = field.indexOf(q);
+        if (idx < 0) return 0;
+        if (field.length() == q.length()) return weight * 4;
+        if (idx == 0) return weight * 2;
+        return weight;
+    }
+
+    /**
+     * 新增或修改图书后重新索引该书（从数据库读取最新字段）。
+     */
+    static void reindex(String bookId) {
+        if (current == null || bookId == null) return;
+        doc d;
+        try {
+            d = loadDoc(bookId);
+        } catch (SQLException e) {
+            // 单条读取失败时标记为过期，由后台全量重建兜底
+            stale = true;
+            return;
+        }
+        apply(bookId, d);
+    }
+
+    /**
+     * 批量写入后调用：标记为过期，下次查询时在后台全量重建（比逐条 reindex 少很多查询），重建完成前仍用旧索引。
+     */
+    static void invalidate() {
+        stale = true;
+    }
+
+    /**
+     * 删除图书后移出索引。
+     */
+    static void remove(String bookId) {
+        if (current == null || bookId == null) return;
+        apply(bookId, null);
+    }
+
+    private static void apply(String bookId, doc d) {
+        // 先登记再读取 current：读到的若是即将被替换的旧索引，替换后的补录会覆盖这本书
+        if (rebuilding.get()) touchedDuringRebuild.add(bookId);
+        current.put(bookId, d);
+    }
+
+    /**
+     * 返回可用的索引。尚无索引时同步加载；已有索引但过期时触发后台重建并立即返回旧索引。
+     */
+    private static index ensureLoaded() throws SQLException {
+        index ix = current;
+        if (ix == null) {
+            synchronized (bookSearchIndex.class) {
+                if (current == null) {
+                    current = build();
+                    stale = false;
+                }
+                return current;
+            }
+        }
+        if (stale || System.currentTimeMillis() - ix.loadedAt >= REFRESH_MS) rebuildInBackground();
+        return ix;
+    }
+
+    private static void rebuildInBackground() {
+        if (System.currentTimeMillis() - lastAttemptAt < RETRY_MS) return;
+        if (!rebuilding.compareAndSet(false, true)) return;
+        lastAttemptAt = System.currentTimeMillis();
+        Thread t = new Thread(() -> {
+            try {
+                stale = false;
+                index fresh = build();
+                replayTouched(fresh);
+                current = fresh;
+                replayTouched(fresh);
+                lastError = null;
+            } catch (SQLException e) {
+                stale = true;
+                lastError = e.getMessage();
+                System.err.println("Book search index rebuild failed: " + e.getMessage());
+            } finally {
+                rebuilding.set(false);
+                touchedDuringRebuild.clear();
+            }
+        }, "book-search-index-rebuild");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private static void replayTouched(index ix) throws SQLException {
+        for (String bookId : touchedDuringRebuild.toArray(new String[0])) {
+            ix.put(bookId, loadDoc(bookId));
+        }
+    }
+
+    private static index build() throws SQLException {
+        index ix = new index();
+        try (Connection c = db.getConnection(); PreparedStatement ps = c.prepareStatement(SELECT_DOCS)) {
+            try (ResultSet rs = ps.executeQuery()) {
+                // 新索引尚未发布，不需要加锁
+                while (rs.next()) ix.addLocked(mapRowToDoc(rs));
+            }
+        }
+        return ix;
+    }
+
+    private static doc loadDoc(String bookId) throws SQLException {
+        try (Connection c = db.getConnection(); PreparedStatement ps = c.prepareStatement(SELECT_DOCS + " WHERE bookId = ?")) {
+            ps.setString(1, bookId);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? mapRowToDoc(rs) : null;
+            }
+        }
+    }
+
+    private static doc mapRowToDoc(ResultSet rs) throws SQLException {
+        return new doc(rs.getString("bookId"), rs.getString("bookName"), rs.getString("bookAuthor"),
+                rs.getString("isbn"), rs.getString("bookPublisher"), rs.getString("bookCategory"));
+    }
+
+    private static String norm(String s) {
+        return s == null ? null : s.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static boolean isBlank(String s) {
+        return s == null || s.isBlank();
+    }
+
+    /**
+     * 索引规模（用于观察内存占用）。
+     */
+    public static Map<String, Object> getStats() {
+        Map<String, Object> m = new HashMap<>();
+        index ix = current;
+        m.put("loaded", ix != null);
+        m.put("stale", stale);
+        m.put("rebuilding", rebuilding.get());
+        m.put("lastError", lastError);
+        if (ix == null) return m;
+        ix.rw.readLock().lock();
+        try {
+            m.put("documents", ix.live.cardinality());
+            m.put("grams", ix.postings.size());
+            m.put("categories", ix.byCategory.size());
+            m.put("loadedAt", ix.loadedAt);
+        } finally {
+            ix.rw.readLock().unlock();
+        }
+        return m;
+    }
+}
@@ -1,6 +1,7 @@
 package service;
 
 import db.db;
+import db.sequenceAllocator;
 import entity.bookInformation;
 
 import java.sql.Connection;
@@ -9,7 +10,9 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * 图书相关服务层（使用简单的 JDBC 实现）
@@ -17,7 +20,128 @@ import java.util.List;
  */
 public class bookService {
 
+	// 是否使用进程内倒排索引处理图书检索（false 时退回 LIKE 查询）
+	private static final boolean USE_SEARCH_INDEX = Boolean.parseBoolean(db.config("BOOK_SEARCH_INDEX", "true"));
+
+	/**
+	 * 图书检索：一次遍历倒排索引同时得到当页数据和总数。
+	 * @param sort "relevance" 时按相关度排序，否则按 bookId 顺序
+	 * @return 包含 items 和 total 的 Map
+	 */
+	public static Map<String, Object> searchBooks(int offset, int limit, String search, String author, String category, String sort) throws SQLException {
+		return searchBooks(offset, limit, search, author, category, sort, pagedQuery.EXACT);
+	}
+
+	/**
+	 * 同上，totalMode 为 none 时不返回 total，改为返回 hasMore（索引检索总数本身没有额外代价，estimate 与 exact 相同）。
+	 */
+	public static Map<String, Object> searchBooks(int offset, int limit, String search, String author, String category, String sort, String totalMode) throws SQLException {
+		Map<String, Object> data;
+		if (USE_SEARCH_INDEX) {
+			data = new HashMap<>();
+			bookSearchIndex.result r = bookSearchIndex.search(search, author, category, offset, limit, "relevance".equalsIgnoreCase(sort));
+			data.put("items", getBooksByIds(r.bookIds));
+			if (pagedQuery.NONE.equals(pagedQuery.normalizeMode(totalMode))) data.put("hasMore", offset + r.bookIds.size() < r.total);
+			else data.put("total", r.total);
+		} else {
+			List<Object> params = new ArrayList<>();
+			StringBuilder from = new StringBuilder("FROM bookInformation WHERE 1=1");
+			if (search != null && !search.isBlank()) {
+				from.append(" AND (bookName LIKE ? OR isbn LIKE ? OR bookAuthor LIKE ?)");
+				String s = "%" + search + "%";
+				params.add(s);
+				params.add(s);
+				params.add(s);
+			}
+			if (author != null && !author.isBlank()) {
+				from.append(" AND bookAuthor LIKE ?");
+				params.add("%" + author + "%");
+			}
+			if (category != null && !category.isBlank()) {
+				from.append(" AND bookCategory = ?");
+				params.add(category);
+			}
+			data = pagedQuery.fetch("*", from.toString(), from.toString(), params, "", offset, limit, totalMode,
+					pagedQuery.cacheKey("books", search, author, category), bookService::mapRowToBook);
+		}
+		return data;
+	}
+
+	/**
+	 * 可借图书分页：数据和总数一次往返取回（见 pagedQuery）。
+	 */
+	public static Map<String, Object> getVacantBooksPage(int offset, int limit, String totalMode) throws SQLException {
+		String from = "FROM bookInformation WHERE bookAvailableCopies > 0";
+		return pagedQuery.fetch("*", from, from, new ArrayList<>(), "", offset, limit, totalMode,
+				pagedQuery.cacheKey("vacant"), bookService::mapRowToBook);
+	}
+
+	/**
+	 * 图书检索的游标分页。按 bookId 排序时游标为上一页最后的 bookId，按相关度排序时另含其得分。
+	 * @return 包含 items、total 和 nextCursor（没有下一页时为 null）的 Map
+	 */
+	public static Map<String, Object> searchBooksAfter(String cursor, int limit, String search, String author, String category, String sort) throws SQLException {
+		return searchBooksAfter(cursor, limit, search, author, category, sort, pagedQuery.EXACT);
+	}
+
+	public static Map<String, Object> searchBooksAfter(String cursor, int limit, String search, String author, String category, String sort, String totalMode) throws SQLException {
+		boolean withTotal = !pagedQuery.NONE.equals(pagedQuery.normalizeMode(totalMode));
+		boolean byRelevance = "relevance".equalsIgnoreCase(sort);
+		Map<String, Object> data = new HashMap<>();
+		List<bookInformation> items;
+		if (USE_SEARCH_INDEX) {
+			String[] after = pageCursor.decode(cursor, 2);
+			int afterScore = 0;
+			if (after != null) {
+				try {
+					afterScore = Integer.parseInt(after[1]);
+				} catch (NumberFormatException e) {
+					throw new IllegalArgumentException("Invalid cursor");
+				}
+			}
+			bookSearchIndex.result r = bookSearchIndex.searchAfter(search, author, category, after == null ? null : after[0], afterScore, limit, byRelevance);
+			items = getBooksByIds(r.bookIds);
+			if (withTotal) data.put("total", r.total);
+			data.put("nextCursor", r.bookIds.size() == limit && limit > 0
+					? pageCursor.encode(r.bookIds.get(r.bookIds.size() - 1), String.valueOf(r.lastScore)) : null);
+		} else {
+			// SQL 回退路径只支持按 bookId 排序
+			String[] after = pageCursor.decode(cursor, 2);
+			items = new ArrayList<>();
+			StringBuilder sql = new StringBuilder("SELECT * FROM bookInformation WHERE 1=1");
+			if (search != null && !search.isBlank()) sql.append(" AND (bookName LIKE ? OR isbn LIKE ? OR bookAuthor LIKE ?)");
+			if (author != null && !author.isBlank()) sql.append(" AND bookAuthor LIKE ?");
+			if (category != null && !category.isBlank()) sql.append(" AND bookCategory = ?");
+			if (after != null) sql.append(" AND bookId > ?");
+			sql.append(" ORDER BY bookId LIMIT ?");
+			try (Connection c = db.getConnection(); PreparedStatement ps = c.prepareStatement(sql.toString())) {
+				int idx = 1;
+				if (search != null && !search.isBlank()) {
+					String s = "%" + search + "%";
+					ps.setString(idx++, s);
+					ps.setString(idx++, s);
+					ps.setString(idx++, s);
+				}
+				if (author != null && !author.isBlank()) ps.setString(idx++, "%" + author + "%");
+				if (category != null && !category.isBlank()) ps.setString(idx++, category);
+				if (after != null) ps.setString(idx++, after[0]);
+				ps.setInt(idx, limit);
+				try (ResultSet rs = ps.executeQuery()) {
+					while (rs.next()) items.add(mapRowToBook(rs));
+				}
+			}
+			if (withTotal) data.put("total", countBooks(search, author, category));
+			data.put("nextCursor", items.size() == limit && limit > 0
+					? pageCursor.encode(items.get(items.size() - 1).getBookId(), "0") : null);
+		}
+		data.put("items", items);
+		return data;
+	}
+
 	public static List<bookInformation> listBooks(int offset, int limit, String search, String author, String category) throws SQLException {
+		if (USE_SEARCH_INDEX) {
+			return getBooksByIds(bookSearchIndex.search(search, author, category, offset, limit, false).bookIds);
+		}
 		List<bookInformation> list = new ArrayList<>();
 		StringBuilder sql = new StringBuilder("SELECT * FROM bookInformation WHERE 1=1");
 			if (search != null && !search.isBlank()) sql.append(" AND (bookName LIKE ? OR isbn LIKE ? OR bookAuthor LIKE ?)");
@@ -46,12 +170,54 @@ public class bookService {
 		return list;
 	}
 
+	/**
+	 * 按给定顺序批量取图书：先查目录缓存，未命中的用一条 IN 查询补齐。
+	 */
+	static List<bookInformation> getBooksByIds(List<String> bookIds) throws SQLException {
+		Map<String, bookInformation> found = new HashMap<>();
+		List<String> missing = new ArrayList<>();
+		for (String id : bookIds) {
+			bookInformation b = catalogCache.getById(id);
+			if (b != null) found.put(id, b); else missing.add(id);
+		}
+		if (!missing.isEmpty()) {
+			long gen = catalogCache.generation();
+			StringBuilder sql = new StringBuilder("SELECT * FROM bookInformation WHERE bookId IN (");
+			for (int i = 0; i < missing.size(); i++) sql.append(i == 0 ? "?" : ",?");
+			sql.append(")");
+			try (Connection c = db.getConnection(); PreparedStatement ps = c.prepareStatement(sql.toString())) {
+				int idx = 1;
+				for (String id : missing) ps.setString(idx++, id);
+				try (ResultSet rs = ps.executeQuery()) {
+					while (rs.next()) {
+						bookInformation b = mapRowToBook(rs);
+						catalogCache.put(b, gen);
+						found.put(b.getBookId(), b);
+					}
+				}
+			}
+		}
+		List<bookInformation> list = new ArrayList<>(bookIds.size());
+		for (String id : bookIds) {
+			bookInformation b = found.get(id);
+			if (b != null) list.add(b);
+		}
+		return list;
+	}
+
 	public static bookInformation getBookById(String bookId) throws SQLException {
+		bookInformation cached = catalogCache.getById(bookId);
+		if (cached != null) return cached;
+		long gen = catalogCache.generation();
 		String sql = "SELECT * FROM bookInformation WHERE bookId = ?";
 		try (Connection c = db.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
 			ps.setString(1, bookId);
 			try (ResultSet rs = ps.executeQuery()) {
-				if (rs.next()) return mapRowToBook(rs);
+				if (rs.next()) {
+					bookInformation b = mapRowToBook(rs);
+					catalogCache.put(b, gen);
+					return b;
+				}
 			}
 		}
 		return null;
@@ -61,11 +227,18 @@ public class bookService {
 	 * Get book by ISBN
 	 */
 	public static bookInformation getBookByIsbn(String isbn) throws SQLException {
+		bookInformation cached = catalogCache.getByIsbn(isbn);
+		if (cached != null) return cached;
+		long gen = catalogCache.generation();
 		String sql = "SELECT * FROM bookInformation WHERE isbn = ?";
 		try (Connection c = db.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
 			ps.setString(1, isbn);
 			try (ResultSet rs = ps.executeQuery()) {
-				if (rs.next()) return mapRowToBook(rs);
+				if (rs.next()) {
+					bookInformation b = mapRowToBook(rs);
+					catalogCache.put(b, gen);
+					return b;
+				}
 			}
 		}
 		return null;
@@ -73,12 +246,16 @@ public class bookService {
 
 	public static boolean createBook(bookInformation b) throws SQLException {
 		String sql = "INSERT INTO bookInformation (bookId, isbn, bookName, bookAuthor, bookPublisher, bookPubDate, bookCategory, bookPrice, bookLocation, bookTotalCopies, bookAvailableCopies, borrowCount) VALUES (?,?,?,?,?,?,?,?,?,?,?,?)";
+		String bookId;
+		boolean ok;
 		try (Connection c = db.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
 			// Generate bookId if not provided
-			String bookId = b.getBookId();
+			bookId = b.getBookId();
 			if (bookId == null || bookId.trim().isEmpty()) {
 				bookId = generateBookId();
 				b.setBookId(bookId);
+			} else {
+				advanceBookIdPast(bookId);
 			}
 			
 			ps.setString(1, bookId);
@@ -94,44 +271,78 @@ public class bookService {
 			ps.setInt(10, b.getBookTotalCopies());
 			ps.setInt(11, b.getBookAvailableCopies());
 			ps.setInt(12, b.getBorrowCount());
-			return ps.executeUpdate() == 1;
+			ok = ps.executeUpdate() == 1;
 		}
+		// 连接归还后再重新索引（reindex 要另取一个连接，持有连接时再取可能耗尽连接池）
+		catalogCache.invalidateBookAndCategories(bookId);
+		bookSearchIndex.reindex(bookId);
+		if (ok) overviewCounters.bookCopiesChanged(b.getBookTotalCopies());
+		return ok;
 	}
 
 	public static boolean updateBook(bookInformation b) throws SQLException {
-		// First get the current book information to calculate stock changes
-		bookInformation currentBook = getBookById(b.getBookId());
-		if (currentBook == null) {
-			throw new SQLException("Book not found: " + b.getBookId());
-		}
-		
-		// Calculate the change in total copies
-		int totalCopiesChange = b.getBookTotalCopies() - currentBook.getBookTotalCopies();
-		
-		// Calculate new available copies based on the change
-		int newAvailableCopies = currentBook.getBookAvailableCopies() + totalCopiesChange;
-		// Ensure available copies don't go below 0
-		if (newAvailableCopies < 0) {
-			newAvailableCopies = 0;
-		}
-		
 		String sql = "UPDATE bookInformation SET isbn=?, bookName=?, bookAuthor=?, bookPublisher=?, bookPubDate=?, bookCategory=?, bookPrice=?, bookLocation=?, bookTotalCopies=?, bookAvailableCopies=?, borrowCount=? WHERE bookId=?";
-		try (Connection c = db.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
-			ps.setString(1, b.getIsbn());
-			ps.setString(2, b.getBookName());
-			ps.setString(3, b.getBookAuthor());
-			ps.setString(4, b.getBookPublisher());
-			LocalDate d = b.getBookPubDate();
-			if (d != null) ps.setDate(5, java.sql.Date.valueOf(d)); else ps.setDate(5, null);
-			ps.setString(6, b.getBookCategory());
-			ps.setInt(7, b.getBookPrice());
-			ps.setString(8, b.getBookLocation());
-			ps.setInt(9, b.getBookTotalCopies());
-			ps.setInt(10, newAvailableCopies); // Use calculated available copies
-			ps.setInt(11, b.getBorrowCount());
-			ps.setString(12, b.getBookId());
-			return ps.executeUpdate() == 1;
+		// 书名和分类冗余在借阅明细宽表中，与图书信息在同一事务内修改
+		boolean ok;
+		int totalCopiesChange;
+		try (Connection c = db.getConnection()) {
+			try {
+				c.setAutoCommit(false);
+				// 库存按数据库中的当前值计算（加锁读取，不用 catalogCache 中可能过期的副本）
+				int currentTotal;
+				int currentAvailable;
+				try (PreparedStatement ps = c.prepareStatement("SELECT bookTotalCopies, bookAvailableCopies FROM bookInformation WHERE bookId = ? FOR UPDATE")) {
+					ps.setString(1, b.getBookId());
+					try (ResultSet rs = ps.executeQuery()) {
+						if (!rs.next()) throw new SQLException("Book not found: " + b.getBookId());
+						currentTotal = rs.getInt(1);
+						currentAvailable = rs.getInt(2);
+					}
+				}
+				// Calculate the change in total copies
+				totalCopiesChange = b.getBookTotalCopies() - currentTotal;
+				// Calculate new available copies based on the change, never below 0
+				int newAvailableCopies = Math.max(0, currentAvailable + totalCopiesChange);
+
+				try (PreparedStatement ps = c.prepareStatement(sql)) {
+					ps.setString(1, b.getIsbn());
+					ps.setString(2, b.getBookName());
+					ps.setString(3, b.getBookAuthor());
+					ps.setString(4, b.getBookPublisher());
+					LocalDate d = b.getBookPubDate();
+					if (d != null) ps.setDate(5, java.sql.Date.valueOf(d)); else ps.setDate(5, null);
+					ps.setString(6, b.getBookCategory());
+					ps.setInt(7, b.getBookPrice());
+					ps.setString(8, b.getBookLocation());
+					ps.setInt(9, b.getBookTotalCopies());
+					ps.setInt(10, newAvailableCopies); // Use calculated available copies
+					ps.setInt(11, b.getBorrowCount());
+					ps.setString(12, b.getBookId());
+					ok = ps.executeUpdate() == 1;
+				}
+				if (ok) {
+					try (PreparedStatement pv = c.prepareStatement(circulationView.RENAME_BOOK)) {
+						pv.setString(1, b.getBookName());
+						pv.setString(2, b.getBookCategory());
+						pv.setString(3, b.getBookId());
+						pv.setString(4, b.getBookName());
+						pv.setString(5, b.getBookCategory());
+						pv.executeUpdate();
+					}
+				}
+				c.commit();
+			} catch (SQLException ex) {
+				c.rollback();
+				throw ex;
+			} finally {
+				c.setAutoCommit(true);
+			}
 		}
+		// 同 createBook：连接归还后再重新索引
+		catalogCache.invalidateBookAndCategories(b.getBookId());
+		bookSearchIndex.reindex(b.getBookId());
+		if (ok) overviewCounters.bookCopiesChanged(totalCopiesChange);
+		return ok;
 	}
 
 	public static boolean deleteBook(String bookId) throws SQLException {
@@ -148,10 +359,15 @@ public class bookService {
 		}
 		
 		// If no borrowing records, proceed with deletion
+		bookInformation existing = getBookById(bookId);
 		String sql = "DELETE FROM bookInformation WHERE bookId = ?";
 		try (Connection c = db.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
 			ps.setString(1, bookId);
-			return ps.executeUpdate() == 1;
+			boolean ok = ps.executeUpdate() == 1;
+			catalogCache.invalidateBookAndCategories(bookId);
+			bookSearchIndex.remove(bookId);
+			if (ok && existing != null) overviewCounters.bookCopiesChanged(-existing.getBookTotalCopies());
+			return ok;
 		}
 	}
 
@@ -166,20 +382,25 @@ public class bookService {
 			ps.setString(3, bookId);
 			ps.setInt(4, adjustment);
 			ps.setInt(5, adjustment);
-			return ps.executeUpdate() == 1;
+			boolean ok = ps.executeUpdate() == 1;
+			catalogCache.invalidate(bookId);
+			if (ok) overviewCounters.bookCopiesChanged(adjustment);
+			return ok;
 		}
 	}
 
 	public static List<bookInformation> getPopularBooks(int top) throws SQLException {
-		List<bookInformation> list = new ArrayList<>();
-		String sql = "SELECT bi.*, COUNT(bt.borrowId) AS borrowTimes FROM borrowTable bt JOIN bookInformation bi ON bt.bookId = bi.bookId GROUP BY bi.bookId ORDER BY borrowTimes DESC LIMIT ?";
-		try (Connection c = db.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
-			ps.setInt(1, top);
-			try (ResultSet rs = ps.executeQuery()) {
-				while (rs.next()) list.add(mapRowToBook(rs));
-			}
-		}
-		return list;
+		return getPopularBooks(top, 0);
+	}
+
+	/**
+	 * 热门图书（按借阅记录数降序），排行由 popularRanking 在内存中维护。
+	 * @param days 统计窗口：0 为全部，或 7 / 30 / 365 天
+	 */
+	public static List<bookInformation> getPopularBooks(int top, int days) throws SQLException {
+		List<String> ids = new ArrayList<>();
+		for (Map.Entry<String, Integer> e : popularRanking.top(top, days)) ids.add(e.getKey());
+		return getBooksByIds(ids);
 	}
 
 	public static List<bookInformation> getVacantBooks(int offset, int limit) throws SQLException {
@@ -212,6 +433,7 @@ public class bookService {
 	 * Return total count matching filters for pagination
 	 */
 		public static int countBooks(String search, String author, String category) throws SQLException {
+			if (USE_SEARCH_INDEX) return bookSearchIndex.search(search, author, category, 0, 0, false).total;
 			StringBuilder sql = new StringBuilder("SELECT COUNT(*) FROM bookInformation WHERE 1=1");
 				if (search != null && !search.isBlank()) sql.append(" AND (bookName LIKE ? OR isbn LIKE ? OR bookAuthor LIKE ?)");
 				if (author != null && !author.isBlank()) sql.append(" AND bookAuthor LIKE ?");
@@ -231,6 +453,14 @@ public class bookService {
 		return 0;
 	}
 
+	/**
+	 * 导出全部图书（按 bookId 顺序逐行写给 sink）。
+	 * @return 写出的行数
+	 */
+	public static int exportBooks(pagedQuery.rowSink<? super bookInformation> sink) throws SQLException, java.io.IOException {
+		return pagedQuery.stream("SELECT * FROM bookInformation ORDER BY bookId", new ArrayList<>(), bookService::mapRowToBook, sink);
+	}
+
 	private static bookInformation mapRowToBook(ResultSet rs) throws SQLException {
 		bookInformation b = new bookInformation();
 		b.setBookId(rs.getString("bookId"));
@@ -253,6 +483,9 @@ public class bookService {
 	 * 获取所有不重复的图书类别
 	 */
 	public static List<String> getCategories() throws SQLException {
+		List<String> cached = catalogCache.getCategories();
+		if (cached != null) return cached;
+		long gen = catalogCache.generation();
 		List<String> categories = new ArrayList<>();
 		String sql = "SELECT DISTINCT bookCategory FROM bookInformation WHERE bookCategory IS NOT NULL AND bookCategory != '' ORDER BY bookCategory";
 		try (Connection c = db.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
@@ -262,43 +495,38 @@ public class bookService {
 				}
 			}
 		}
+		catalogCache.putCategories(categories, gen);
 		return categories;
 	}
 
+	// 图书号序列（idSequence 中的名称），单条新增和批量导入共用
+	static final String BOOK_ID_SEQ = "bookInformation.bookId";
+
 	/**
 	 * Generate bookId in format: 41, 42, 43... (start from current max + 1)
-	 * Avoid duplicate entries by checking existing IDs
+	 * 序号由 sequenceAllocator 分配，不再每次扫描 MAX(bookId)，并发新增和批量导入之间不会重号。
 	 */
 	private static String generateBookId() throws SQLException {
-		// Get the maximum bookId from the database
-		String maxIdSql = "SELECT MAX(CAST(bookId AS UNSIGNED)) FROM bookInformation";
-		try (Connection conn = db.getConnection(); 
-			 PreparedStatement ps = conn.prepareStatement(maxIdSql)) {
-			try (ResultSet rs = ps.executeQuery()) {
-				if (rs.next()) {
-					int maxId = rs.getInt(1);
-					if (!rs.wasNull() && maxId > 0) {
-						// Start from current max + 1
-						int newId = maxId + 1;
-						
-						// Double check if this ID already exists (for safety)
-						String checkSql = "SELECT COUNT(*) FROM bookInformation WHERE bookId = ?";
-						try (PreparedStatement checkPs = conn.prepareStatement(checkSql)) {
-							checkPs.setString(1, String.valueOf(newId));
-							try (ResultSet checkRs = checkPs.executeQuery()) {
-								if (checkRs.next() && checkRs.getInt(1) > 0) {
-									// If ID exists, try next one
-									newId++;
-								}
-							}
-						}
-						return String.valueOf(newId);
-					}
-				}
-			}
-		}
-		// If no records exist or max is 0, start from 41 (since test data has 40 records)
-		return "41";
+		return String.valueOf(sequenceAllocator.reserveNumeric(BOOK_ID_SEQ, "bookInformation", "bookId", 41, 1, 0));
+	}
+
+	/**
+	 * 新增时自带纯数字图书号的，把序列推进到该编号之后，避免之后自动分配到相同编号。
+	 *
+	 * @throws IllegalArgumentException 编号距下一个序号超过 ID_SEQUENCE_MAX_ADVANCE，见 sequenceAllocator.reserveNumeric
+	 */
+	static void advanceBookIdPast(String bookId) throws SQLException {
+		long n = numericId(bookId);
+		if (n > 0) sequenceAllocator.reserveNumeric(BOOK_ID_SEQ, "bookInformation", "bookId", 41, 0, n + 1);
+	}
+
+	/**
+	 * 纯数字编号的数值，非纯数字（或过长）返回 -1。
+	 */
+	static long numericId(String id) {
+		if (id == null || id.isEmpty() || id.length() > 18) return -1;
+		for (int i = 0; i < id.length(); i++) if (!Character.isDigit(id.charAt(i))) return -1;
+		return Long.parseLong(id);
 	}
 
 }
\ No newline at end of file
@@ -1,20 +1,26 @@
 package service;
 
 import db.db;
+import db.sequenceAllocator;
 import entity.borrowTable;
 
 import java.sql.*;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * 借阅服务：包含创建借阅记录的事务示例，以及基本查询接口
  */
 public class borrowService {
 
+    // 每次向 idSequence 预留的借阅号个数
+    private static final int BORROW_ID_BLOCK_SIZE = db.intConfig("BORROW_ID_BLOCK_SIZE", 20);
+
     /**
      * 为单本图书创建借阅记录（事务）：
      * - 检查读者状态
@@ -22,11 +28,12 @@ public class borrowService {
      * - 检查读者是否超过最大借书限制
      * - 插入 borrowTable，更新 bookInformation.available 和 borrowCount
      * - 更新 readerInformation.nowBorrowNumber
+     * - 插入借阅明细宽表 circulationView
      * 返回生成的 borrowId（数据库自增），若失败抛出 SQLException
      */
     public static long createBorrowSingle(String bookId, String readerId, LocalDate borrowDate, LocalDate dueDate) throws SQLException {
-        String selectReader = "SELECT readerStatus, nowBorrowNumber, totalBorrowNumber FROM readerInformation WHERE readerId = ? FOR UPDATE";
-        String selectBook = "SELECT bookAvailableCopies, borrowCount FROM bookInformation WHERE bookId = ? FOR UPDATE";
+        String selectReader = "SELECT readerName, readerStatus, nowBorrowNumber, totalBorrowNumber FROM readerInformation WHERE readerId = ? FOR UPDATE";
+        String selectBook = "SELECT bookName, bookCategory, bookAvailableCopies, borrowCount FROM bookInformation WHERE bookId = ? FOR UPDATE";
         String insertBorrow = "INSERT INTO borrowTable (borrowId, bookId, readerId, borrowDate, dueDate, borrowStates) VALUES (?,?,?,?,?,?)";
         String updateBook = "UPDATE bookInformation SET bookAvailableCopies = bookAvailableCopies - 1, borrowCount = borrowCount + 1 WHERE bookId = ?";
         String updateReader = "UPDATE readerInformation SET nowBorrowNumber = nowBorrowNumber + 1 WHERE readerId = ?";
@@ -36,6 +43,7 @@ public class borrowService {
                 conn.setAutoCommit(false);
 
                 // check reader
+                String readerName;
                 int currentBorrowed = 0;
                 int maxBorrowLimit = 0;
                 try (PreparedStatement prs = conn.prepareStatement(selectReader)) {
@@ -44,6 +52,7 @@ public class borrowService {
                         if (!rs.next()) throw new SQLException("Reader not found: " + readerId);
                         int status = rs.getInt("readerStatus");
                         if (status != 0) throw new SQLException("Reader status invalid: " + status);
+                        readerName = rs.getString("readerName");
                         
                         // 获取当前借书数量和最大借书限制
                         currentBorrowed = rs.getInt("nowBorrowNumber");
@@ -57,12 +66,16 @@ public class borrowService {
                 }
 
                 // check book availability
+                String bookName;
+                String category;
                 try (PreparedStatement psb = conn.prepareStatement(selectBook)) {
                     psb.setString(1, bookId);
                     try (ResultSet rs = psb.executeQuery()) {
                         if (!rs.next()) throw new SQLException("Book not found: " + bookId);
                         int available = rs.getInt("bookAvailableCopies");
                         if (available < 1) throw new SQLException("No available copies for book: " + bookId);
+                        bookName = rs.getString("bookName");
+                        category = rs.getString("bookCategory");
                     }
                 }
 
@@ -81,6 +94,19 @@ public class borrowService {
                     borrowId = Long.parseLong(borrowIdStr); // Convert to long for return value
                 }
 
+                try (PreparedStatement piv = conn.prepareStatement(circulationView.INSERT)) {
+                    piv.setString(1, borrowIdStr);
+                    piv.setString(2, bookId);
+                    piv.setString(3, readerId);
+                    piv.setDate(4, java.sql.Date.valueOf(borrowDate));
+                    piv.setDate(5, java.sql.Date.valueOf(dueDate));
+                    piv.setInt(6, 0);
+                    piv.setString(7, bookName);
+                    piv.setString(8, readerName);
+                    piv.setString(9, category);
+                    piv.executeUpdate();
+                }
+
                 // update book
                 try (PreparedStatement ub = conn.prepareStatement(updateBook)) {
                     ub.setString(1, bookId);
@@ -94,6 +120,10 @@ public class borrowService {
                 }
 
                 conn.commit();
+                catalogCache.invalidate(bookId);
+                overviewCounters.borrowed(borrowDate, dueDate, 1);
+                overdueSweeper.noteDueDate(dueDate);
+                popularRanking.recordBorrows(Map.of(bookId, 1), borrowDate);
                 return borrowId;
             } catch (SQLException ex) {
                 conn.rollback();
@@ -116,266 +146,375 @@ public class borrowService {
     }
 
     /**
-     * 获取逾期未还列表（borrowStates = 2）
+     * 获取逾期未还列表（borrowStates = 2），只查借阅明细宽表 circulationView
      */
     public static List<borrowTable> getOverdueList(String readerName, String bookTitle, int offset, int limit) throws SQLException {
-        List<borrowTable> list = new ArrayList<>();
-        StringBuilder sql = new StringBuilder("SELECT bt.*, bi.bookName as bookTitle, ri.readerName, bi.bookCategory as category, rt.returnDate FROM borrowTable bt " +
-                     "LEFT JOIN bookInformation bi ON bt.bookId = bi.bookId " +
-                     "LEFT JOIN readerInformation ri ON bt.readerId = ri.readerId " +
-                     "LEFT JOIN returnTable rt ON bt.borrowId = rt.borrowId " +
-                     "WHERE bt.borrowStates = 2");
-        
-        if (readerName != null && !readerName.isBlank()) sql.append(" AND ri.readerName LIKE ?");
-        if (bookTitle != null && !bookTitle.isBlank()) sql.append(" AND bi.bookName LIKE ?");
-        
-        sql.append(" ORDER BY bt.dueDate ASC LIMIT ? OFFSET ?");
-        
-        try (Connection c = db.getConnection(); PreparedStatement ps = c.prepareStatement(sql.toString())) {
-            int idx = 1;
-            if (readerName != null && !readerName.isBlank()) {
-                ps.setString(idx++, "%" + readerName + "%");
-            }
-            if (bookTitle != null && !bookTitle.isBlank()) {
-                ps.setString(idx++, "%" + bookTitle + "%");
-            }
-            ps.setInt(idx++, limit);
-            ps.setInt(idx, offset);
-            try (ResultSet rs = ps.executeQuery()) {
-                while (rs.next()) list.add(mapRowToBorrowWithDetails(rs));
-            }
+        StringBuilder sql = new StringBuilder(OVERDUE_SELECT);
+        List<Object> params = new ArrayList<>();
+        appendOverdueFilters(sql, params, readerName, bookTitle);
+        sql.append(" ORDER BY cv.dueDate ASC LIMIT ? OFFSET ?");
+        params.add(limit);
+        params.add(offset);
+        return queryBorrowsWithDetails(sql.toString(), params);
+    }
+
+    /**
+     * 逾期列表的游标分页（按 dueDate, borrowId 升序 seek，走 idx_cv_states_due）。
+     * @return 包含 items 和 nextCursor（没有下一页时为 null）的 Map
+     */
+    public static Map<String, Object> getOverdueListAfter(String readerName, String bookTitle, String cursor, int limit) throws SQLException {
+        String[] after = pageCursor.decode(cursor, 2);
+        StringBuilder sql = new StringBuilder(OVERDUE_SELECT);
+        List<Object> params = new ArrayList<>();
+        appendOverdueFilters(sql, params, readerName, bookTitle);
+        if (after != null) {
+            java.sql.Date due = java.sql.Date.valueOf(after[0]);
+            sql.append(" AND (cv.dueDate > ? OR (cv.dueDate = ? AND cv.borrowId > ?))");
+            params.add(due);
+            params.add(due);
+            params.add(after[1]);
         }
-        return list;
+        sql.append(" ORDER BY cv.dueDate ASC, cv.borrowId ASC LIMIT ?");
+        params.add(limit);
+        List<borrowTable> items = queryBorrowsWithDetails(sql.toString(), params);
+        borrowTable last = items.size() == limit && limit > 0 ? items.get(items.size() - 1) : null;
+        Map<String, Object> data = new HashMap<>();
+        data.put("items", items);
+        data.put("nextCursor", last == null ? null : pageCursor.encode(String.valueOf(last.getDueDate()), last.getBorrowId()));
+        return data;
     }
 
     /**
      * 统计逾期未还记录总数（用于分页）
      */
     public static int countOverdue(String readerName, String bookTitle) throws SQLException {
-        StringBuilder sql = new StringBuilder("SELECT COUNT(*) FROM borrowTable bt " +
-                     "LEFT JOIN bookInformation bi ON bt.bookId = bi.bookId " +
-                     "LEFT JOIN readerInformation ri ON bt.readerId = ri.readerId " +
-                     "WHERE bt.borrowStates = 2");
-        
-        if (readerName != null && !readerName.isBlank()) sql.append(" AND ri.readerName LIKE ?");
-        if (bookTitle != null && !bookTitle.isBlank()) sql.append(" AND bi.bookName LIKE ?");
-        
-        try (Connection c = db.getConnection(); PreparedStatement ps = c.prepareStatement(sql.toString())) {
-            int idx = 1;
-            if (readerName != null && !readerName.isBlank()) {
-                ps.setString(idx++, "%" + readerName + "%");
-            }
-            if (bookTitle != null && !bookTitle.isBlank()) {
-                ps.setString(idx++, "%" + bookTitle + "%");
-            }
-            try (ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) return rs.getInt(1);
-            }
-        }
-        return 0;
+        StringBuilder sql = new StringBuilder("SELECT COUNT(*) " + OVERDUE_COUNT_FROM);
+        List<Object> params = new ArrayList<>();
+        appendOverdueFilters(sql, params, readerName, bookTitle);
+        return queryCount(sql.toString(), params);
     }
 
 	public static List<borrowTable> listBorrows(String readerId, Integer status, String bookTitle, String borrowDateFrom, String borrowDateTo, int offset, int limit) throws SQLException {
-		List<borrowTable> list = new ArrayList<>();
-		StringBuilder sql = new StringBuilder("SELECT bt.*, bi.bookName as bookTitle, ri.readerName, rt.returnDate FROM borrowTable bt LEFT JOIN bookInformation bi ON bt.bookId = bi.bookId LEFT JOIN readerInformation ri ON bt.readerId = ri.readerId LEFT JOIN returnTable rt ON bt.borrowId = rt.borrowId WHERE 1=1");
-		
-		// 修改：支持通过读者卡号或读者姓名搜索
-		if (readerId != null && !readerId.isBlank()) {
-			// 检查输入是否为数字（卡号）
-			if (readerId.matches("\\d+")) {
-				sql.append(" AND bt.readerId = ?");
-			} else {
-				// 如果不是数字，则按姓名模糊查询
-				sql.append(" AND ri.readerName LIKE ?");
-			}
-		}
-		
-		if (status != null) sql.append(" AND bt.borrowStates = ?");
-		if (bookTitle != null && !bookTitle.isBlank()) sql.append(" AND bi.bookName LIKE ?");
-		if (borrowDateFrom != null && !borrowDateFrom.isBlank()) sql.append(" AND bt.borrowDate >= ?");
-		if (borrowDateTo != null && !borrowDateTo.isBlank()) sql.append(" AND bt.borrowDate <= ?");
-		sql.append(" ORDER BY bt.borrowDate DESC LIMIT ? OFFSET ?");
-
-		try (Connection c = db.getConnection(); PreparedStatement ps = c.prepareStatement(sql.toString())) {
-			int idx = 1;
-			if (readerId != null && !readerId.isBlank()) {
-				if (readerId.matches("\\d+")) {
-					// 卡号精确匹配
-					ps.setString(idx++, readerId);
-				} else {
-					// 姓名模糊匹配
-					ps.setString(idx++, "%" + readerId + "%");
-				}
-			}
-			if (status != null) {
-				ps.setInt(idx++, status);
-			}
-			if (bookTitle != null && !bookTitle.isBlank()) {
-				ps.setString(idx++, "%" + bookTitle + "%");
-			}
-			if (borrowDateFrom != null && !borrowDateFrom.isBlank()) {
-				ps.setDate(idx++, java.sql.Date.valueOf(borrowDateFrom));
-			}
-			if (borrowDateTo != null && !borrowDateTo.isBlank()) {
-				ps.setDate(idx++, java.sql.Date.valueOf(borrowDateTo));
-			}
-			ps.setInt(idx++, limit);
-			ps.setInt(idx, offset);
-			try (ResultSet rs = ps.executeQuery()) {
-				while (rs.next()) list.add(mapRowToBorrowWithDetails(rs));
-			}
+		StringBuilder sql = new StringBuilder(BORROW_SELECT);
+		List<Object> params = new ArrayList<>();
+		appendBorrowFilters(sql, params, readerId, status, bookTitle, borrowDateFrom, borrowDateTo);
+		sql.append(" ORDER BY cv.borrowDate DESC LIMIT ? OFFSET ?");
+		params.add(limit);
+		params.add(offset);
+		return queryBorrowsWithDetails(sql.toString(), params);
+	}
+
+	/**
+	 * 与 listBorrows 相同的查询，但逐行写给 sink 而不是先收集成 List（用于大页和导出）。
+	 * @return 写出的行数
+	 */
+	public static int streamBorrows(String readerId, Integer status, String bookTitle, String borrowDateFrom, String borrowDateTo, int offset, int limit, pagedQuery.rowSink<? super borrowTable> sink) throws SQLException, java.io.IOException {
+		StringBuilder sql = new StringBuilder(BORROW_SELECT);
+		List<Object> params = new ArrayList<>();
+		appendBorrowFilters(sql, params, readerId, status, bookTitle, borrowDateFrom, borrowDateTo);
+		sql.append(" ORDER BY cv.borrowDate DESC LIMIT ? OFFSET ?");
+		params.add(limit);
+		params.add(offset);
+		return pagedQuery.stream(sql.toString(), params, borrowService::mapRowToBorrowWithDetails, sink);
+	}
+
+	/**
+	 * 导出借阅历史（含书名、读者姓名和归还日期），按 borrowDate, borrowId 升序逐行写给 sink。
+	 * @param borrowDateFrom 起始借阅日期（含），为空表示不限
+	 * @param borrowDateTo   截止借阅日期（含），为空表示不限
+	 * @return 写出的行数
+	 */
+	public static int exportBorrows(String borrowDateFrom, String borrowDateTo, pagedQuery.rowSink<? super borrowTable> sink) throws SQLException, java.io.IOException {
+		StringBuilder sql = new StringBuilder(BORROW_SELECT);
+		List<Object> params = new ArrayList<>();
+		appendBorrowFilters(sql, params, null, null, null, borrowDateFrom, borrowDateTo);
+		sql.append(" ORDER BY cv.borrowDate, cv.borrowId");
+		return pagedQuery.stream(sql.toString(), params, borrowService::mapRowToBorrowWithDetails, sink);
+	}
+
+	/**
+	 * 借阅记录的游标分页（按 borrowDate, borrowId 降序 seek，深页不再扫描 OFFSET 行）。
+	 * @return 包含 items 和 nextCursor（没有下一页时为 null）的 Map
+	 */
+	public static Map<String, Object> listBorrowsAfter(String readerId, Integer status, String bookTitle, String borrowDateFrom, String borrowDateTo, String cursor, int limit) throws SQLException {
+		String[] after = pageCursor.decode(cursor, 2);
+		StringBuilder sql = new StringBuilder(BORROW_SELECT);
+		List<Object> params = new ArrayList<>();
+		appendBorrowFilters(sql, params, readerId, status, bookTitle, borrowDateFrom, borrowDateTo);
+		if (after != null) {
+			java.sql.Date bd = java.sql.Date.valueOf(after[0]);
+			sql.append(" AND (cv.borrowDate < ? OR (cv.borrowDate = ? AND cv.borrowId < ?))");
+			params.add(bd);
+			params.add(bd);
+			params.add(after[1]);
 		}
-		return list;
+		sql.append(" ORDER BY cv.borrowDate DESC, cv.borrowId DESC LIMIT ?");
+		params.add(limit);
+		List<borrowTable> items = queryBorrowsWithDetails(sql.toString(), params);
+		borrowTable last = items.size() == limit && limit > 0 ? items.get(items.size() - 1) : null;
+		Map<String, Object> data = new HashMap<>();
+		data.put("items", items);
+		data.put("nextCursor", last == null ? null : pageCursor.encode(String.valueOf(last.getBorrowDate()), last.getBorrowId()));
+		return data;
 	}
 
     /**
      * Count total borrows matching filters for pagination
      */
     public static int countBorrows(String readerId, Integer status, String bookTitle, String borrowDateFrom, String borrowDateTo) throws SQLException {
-        StringBuilder sql = new StringBuilder("SELECT COUNT(*) FROM borrowTable bt LEFT JOIN bookInformation bi ON bt.bookId = bi.bookId LEFT JOIN readerInformation ri ON bt.readerId = ri.readerId WHERE 1=1");
-        
+        StringBuilder sql = new StringBuilder("SELECT COUNT(*) " + BORROW_COUNT_FROM);
+        List<Object> params = new ArrayList<>();
+        appendBorrowFilters(sql, params, readerId, status, bookTitle, borrowDateFrom, borrowDateTo);
+        return queryCount(sql.toString(), params);
+    }
+
+    // 列表查询只读借阅明细宽表（书名、读者姓名、分类、归还日期已冗余在行内），见 circulationView
+    private static final String OVERDUE_COLUMNS = "cv.*";
+    private static final String OVERDUE_FROM = "FROM circulationView cv WHERE cv.borrowStates = 2";
+    private static final String OVERDUE_COUNT_FROM = OVERDUE_FROM;
+    private static final String OVERDUE_SELECT = "SELECT " + OVERDUE_COLUMNS + " " + OVERDUE_FROM;
+
+    private static final String BORROW_COLUMNS = "cv.*";
+    private static final String BORROW_FROM = "FROM circulationView cv WHERE 1=1";
+    private static final String BORROW_COUNT_FROM = BORROW_FROM;
+    private static final String BORROW_SELECT = "SELECT " + BORROW_COLUMNS + " " + BORROW_FROM;
+
+    /**
+     * 借阅记录分页：数据和总数一次往返取回（见 pagedQuery）。
+     * @param totalMode exact / estimate / none
+     * @return 包含 items 和 total（none 模式为 hasMore）的 Map
+     */
+    public static Map<String, Object> listBorrowsPage(String readerId, Integer status, String bookTitle, String borrowDateFrom, String borrowDateTo, int offset, int limit, String totalMode) throws SQLException {
+        StringBuilder filters = new StringBuilder();
+        List<Object> params = new ArrayList<>();
+        appendBorrowFilters(filters, params, readerId, status, bookTitle, borrowDateFrom, borrowDateTo);
+        return pagedQuery.fetch(BORROW_COLUMNS, BORROW_FROM + filters, BORROW_COUNT_FROM + filters, params,
+                "ORDER BY cv.borrowDate DESC", offset, limit, totalMode,
+                pagedQuery.cacheKey("borrows", readerId, status, bookTitle, borrowDateFrom, borrowDateTo),
+                borrowService::mapRowToBorrowWithDetails);
+    }
+
+    /**
+     * 按 totalMode 统计借阅记录总数（游标分页使用），none 模式返回 null。
+     */
+    public static Integer countBorrows(String readerId, Integer status, String bookTitle, String borrowDateFrom, String borrowDateTo, String totalMode) throws SQLException {
+        StringBuilder filters = new StringBuilder();
+        List<Object> params = new ArrayList<>();
+        appendBorrowFilters(filters, params, readerId, status, bookTitle, borrowDateFrom, borrowDateTo);
+        return pagedQuery.total(BORROW_COUNT_FROM + filters, params, totalMode,
+                pagedQuery.cacheKey("borrows", readerId, status, bookTitle, borrowDateFrom, borrowDateTo));
+    }
+
+    /**
+     * 逾期列表分页：数据和总数一次往返取回（见 pagedQuery）。
+     * @param totalMode exact / estimate / none
+     * @return 包含 items 和 total（none 模式为 hasMore）的 Map
+     */
+    public static Map<String, Object> getOverdueListPage(String readerName, String bookTitle, int offset, int limit, String totalMode) throws SQLException {
+        StringBuilder filters = new StringBuilder();
+        List<Object> params = new ArrayList<>();
+        appendOverdueFilters(filters, params, readerName, bookTitle);
+        return pagedQuery.fetch(OVERDUE_COLUMNS, OVERDUE_FROM + filters, OVERDUE_COUNT_FROM + filters, params,
+                "ORDER BY cv.dueDate ASC", offset, limit, totalMode,
+                pagedQuery.cacheKey("overdue", readerName, bookTitle),
+                borrowService::mapRowToBorrowWithDetails);
+    }
+
+    /**
+     * 按 totalMode 统计逾期记录总数（游标分页使用），none 模式返回 null。
+     */
+    public static Integer countOverdue(String readerName, String bookTitle, String totalMode) throws SQLException {
+        StringBuilder filters = new StringBuilder();
+        List<Object> params = new ArrayList<>();
+        appendOverdueFilters(filters, params, readerName, bookTitle);
+        return pagedQuery.total(OVERDUE_COUNT_FROM + filters, params, totalMode, pagedQuery.cacheKey("overdue", readerName, bookTitle));
+    }
+
+    private static void appendOverdueFilters(StringBuilder sql, List<Object> params, String readerName, String bookTitle) {
+        if (readerName != null && !readerName.isBlank()) {
+            sql.append(" AND cv.readerName LIKE ?");
+            params.add("%" + readerName + "%");
+        }
+        if (bookTitle != null && !bookTitle.isBlank()) {
+            sql.append(" AND cv.bookTitle LIKE ?");
+            params.add("%" + bookTitle + "%");
+        }
+    }
+
+    private static void appendBorrowFilters(StringBuilder sql, List<Object> params, String readerId, Integer status, String bookTitle, String borrowDateFrom, String borrowDateTo) {
         // 修改：支持通过读者卡号或读者姓名搜索
         if (readerId != null && !readerId.isBlank()) {
             // 检查输入是否为数字（卡号）
             if (readerId.matches("\\d+")) {
-                sql.append(" AND bt.readerId = ?");
+                // 卡号精确匹配
+                sql.append(" AND cv.readerId = ?");
+                params.add(readerId);
             } else {
                 // 如果不是数字，则按姓名模糊查询
-                sql.append(" AND ri.readerName LIKE ?");
+                sql.append(" AND cv.readerName LIKE ?");
+                params.add("%" + readerId + "%");
             }
         }
-        
-        if (status != null) sql.append(" AND bt.borrowStates = ?");
-        if (bookTitle != null && !bookTitle.isBlank()) sql.append(" AND bi.bookName LIKE ?");
-        if (borrowDateFrom != null && !borrowDateFrom.isBlank()) sql.append(" AND bt.borrowDate >= ?");
-        if (borrowDateTo != null && !borrowDateTo.isBlank()) sql.append(" AND bt.borrowDate <= ?");
-        
-        try (Connection c = db.getConnection(); PreparedStatement ps = c.prepareStatement(sql.toString())) {
-            int idx = 1;
-            if (readerId != null && !readerId.isBlank()) {
-                if (readerId.matches("\\d+")) {
-                    // 卡号精确匹配
-                    ps.setString(idx++, readerId);
-                } else {
-                    // 姓名模糊匹配
-                    ps.setString(idx++, "%" + readerId + "%");
-                }
-            }
-            if (status != null) {
-                ps.setInt(idx++, status);
-            }
-            if (bookTitle != null && !bookTitle.isBlank()) {
-                ps.setString(idx++, "%" + bookTitle + "%");
-            }
-            if (borrowDateFrom != null && !borrowDateFrom.isBlank()) {
-                ps.setDate(idx++, java.sql.Date.valueOf(borrowDateFrom));
-            }
-            if (borrowDateTo != null && !borrowDateTo.isBlank()) {
-                ps.setDate(idx++, java.sql.Date.valueOf(borrowDateTo));
+        if (status != null) {
+            sql.append(" AND cv.borrowStates = ?");
+            params.add(status);
+        }
+        if (bookTitle != null && !bookTitle.isBlank()) {
+            sql.append(" AND cv.bookTitle LIKE ?");
+            params.add("%" + bookTitle + "%");
+        }
+        if (borrowDateFrom != null && !borrowDateFrom.isBlank()) {
+            sql.append(" AND cv.borrowDate >= ?");
+            params.add(java.sql.Date.valueOf(borrowDateFrom));
+        }
+        if (borrowDateTo != null && !borrowDateTo.isBlank()) {
+            sql.append(" AND cv.borrowDate <= ?");
+            params.add(java.sql.Date.valueOf(borrowDateTo));
+        }
+    }
+
+    private static List<borrowTable> queryBorrowsWithDetails(String sql, List<Object> params) throws SQLException {
+        List<borrowTable> list = new ArrayList<>();
+        try (Connection c = db.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
+            pagedQuery.bind(ps, params);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) list.add(mapRowToBorrowWithDetails(rs));
             }
+        }
+        return list;
+    }
+
+    private static int queryCount(String sql, List<Object> params) throws SQLException {
+        try (Connection c = db.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
+            pagedQuery.bind(ps, params);
             try (ResultSet rs = ps.executeQuery()) { if (rs.next()) return rs.getInt(1); }
         }
         return 0;
     }
 
     /**
-     * Batch create borrow records given a list of bookIds. This implementation loops and calls createBorrowSingle
-     * inside a transaction to provide atomic behavior. It returns an array of created borrowIds or throws SQLException on failure.
+     * Batch create borrow records given a list of bookIds, all inside one transaction.
+     * 同一条 INSERT/UPDATE 语句只 prepare 一次，借阅记录通过 addBatch/executeBatch 一次提交；
+     * 同一本书借多册时库存只更新一次（bookAvailableCopies - N）。
+     * It returns the created borrowIds in request order or throws SQLException on failure.
      */
     public static List<Long> createBorrowBatch(List<String> bookIds, String readerId, LocalDate borrowDate, LocalDate dueDate, Map<String, Integer> bookCounts) throws SQLException {
+        String selectReader = "SELECT readerName, readerStatus, nowBorrowNumber, totalBorrowNumber FROM readerInformation WHERE readerId = ? FOR UPDATE";
+        String selectBook = "SELECT bookName, bookCategory, bookAvailableCopies FROM bookInformation WHERE bookId = ? FOR UPDATE";
+        String insertBorrow = "INSERT INTO borrowTable (borrowId, bookId, readerId, borrowDate, dueDate, borrowStates) VALUES (?,?,?,?,?,?)";
+        String updateBook = "UPDATE bookInformation SET bookAvailableCopies = bookAvailableCopies - ?, borrowCount = borrowCount + ? WHERE bookId = ?";
+        String updateReader = "UPDATE readerInformation SET nowBorrowNumber = nowBorrowNumber + ? WHERE readerId = ?";
+
+        // 每本书本次借阅的总册数（保持请求中的顺序）
+        Map<String, Integer> perBook = new LinkedHashMap<>();
+        for (String bookId : bookIds) {
+            perBook.merge(bookId, bookCounts.getOrDefault(bookId, 1), Integer::sum);
+        }
+        int totalBorrowCount = 0;
+        for (int n : perBook.values()) totalBorrowCount += n;
+
         try (Connection conn = db.getConnection()) {
             try {
                 conn.setAutoCommit(false);
-                List<Long> created = new ArrayList<>();
-                
+
                 // 先检查读者是否超过最大借书限制
-                String selectReader = "SELECT readerStatus, nowBorrowNumber, totalBorrowNumber FROM readerInformation WHERE readerId = ? FOR UPDATE";
-                int currentBorrowed = 0;
-                int maxBorrowLimit = 0;
-                
+                String readerName;
+                int currentBorrowed;
+                int maxBorrowLimit;
                 try (PreparedStatement prs = conn.prepareStatement(selectReader)) {
                     prs.setString(1, readerId);
                     try (ResultSet rs = prs.executeQuery()) {
                         if (!rs.next()) throw new SQLException("Reader not found: " + readerId);
                         int status = rs.getInt("readerStatus");
                         if (status != 0) throw new SQLException("Reader status invalid: " + status);
-                        
+                        readerName = rs.getString("readerName");
+
                         // 获取当前借书数量和最大借书限制
                         currentBorrowed = rs.getInt("nowBorrowNumber");
                         maxBorrowLimit = rs.getInt("totalBorrowNumber");
                     }
                 }
-                
-                // 计算本次借阅的总数量（考虑每本书的借阅数量）
-                int totalBorrowCount = 0;
-                for (String bookId : bookIds) {
-                    int count = bookCounts.getOrDefault(bookId, 1);
-                    totalBorrowCount += count;
-                }
-                
+
                 // 检查是否超过最大借书限制
                 if (currentBorrowed + totalBorrowCount > maxBorrowLimit) {
                     throw new SQLException("借书数量将超过上限，当前已借 " + currentBorrowed + " 本，最大可借 " + maxBorrowLimit + " 本，本次尝试借阅 " + totalBorrowCount + " 本");
                 }
-                
-                // 处理每本书的借阅，考虑借阅数量
-                for (String bookId : bookIds) {
-                    int borrowCount = bookCounts.getOrDefault(bookId, 1);
-                    
-                    // 检查库存是否足够
-                    String selectBook = "SELECT bookAvailableCopies, borrowCount FROM bookInformation WHERE bookId = ? FOR UPDATE";
-                    int availableCopies = 0;
-                    
-                    try (PreparedStatement psb = conn.prepareStatement(selectBook)) {
+
+                // 检查库存是否足够（按 bookId 排序加锁，避免并发批量借阅之间死锁）
+                Map<String, String[]> bookInfo = new HashMap<>(); // bookId -> {bookName, bookCategory}
+                try (PreparedStatement psb = conn.prepareStatement(selectBook)) {
+                    for (String bookId : new TreeMap<>(perBook).keySet()) {
+                        int borrowCount = perBook.get(bookId);
                         psb.setString(1, bookId);
                         try (ResultSet rs = psb.executeQuery()) {
                             if (!rs.next()) throw new SQLException("Book not found: " + bookId);
-                            availableCopies = rs.getInt("bookAvailableCopies");
+                            int availableCopies = rs.getInt("bookAvailableCopies");
                             if (availableCopies < borrowCount) {
                                 throw new SQLException("库存不足，书籍《" + rs.getString("bookName") + "》当前可借 " + availableCopies + " 本，尝试借阅 " + borrowCount + " 本");
                             }
+                            bookInfo.put(bookId, new String[]{rs.getString("bookName"), rs.getString("bookCategory")});
                         }
                     }
-                    
-                    // 为每本借阅的书籍创建借阅记录
-                    for (int i = 0; i < borrowCount; i++) {
-                        String insertBorrow = "INSERT INTO borrowTable (borrowId, bookId, readerId, borrowDate, dueDate, borrowStates) VALUES (?,?,?,?,?,?)";
-                        String updateBook = "UPDATE bookInformation SET bookAvailableCopies = bookAvailableCopies - 1, borrowCount = borrowCount + 1 WHERE bookId = ?";
-                        
-                        // Generate borrowId in format: yyyy + sequence number (4 digits)
-                        String borrowIdStr = generateBorrowId(borrowDate, conn);
-                        long borrowId;
-                        
-                        try (PreparedStatement pib = conn.prepareStatement(insertBorrow)) {
+                }
+
+                // 为每本借阅的书籍创建借阅记录和宽表行（各一次批量插入）
+                List<Long> created = new ArrayList<>(totalBorrowCount);
+                try (PreparedStatement pib = conn.prepareStatement(insertBorrow);
+                     PreparedStatement piv = conn.prepareStatement(circulationView.INSERT)) {
+                    java.sql.Date bd = java.sql.Date.valueOf(borrowDate);
+                    java.sql.Date dd = java.sql.Date.valueOf(dueDate);
+                    for (Map.Entry<String, Integer> e : perBook.entrySet()) {
+                        for (int i = 0; i < e.getValue(); i++) {
+                            // Generate borrowId in format: yyyy + sequence number (4 digits)
+                            String borrowIdStr = generateBorrowId(borrowDate);
                             pib.setString(1, borrowIdStr);
-                            pib.setString(2, bookId);
+                            pib.setString(2, e.getKey());
                             pib.setString(3, readerId);
-                            pib.setDate(4, java.sql.Date.valueOf(borrowDate));
-                            pib.setDate(5, java.sql.Date.valueOf(dueDate));
+                            pib.setDate(4, bd);
+                            pib.setDate(5, dd);
                             pib.setInt(6, 0);
-                            int rows = pib.executeUpdate();
-                            if (rows != 1) throw new SQLException("Insert borrow failed");
-                            borrowId = Long.parseLong(borrowIdStr); // Convert to long for return value
-                        }
-
-                        try (PreparedStatement ub = conn.prepareStatement(updateBook)) {
-                            ub.setString(1, bookId);
-                            ub.executeUpdate();
+                            pib.addBatch();
+                            String[] info = bookInfo.get(e.getKey());
+                            piv.setString(1, borrowIdStr);
+                            piv.setString(2, e.getKey());
+                            piv.setString(3, readerId);
+                            piv.setDate(4, bd);
+                            piv.setDate(5, dd);
+                            piv.setInt(6, 0);
+                            piv.setString(7, info[0]);
+                            piv.setString(8, readerName);
+                            piv.setString(9, info[1]);
+                            piv.addBatch();
+                            created.add(Long.parseLong(borrowIdStr)); // Convert to long for return value
                         }
+                    }
+                    checkBatch(pib.executeBatch(), "Insert borrow failed");
+                    checkBatch(piv.executeBatch(), "Insert circulation view failed");
+                }
 
-                        created.add(borrowId);
+                // 每本书只更新一次库存和借阅次数
+                try (PreparedStatement ub = conn.prepareStatement(updateBook)) {
+                    for (Map.Entry<String, Integer> e : perBook.entrySet()) {
+                        ub.setInt(1, e.getValue());
+                        ub.setInt(2, e.getValue());
+                        ub.setString(3, e.getKey());
+                        ub.addBatch();
                     }
+                    ub.executeBatch();
                 }
-                
+
                 // 更新读者当前借书数量
-                String updateReader = "UPDATE readerInformation SET nowBorrowNumber = nowBorrowNumber + ? WHERE readerId = ?";
                 try (PreparedStatement ur = conn.prepareStatement(updateReader)) {
                     ur.setInt(1, totalBorrowCount);
                     ur.setString(2, readerId);
                     ur.executeUpdate();
                 }
-                
+
                 conn.commit();
+                catalogCache.invalidateAll(perBook.keySet());
+                overviewCounters.borrowed(borrowDate, dueDate, created.size());
+                overdueSweeper.noteDueDate(dueDate);
+                popularRanking.recordBorrows(perBook, borrowDate);
                 return created;
             } catch (SQLException ex) {
                 conn.rollback();
@@ -386,6 +525,15 @@ public class borrowService {
         }
     }
 
+    /**
+     * 检查 executeBatch 的结果：每条语句应影响 1 行（开启 rewriteBatchedStatements 时驱动可能返回 SUCCESS_NO_INFO）。
+     */
+    static void checkBatch(int[] results, String message) throws SQLException {
+        for (int r : results) {
+            if (r != 1 && r != Statement.SUCCESS_NO_INFO) throw new SQLException(message);
+        }
+    }
+
     private static borrowTable mapRowToBorrow(ResultSet rs) throws SQLException {
         borrowTable b = new borrowTable();
         b.setBorrowId(rs.getString("borrowId"));
@@ -421,55 +569,28 @@ public class borrowService {
 
     /**
      * 刷新借阅状态：检查所有在借记录，将逾期未还的记录状态更新为逾期
+     * 状态通常已由 overdueSweeper 在后台定期更新，这里立即执行一次完整扫描（同样分块提交）。
      * @return 更新的记录数量
      */
     public static int refreshBorrowStatus() throws SQLException {
-        String updateSql = "UPDATE borrowTable SET borrowStates = 2 WHERE borrowStates = 0 AND dueDate < CURRENT_DATE()";
-        try (Connection c = db.getConnection(); PreparedStatement ps = c.prepareStatement(updateSql)) {
-            int updatedCount = ps.executeUpdate();
-            return updatedCount;
+        try {
+            return overdueSweeper.sweep(true);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Overdue sweep interrupted", e);
         }
     }
 
     /**
      * Generate borrowId in format: yyyy + sequence number (4 digits)
      * Example: 20230001
+     * 序号由 sequenceAllocator 按年份号段分配，并发事务和多实例之间不会重复。
      */
     private static String generateBorrowId(LocalDate borrowDate) throws SQLException {
-        return generateBorrowId(borrowDate, null);
-    }
-    
-    /**
-     * Generate borrowId with connection support for transaction safety
-     */
-    private static String generateBorrowId(LocalDate borrowDate, Connection conn) throws SQLException {
         String yearPart = borrowDate.format(java.time.format.DateTimeFormatter.ofPattern("yyyy"));
-        
-        // Count existing borrowIds for the same year to determine sequence number
-        String countSql = "SELECT COUNT(*) FROM borrowTable WHERE borrowId LIKE ?";
-        boolean closeConnection = false;
-        
-        if (conn == null) {
-            conn = db.getConnection();
-            closeConnection = true;
-        }
-        
-        try (PreparedStatement ps = conn.prepareStatement(countSql)) {
-            ps.setString(1, yearPart + "%");
-            try (ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) {
-                    int count = rs.getInt(1);
-                    // Format sequence number as 4 digits
-                    String sequence = String.format("%04d", count + 1);
-                    return yearPart + sequence;
-                }
-            }
-        } finally {
-            if (closeConnection && conn != null) {
-                conn.close();
-            }
-        }
-        return yearPart + "0001"; // Default if count fails
+        long seq = sequenceAllocator.next(yearPart, "borrowTable", "borrowId", yearPart, BORROW_ID_BLOCK_SIZE);
+        // Format sequence number as 4 digits
+        return yearPart + String.format("%04d", seq);
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,546 @@
+package service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import db.db;
+import db.sequenceAllocator;
+import entity.bookInformation;
+import entity.readerInformation;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 图书 / 读者批量导入。
+ * <p>
+ * - 输入按行流式读取：csv（首行为列名，可带 UTF-8 BOM）或 ndjson（每行一个 JSON 对象），
+ *   列名与 /api/export 的输出一致，导出的文件可以直接导回
+ * - 每行先校验（必填项、长度、数值范围、日期格式），不合格的行记录错误后跳过
+ * - 每 commitSize 行一个事务：缺少编号的行一次性从 sequenceAllocator 预留整段编号，
+ *   INSERT 通过 addBatch/executeBatch 提交（URL 开启 rewriteBatchedStatements 时驱动改写为多行 INSERT）
+ * - 某一批提交失败（如编号或证件号重复）时回滚该批并逐行重试，只有出错的行被记录，其余照常写入
+ * <p>
+ * HTTP 入口为 POST /api/import/{books|readers}，也可以命令行运行：
+ * java -cp ... service.bulkImport books books.csv [commitSize]
+ */
+public class bulkImport {
+
+    public static final int DEFAULT_COMMIT_SIZE = db.intConfig("IMPORT_COMMIT_SIZE", 500);
+    // 单个事务的行数上限：批次在内存中缓存，过大的事务也会长时间持有锁
+    public static final int MAX_COMMIT_SIZE = 5000;
+    // 结果中最多列出的错误行数，超过部分只计数
+    private static final int MAX_REPORTED_ERRORS = 1000;
+
+    private static final ObjectMapper json = new ObjectMapper();
+
+    /**
+     * 一种导入对象：校验字段、取/设编号、绑定 INSERT 参数、提交后更新缓存和计数。
+     */
+    private abstract static class target<T> {
+        abstract T parse(Map<String, String> f);
+        abstract String id(T row);
+        abstract void setId(T row, String id);
+        abstract long reserveIds(int count, long atLeast) throws SQLException;
+        abstract String insertSql();
+        abstract void bind(PreparedStatement ps, T row) throws SQLException;
+        abstract void committed(List<T> rows);
+    }
+
+    private static final target<bookInformation> BOOKS = new target<>() {
+        @Override
+        bookInformation parse(Map<String, String> f) {
+            bookInformation b = new bookInformation();
+            b.setBookId(text(f, "bookId", 20, false));
+            b.setIsbn(text(f, "isbn", 13, true));
+            b.setBookName(text(f, "bookName", 255, true));
+            b.setBookAuthor(text(f, "bookAuthor", 100, true));
+            b.setBookPublisher(text(f, "bookPublisher", 100, false));
+            b.setBookPubDate(date(f, "bookPubDate", null));
+            b.setBookCategory(text(f, "bookCategory", 50, false));
+            b.setBookLocation(text(f, "bookLocation", 50, true));
+            b.setBookPrice(integer(f, "bookPrice", null, 0));
+            int total = integer(f, "bookTotalCopies", 1, 1);
+            int available = integer(f, "bookAvailableCopies", total, 0);
+            if (available > total) throw new IllegalArgumentException("bookAvailableCopies 不能大于 bookTotalCopies");
+            b.setBookTotalCopies(total);
+            b.setBookAvailableCopies(available);
+            b.setBorrowCount(integer(f, "borrowCount", 0, 0));
+            return b;
+        }
+
+        @Override String id(bookInformation b) { return b.getBookId(); }
+        @Override void setId(bookInformation b, String id) { b.setBookId(id); }
+
+        @Override
+        long reserveIds(int count, long atLeast) throws SQLException {
+            return sequenceAllocator.reserveNumeric(bookService.BOOK_ID_SEQ, "bookInformation", "bookId", 41, count, atLeast);
+        }
+
+        @Override
+        String insertSql() {
+            return "INSERT INTO bookInformation (bookId, isbn, bookName, bookAuthor, bookPublisher, bookPubDate, bookCategory, bookPrice, bookLocation, bookTotalCopies, bookAvailableCopies, borrowCount) VALUES (?,?,?,?,?,?,?,?,?,?,?,?)";
+        }
+
+        @Override
+        void bind(PreparedStatement ps, bookInformation b) throws SQLException {
+            ps.setString(1, b.getBookId());
+            ps.setString(2, b.getIsbn());
+            ps.setString(3, b.getBookName());
+            ps.setString(4, b.getBookAuthor());
+            ps.setString(5, b.getBookPublisher());
+            ps.setDate(6, b.getBookPubDate() == null ? null : java.sql.Date.valueOf(b.getBookPubDate()));
+            ps.setString(7, b.getBookCategory());
+            ps.setInt(8, b.getBookPrice());
+            ps.setString(9, b.getBookLocation());
+            ps.setInt(10, b.getBookTotalCopies());
+            ps.setInt(11, b.getBookAvailableCopies());
+            ps.setInt(12, b.getBorrowCount());
+        }
+
+        @Override
+        void committed(List<bookInformation> rows) {
+            if (rows.isEmpty()) return;
+            int copies = 0;
+            for (bookInformation b : rows) copies += b.getBookTotalCopies();
+            overviewCounters.bookCopiesChanged(copies);
+            // 新书不在缓存中，只需失效分类列表；检索索引下次查询时整体重建
+            catalogCache.invalidateBookAndCategories(null);
+            bookSearchIndex.invalidate();
+        }
+    };
+
+    private static final target<readerInformation> READERS = new target<>() {
+        @Override
+        readerInformation parse(Map<String, String> f) {
+            readerInformation r = new readerInformation();
+            r.setReaderId(text(f, "readerId", 20, false));
+            r.setReaderName(text(f, "readerName", 50, true));
+            r.setReaderCardType(text(f, "readerCardType", 20, true));
+            r.setReaderCardNumber(text(f, "readerCardNumber", 30, true));
+            r.setReaderPhoneNumber(text(f, "readerPhoneNumber", 20, false));
+            r.setRegisterDate(date(f, "registerDate", LocalDate.now()));
+            r.setReaderStatus(integer(f, "readerStatus", 0, 0));
+            // 导出的 JSON 字段名为 maxBorrowNumber，数据库列名为 totalBorrowNumber，两者都接受
+            String max = f.containsKey("maxBorrowNumber") ? "maxBorrowNumber" : "totalBorrowNumber";
+            r.setMaxBorrowNumber(integer(f, max, 5, 0));
+            r.setNowBorrowNumber(integer(f, "nowBorrowNumber", 0, 0));
+            return r;
+        }
+
+        @Override String id(readerInformation r) { return r.getReaderId(); }
+        @Override void setId(readerInformation r, String id) { r.setReaderId(id); }
+
+        @Override
+        long reserveIds(int count, long atLeast) throws SQLException {
+            return sequenceAllocator.reserveNumeric(readerService.READER_ID_SEQ, "readerInformation", "readerId", 1001, count, atLeast);
+        }
+
+        @Override
+        String insertSql() {
+            return "INSERT INTO readerInformation (readerId, readerName, readerCardType, readerCardNumber, readerPhoneNumber, registerDate, readerStatus, totalBorrowNumber, nowBorrowNumber) VALUES (?,?,?,?,?,?,?,?,?)";
+        }
+
+        @Override
+        void bind(PreparedStatement ps, readerInformation r) throws SQLException {
+            ps.setString(1, r.getReaderId());
+            ps.setString(2, r.getReaderName());
+            ps.setString(3, r.getReaderCardType());
+            ps.setString(4, r.getReaderCardNumber());
+            ps.setString(5, r.getReaderPhoneNumber());
+            ps.setDate(6, java.sql.Date.valueOf(r.getRegisterDate()));
+            ps.setInt(7, r.getReaderStatus());
+            ps.setInt(8, r.getMaxBorrowNumber());
+            ps.setInt(9, r.getNowBorrowNumber());
+        }
+
+        @Override
+        void committed(List<readerInformation> rows) {
+            if (!rows.isEmpty()) overviewCounters.readersChanged(rows.size());
+        }
+    };
+
+    /**
+     * 导入图书。
+     *
+     * @param format     csv 或 ndjson
+     * @param commitSize 每个事务的行数（<= 0 时使用 IMPORT_COMMIT_SIZE，默认 500；超过 MAX_COMMIT_SIZE 时按 MAX_COMMIT_SIZE）
+     * @return total / inserted / failed / errors（[{line, message}]）/ elapsedMs
+     */
+    public static Map<String, Object> importBooks(InputStream in, String format, int commitSize) throws IOException {
+        return run(BOOKS, in, format, commitSize);
+    }
+
+    /**
+     * 导入读者，参数和返回值同 importBooks。
+     */
+    public static Map<String, Object> importReaders(InputStream in, String format, int commitSize) throws IOException {
+        return run(READERS, in, format, commitSize);
+    }
+
+    private static final class pending<T> {
+        final long line;
+        final T row;
+
+        pending(long line, T row) {
+            this.line = line;
+            this.row = row;
+        }
+    }
+
+    private static final class report {
+        long total;
+        long inserted;
+        long failed;
+        final List<Map<String, Object>> errors = new ArrayList<>();
+
+        void error(long line, String message) {
+            failed++;
+            if (errors.size() < MAX_REPORTED_ERRORS) {
+                Map<String, Object> e = new LinkedHashMap<>();
+                e.put("line", line);
+                e.put("message", message);
+                errors.add(e);
+            }
+        }
+    }
+
+    private static <T> Map<String, Object> run(target<T> target, InputStream in, String format, int commitSize) throws IOException {
+        long start = System.currentTimeMillis();
+        int size = Math.min(commitSize > 0 ? commitSize : DEFAULT_COMMIT_SIZE, MAX_COMMIT_SIZE);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        Iterator<inputRow> rows = "csv".equalsIgnoreCase(format) ? new csvRecords(reader) : new ndjsonRecords(reader);
+        report rep = new report();
+        List<pending<T>> chunk = new ArrayList<>(size);
+        while (rows.hasNext()) {
+            inputRow rec = rows.next();
+            rep.total++;
+            if (rec.error != null) {
+                rep.error(rec.line, rec.error);
+                continue;
+            }
+            try {
+                chunk.add(new pending<>(rec.line, target.parse(rec.fields)));
+            } catch (IllegalArgumentException e) {
+                rep.error(rec.line, e.getMessage());
+                continue;
+            }
+            if (chunk.size() >= size) {
+                flush(target, chunk, rep);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) flush(target, chunk, rep);
+
+        // 解析错误立即记录、写入错误在批次提交时记录，按行号排序后返回
+        rep.errors.sort((a, b) -> Long.compare((Long) a.get("line"), (Long) b.get("line")));
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("total", rep.total);
+        result.put("inserted", rep.inserted);
+        result.put("failed", rep.failed);
+        result.put("errors", rep.errors);
+        result.put("errorsTruncated", rep.failed > rep.errors.size());
+        result.put("elapsedMs", System.currentTimeMillis() - start);
+        return result;
+    }
+
+    /**
+     * 写入一批：分配编号 -> 批量 INSERT 一次提交；失败时回滚并逐行重试以定位出错的行。
+     */
+    private static <T> void flush(target<T> target, List<pending<T>> chunk, report rep) {
+        int missing = 0;
+        long maxExplicit = 0;
+        for (pending<T> p : chunk) {
+            if (target.id(p.row) == null) missing++;
+        }
+        try {
+            // 距下一个编号过远的自带编号无法跳过，之后会与自动分配的编号冲突，逐行报错
+            long seqNext = -1;
+            for (Iterator<pending<T>> it = chunk.iterator(); it.hasNext(); ) {
+                pending<T> p = it.next();
+                long n = bookService.numericId(target.id(p.row));
+                if (n <= 0) continue;
+                if (seqNext < 0) seqNext = target.reserveIds(0, 0);
+                if (!sequenceAllocator.withinAdvance(n, seqNext)) {
+                    rep.error(p.line, sequenceAllocator.tooFarMessage(n, seqNext));
+                    it.remove();
+                    continue;
+                }
+                maxExplicit = Math.max(maxExplicit, n);
+            }
+            if (chunk.isEmpty()) return;
+            // 同时把序列推进到本批自带编号之后，预留段不会与它们重叠
+            long next = target.reserveIds(missing, maxExplicit + 1);
+            for (pending<T> p : chunk) {
+                if (target.id(p.row) == null) target.setId(p.row, String.valueOf(next++));
+            }
+        } catch (SQLException | IllegalArgumentException e) {
+            for (pending<T> p : chunk) rep.error(p.line, "编号分配失败: " + e.getMessage());
+            return;
+        }
+
+        List<T> ok = new ArrayList<>(chunk.size());
+        // 已有结果（写入成功或已记入错误）的行数；行按 chunk 顺序处理，之后的行都还没有结果
+        int done = 0;
+        try (Connection c = db.getConnection(); PreparedStatement ps = c.prepareStatement(target.insertSql())) {
+            c.setAutoCommit(false);
+            try {
+                for (pending<T> p : chunk) {
+                    target.bind(ps, p.row);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                c.commit();
+                for (pending<T> p : chunk) ok.add(p.row);
+                done = chunk.size();
+            } catch (SQLException batchFailure) {
+                c.rollback();
+                ps.clearBatch();
+                for (pending<T> p : chunk) {
+                    try {
+                        target.bind(ps, p.row);
+                        ps.executeUpdate();
+                        c.commit();
+                        ok.add(p.row);
+                    } catch (SQLException e) {
+                        c.rollback();
+                        rep.error(p.line, e.getMessage());
+                    }
+                    done++;
+                }
+            } finally {
+                c.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            // 连接不可用：本批中还没有结果的行都记为失败（逐行重试中已记错的行不重复计数）
+            for (int i = done; i < chunk.size(); i++) rep.error(chunk.get(i).line, e.getMessage());
+        }
+        rep.inserted += ok.size();
+        target.committed(ok);
+    }
+
+    // ---- 字段校验 ----
+
+    private static String text(Map<String, String> f, String name, int maxLength, boolean required) {
+        String v = f.get(name);
+        if (v != null) v = v.trim();
+        if (v == null || v.isEmpty()) {
+            if (required) throw new IllegalArgumentException(name + " 不能为空");
+            return null;
+        }
+        if (v.length() > maxLength) throw new IllegalArgumentException(name + " 超过 " + maxLength + " 个字符");
+        return v;
+    }
+
+    private static int integer(Map<String, String> f, String name, Integer def, int min) {
+        String v = f.get(name);
+        if (v == null || v.isBlank()) {
+            if (def == null) throw new IllegalArgumentException(name + " 不能为空");
+            return def;
+        }
+        int n;
+        try {
+            n = Integer.parseInt(v.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " 不是整数: " + v);
+        }
+        if (n < min) throw new IllegalArgumentException(name + " 不能小于 " + min);
+        return n;
+    }
+
+    private static LocalDate date(Map<String, String> f, String name, LocalDate def) {
+        String v = f.get(name);
+        if (v == null || v.isBlank()) return def;
+        try {
+            return LocalDate.parse(v.trim());
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException(name + " 日期格式应为 yyyy-MM-dd: " + v);
+        }
+    }
+
+    // ---- 输入解析 ----
+
+    /**
+     * 一条输入记录：起始行号和字段（解析失败时 error 非空）。
+     */
+    private static final class inputRow {
+        final long line;
+        final Map<String, String> fields;
+        final String error;
+
+        inputRow(long line, Map<String, String> fields, String error) {
+            this.line = line;
+            this.fields = fields;
+            this.error = error;
+        }
+    }
+
+    private abstract static class recordIterator implements Iterator<inputRow> {
+        private inputRow next;
+        private boolean done;
+
+        abstract inputRow read() throws IOException;
+
+        @Override
+        public boolean hasNext() {
+            if (next == null && !done) {
+                try {
+                    next = read();
+                } catch (IOException e) {
+                    throw new java.io.UncheckedIOException(e);
+                }
+                if (next == null) done = true;
+            }
+            return next != null;
+        }
+
+        @Override
+        public inputRow next() {
+            if (!hasNext()) throw new java.util.NoSuchElementException();
+            inputRow r = next;
+            next = null;
+            return r;
+        }
+    }
+
+    private static final class ndjsonRecords extends recordIterator {
+        private final BufferedReader reader;
+        private long line = 0;
+
+        ndjsonRecords(BufferedReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        inputRow read() throws IOException {
+            String s;
+            while ((s = reader.readLine()) != null) {
+                line++;
+                if (line == 1 && s.startsWith("\uFEFF")) s = s.substring(1);
+                if (s.isBlank()) continue;
+                try {
+                    JsonNode node = json.readTree(s);
+                    if (!node.isObject()) return new inputRow(line, null, "不是 JSON 对象");
+                    Map<String, String> fields = new LinkedHashMap<>();
+                    node.fields().forEachRemaining(e -> fields.put(e.getKey(), e.getValue().isNull() ? null : e.getValue().asText()));
+                    return new inputRow(line, fields, null);
+                } catch (IOException e) {
+                    return new inputRow(line, null, "JSON 解析失败: " + e.getMessage());
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * RFC 4180 风格的 CSV：逗号分隔，双引号包裹的字段内可含逗号、换行，"" 表示一个双引号。
+     */
+    private static final class csvRecords extends recordIterator {
+        private final BufferedReader reader;
+        private long line = 0;
+        private List<String> header;
+
+        csvRecords(BufferedReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        inputRow read() throws IOException {
+            if (header == null) {
+                header = readFields();
+                if (header == null) return null;
+                if (!header.isEmpty() && header.get(0).startsWith("\uFEFF")) header.set(0, header.get(0).substring(1));
+            }
+            List<String> values;
+            long start;
+            do {
+                start = line + 1;
+                values = readFields();
+                if (values == null) return null;
+            } while (values.size() == 1 && values.get(0).isEmpty());
+            if (!values.isEmpty() && values.get(0).startsWith("#")) {
+                return new inputRow(start, null, "注释行或错误标记: " + values.get(0));
+            }
+            if (values.size() != header.size()) {
+                return new inputRow(start, null, "列数 " + values.size() + " 与表头 " + header.size() + " 不一致");
+            }
+            Map<String, String> fields = new LinkedHashMap<>();
+            for (int i = 0; i < header.size(); i++) fields.put(header.get(i).trim(), values.get(i));
+            return new inputRow(start, fields, null);
+        }
+
+        private List<String> readFields() throws IOException {
+            String s = reader.readLine();
+            if (s == null) return null;
+            line++;
+            List<String> out = new ArrayList<>();
+            StringBuilder cur = new StringBuilder();
+            boolean quoted = false;
+            int i = 0;
+            while (true) {
+                if (i >= s.length()) {
+                    if (!quoted) break;
+                    // 引号内换行：字段延续到下一行
+                    String more = reader.readLine();
+                    if (more == null) break;
+                    line++;
+                    cur.append('\n');
+                    s = more;
+                    i = 0;
+                    continue;
+                }
+                char ch = s.charAt(i++);
+                if (quoted) {
+                    if (ch == '"') {
+                        if (i < s.length() && s.charAt(i) == '"') { cur.append('"'); i++; }
+                        else quoted = false;
+                    } else {
+                        cur.append(ch);
+                    }
+                } else if (ch == '"') {
+                    quoted = true;
+                } else if (ch == ',') {
+                    out.add(cur.toString());
+                    cur.setLength(0);
+                } else {
+                    cur.append(ch);
+                }
+            }
+            out.add(cur.toString());
+            return out;
+        }
+    }
+
+    /**
+     * 命令行导入：bulkImport books|readers 文件 [commitSize]，格式按扩展名判断（.csv 为 csv，其余按 ndjson）。
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: bulkImport books|readers <file.csv|file.ndjson> [commitSize]");
+            System.exit(2);
+        }
+        String format = args[1].toLowerCase().endsWith(".csv") ? "csv" : "ndjson";
+        int commitSize = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_COMMIT_SIZE;
+        Map<String, Object> result;
+        try (InputStream in = new FileInputStream(args[1])) {
+            result = "readers".equalsIgnoreCase(args[0])
+                    ? importReaders(in, format, commitSize)
+                    : importBooks(in, format, commitSize);
+        }
+        System.out.println(json.writerWithDefaultPrettyPrinter().writeValueAsString(result));
+        System.exit(0);
+    }
+}
@@ -0,0 +1,235 @@
+package service;
+
+import db.db;
+import entity.bookInformation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 图书目录读缓存（按 bookId / isbn 查找，以及分类列表）。
+ * <p>
+ * - 容量上限 CATALOG_CACHE_SIZE，超出时按 LRU 淘汰
+ * - 每个条目 CATALOG_CACHE_TTL_MS 后过期，兜底处理绕过服务层直接改库的情况
+ * - bookService / borrowService / returnService 的写操作在提交后同步失效对应条目
+ * <p>
+ * 缓存中保存的是副本，取出时也返回副本，调用方修改返回对象（如 PUT /api/books/{id}）不会污染缓存。
+ * 加载前记录 generation，期间如有失效则不回填，避免把提交前读到的旧值写回缓存。
+ */
+public class catalogCache {
+
+    private static final int MAX_SIZE = db.intConfig("CATALOG_CACHE_SIZE", 1000);
+    private static final long TTL_MS = db.longConfig("CATALOG_CACHE_TTL_MS", 60000L);
+
+    private static final ReentrantLock lock = new ReentrantLock();
+    private static final Map<String, entry> byId = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, entry> eldest) {
+            if (size() > MAX_SIZE) {
+                String isbn = eldest.getValue().book.getIsbn();
+                if (isbn != null) isbnToId.remove(isbn);
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    };
+    private static final Map<String, String> isbnToId = new HashMap<>();
+    private static List<String> categories;
+    private static long categoriesLoadedAt;
+
+    private static final AtomicLong generation = new AtomicLong();
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong evictions = new AtomicLong();
+    private static final AtomicLong expirations = new AtomicLong();
+    private static final AtomicLong invalidations = new AtomicLong();
+
+    private static final class entry {
+        final bookInformation book;
+        final long loadedAt;
+
+        entry(bookInformation book, long loadedAt) {
+            this.book = book;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    /**
+     * 当前失效代数，加载数据前读取，回填时传回 put。
+     */
+    static long generation() {
+        return generation.get();
+    }
+
+    static bookInformation getById(String bookId) {
+        if (bookId == null || MAX_SIZE <= 0) return null;
+        lock.lock();
+        try {
+            entry e = byId.get(bookId);
+            if (e != null && System.currentTimeMillis() - e.loadedAt > TTL_MS) {
+                removeLocked(bookId);
+                expirations.incrementAndGet();
+                e = null;
+            }
+            if (e == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            hits.incrementAndGet();
+            return copyOf(e.book);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    static bookInformation getByIsbn(String isbn) {
+        if (isbn == null || MAX_SIZE <= 0) return null;
+        String bookId;
+        lock.lock();
+        try {
+            bookId = isbnToId.get(isbn);
+        } finally {
+            lock.unlock();
+        }
+        if (bookId == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        return getById(bookId);
+    }
+
+    static void put(bookInformation b, long loadGeneration) {
+        if (b == null || b.getBookId() == null || MAX_SIZE <= 0) return;
+        lock.lock();
+        try {
+            if (generation.get() != loadGeneration) return;
+            removeLocked(b.getBookId());
+            byId.put(b.getBookId(), new entry(copyOf(b), System.currentTimeMillis()));
+            if (b.getIsbn() != null) isbnToId.put(b.getIsbn(), b.getBookId());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    static List<String> getCategories() {
+        lock.lock();
+        try {
+            if (categories != null && System.currentTimeMillis() - categoriesLoadedAt <= TTL_MS) {
+                hits.incrementAndGet();
+                return new ArrayList<>(categories);
+            }
+            misses.incrementAndGet();
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    static void putCategories(List<String> list, long loadGeneration) {
+        lock.lock();
+        try {
+            if (generation.get() != loadGeneration) return;
+            categories = new ArrayList<>(list);
+            categoriesLoadedAt = System.currentTimeMillis();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 失效单本图书（库存、借阅次数等变化时调用）。
+     */
+    static void invalidate(String bookId) {
+        if (bookId == null) return;
+        lock.lock();
+        try {
+            generation.incrementAndGet();
+            if (removeLocked(bookId)) invalidations.incrementAndGet();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    static void invalidateAll(Iterable<String> bookIds) {
+        lock.lock();
+        try {
+            generation.incrementAndGet();
+            for (String bookId : bookIds) {
+                if (removeLocked(bookId)) invalidations.incrementAndGet();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 图书新增、修改、删除时调用：失效该书以及分类列表。
+     */
+    static void invalidateBookAndCategories(String bookId) {
+        lock.lock();
+        try {
+            generation.incrementAndGet();
+            if (bookId != null && removeLocked(bookId)) invalidations.incrementAndGet();
+            categories = null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static boolean removeLocked(String bookId) {
+        entry e = byId.remove(bookId);
+        if (e == null) return false;
+        String isbn = e.book.getIsbn();
+        if (isbn != null && bookId.equals(isbnToId.get(isbn))) isbnToId.remove(isbn);
+        return true;
+    }
+
+    static bookInformation copyOf(bookInformation b) {
+        return new bookInformation(b.getBookId(), b.getIsbn(), b.getBookName(), b.getBookAuthor(),
+                b.getBookPublisher(), b.getBookPubDate(), b.getBookCategory(), b.getBookPrice(),
+                b.getBookLocation(), b.getBookTotalCopies(), b.getBookAvailableCopies(), b.getBorrowCount());
+    }
+
+    private static final long STARTED_AT = System.currentTimeMillis();
+
+    /**
+     * 图书目录数据版本，用作 GET /api/books* 的 ETag：任何图书写操作都会使 generation 变化；
+     * 另外每个 TTL 周期自动换一个版本，与缓存条目的过期时间一致，兜底绕过服务层直接改库的情况。
+     */
+    public static String version() {
+        long bucket = TTL_MS > 0 ? System.currentTimeMillis() / TTL_MS : 0;
+        return Long.toString(STARTED_AT, 36) + "-" + generation.get() + "-" + bucket;
+    }
+
+    /**
+     * 缓存命中/未命中/淘汰计数。
+     */
+    public static Map<String, Object> getStats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        int size;
+        lock.lock();
+        try {
+            size = byId.size();
+        } finally {
+            lock.unlock();
+        }
+        long h = hits.get();
+        long mi = misses.get();
+        m.put("size", size);
+        m.put("maxSize", MAX_SIZE);
+        m.put("ttlMs", TTL_MS);
+        m.put("hits", h);
+        m.put("misses", mi);
+        m.put("hitRate", h + mi == 0 ? 0.0 : (double) h / (h + mi));
+        m.put("evictions", evictions.get());
+        m.put("expirations", expirations.get());
+        m.put("invalidations", invalidations.get());
+        return m;
+    }
+}
@@ -0,0 +1,246 @@
+package service;
+
+import db.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 借阅明细宽表 circulationView：每条借阅记录一行，冗余书名、分类、读者姓名和归还日期。
+ * <p>
+ * 借阅列表、逾期列表和读者借阅明细只查这一张表（按状态/应还日期/借阅日期/读者走各自的索引），
+ * 不再每页 JOIN bookInformation、readerInformation、returnTable，书名/姓名过滤也只在单表上进行。
+ * <p>
+ * 写入与业务数据在同一事务内完成：
+ * - borrowService 插入借阅记录时同时插入宽表行
+ * - returnService 归还时把状态改为 1 并写入 returnDate
+ * - overdueSweeper 把状态改为逾期（2）时同步修改
+ * - bookService / readerService 修改书名、分类、读者姓名时同步修改对应的行
+ * <p>
+ * 绕过服务层直接改库或导入历史数据造成的差异：启动时按 borrowId 分段修复一次
+ * （补齐缺失行、按源表改正不一致的列、删除源表中已不存在的行），
+ * 之后每 CIRCULATION_VIEW_RECONCILE_MS 只读统计一次差异行数，有差异时才再分段修复。
+ */
+public class circulationView {
+
+    private static final long RECONCILE_MS = db.longConfig("CIRCULATION_VIEW_RECONCILE_MS", 600000L);
+
+    // 借阅事务中使用（书名、分类、读者姓名取自同一事务中加锁读到的值）
+    static final String INSERT = "INSERT INTO circulationView (borrowId, bookId, readerId, borrowDate, dueDate, borrowStates, bookTitle, readerName, category) VALUES (?,?,?,?,?,?,?,?,?)";
+    static final String MARK_RETURNED = "UPDATE circulationView SET borrowStates = 1, returnDate = ? WHERE borrowId = ?";
+    static final String RENAME_BOOK = "UPDATE circulationView SET bookTitle = ?, category = ? WHERE bookId = ? AND NOT (bookTitle <=> ? AND category <=> ?)";
+    static final String RENAME_READER = "UPDATE circulationView SET readerName = ? WHERE readerId = ? AND NOT (readerName <=> ?)";
+
+    // 源表按 borrowId 关联的部分；修复语句在其后追加 borrowId 区间条件
+    private static final String SOURCE = "FROM borrowTable bt "
+            + "LEFT JOIN bookInformation bi ON bt.bookId = bi.bookId "
+            + "LEFT JOIN readerInformation ri ON bt.readerId = ri.readerId "
+            + "LEFT JOIN returnTable rt ON bt.borrowId = rt.borrowId";
+
+    private static final String DIFFERS = "NOT (cv.bookId <=> bt.bookId AND cv.readerId <=> bt.readerId AND cv.borrowDate <=> bt.borrowDate "
+            + "AND cv.dueDate <=> bt.dueDate AND cv.borrowStates <=> bt.borrowStates AND cv.bookTitle <=> bi.bookName "
+            + "AND cv.readerName <=> ri.readerName AND cv.category <=> bi.bookCategory AND cv.returnDate <=> rt.returnDate)";
+
+    // ---- 只读检查（一致性读，不加锁）----
+
+    private static final String COUNT_MISSING = "SELECT COUNT(*) FROM borrowTable bt WHERE NOT EXISTS (SELECT 1 FROM circulationView cv WHERE cv.borrowId = bt.borrowId)";
+    private static final String COUNT_DRIFTED = "SELECT COUNT(*) FROM circulationView cv JOIN borrowTable bt ON cv.borrowId = bt.borrowId "
+            + "LEFT JOIN bookInformation bi ON bt.bookId = bi.bookId "
+            + "LEFT JOIN readerInformation ri ON bt.readerId = ri.readerId "
+            + "LEFT JOIN returnTable rt ON bt.borrowId = rt.borrowId WHERE " + DIFFERS;
+    private static final String COUNT_ORPHANS = "SELECT COUNT(*) FROM circulationView cv WHERE NOT EXISTS (SELECT 1 FROM borrowTable bt WHERE bt.borrowId = cv.borrowId)";
+
+    // ---- 分段修复（每段 REPAIR_CHUNK 个 borrowId，区间 (lo, hi]，每段单独提交）----
+
+    private static final int REPAIR_CHUNK = db.intConfig("CIRCULATION_VIEW_REPAIR_CHUNK", 1000);
+
+    private static final String FILL_MISSING = "INSERT INTO circulationView (borrowId, bookId, readerId, borrowDate, dueDate, borrowStates, bookTitle, readerName, category, returnDate) "
+            + "SELECT bt.borrowId, bt.bookId, bt.readerId, bt.borrowDate, bt.dueDate, bt.borrowStates, bi.bookName, ri.readerName, bi.bookCategory, rt.returnDate "
+            + SOURCE + " WHERE bt.borrowId > ? AND bt.borrowId <= ? AND NOT EXISTS (SELECT 1 FROM circulationView cv WHERE cv.borrowId = bt.borrowId)";
+
+    private static final String FIX_DRIFT = "UPDATE circulationView cv JOIN borrowTable bt ON cv.borrowId = bt.borrowId "
+            + "LEFT JOIN bookInformation bi ON bt.bookId = bi.bookId "
+            + "LEFT JOIN readerInformation ri ON bt.readerId = ri.readerId "
+            + "LEFT JOIN returnTable rt ON bt.borrowId = rt.borrowId "
+            + "SET cv.bookId = bt.bookId, cv.readerId = bt.readerId, cv.borrowDate = bt.borrowDate, cv.dueDate = bt.dueDate, "
+            + "cv.borrowStates = bt.borrowStates, cv.bookTitle = bi.bookName, cv.readerName = ri.readerName, "
+            + "cv.category = bi.bookCategory, cv.returnDate = rt.returnDate "
+            + "WHERE cv.borrowId > ? AND cv.borrowId <= ? AND " + DIFFERS;
+
+    private static final String DROP_ORPHANS = "DELETE FROM circulationView WHERE borrowId > ? AND borrowId <= ? "
+            + "AND NOT EXISTS (SELECT 1 FROM borrowTable bt WHERE bt.borrowId = circulationView.borrowId)";
+
+    // 区间上界：从 lo 之后数第 REPAIR_CHUNK 个编号，不足一段时取最大编号
+    private static final String NEXT_BORROW_BOUND = "SELECT borrowId FROM borrowTable WHERE borrowId > ? ORDER BY borrowId LIMIT 1 OFFSET ?";
+    private static final String LAST_BORROW_ID = "SELECT MAX(borrowId) FROM borrowTable WHERE borrowId > ?";
+    private static final String NEXT_VIEW_BOUND = "SELECT borrowId FROM circulationView WHERE borrowId > ? ORDER BY borrowId LIMIT 1 OFFSET ?";
+    private static final String LAST_VIEW_ID = "SELECT MAX(borrowId) FROM circulationView WHERE borrowId > ?";
+
+    private static volatile long checkedAt = 0;
+    private static volatile long checkCount = 0;
+    private static volatile long lastCheckMs = 0;
+    private static volatile long lastDrift = 0;
+    private static volatile long repairedAt = 0;
+    private static volatile long lastRepaired = 0;
+    private static volatile long totalRepaired = 0;
+    private static volatile long lastRepairMs = 0;
+    private static volatile String lastError;
+    private static Thread reconciler;
+
+    private circulationView() {}
+
+    /**
+     * 启动时调用：建表，分段补齐/修正一次（旧库首次启动时即为回填），然后启动后台检查线程。
+     * 后台线程每 CIRCULATION_VIEW_RECONCILE_MS 只读检查一次，发现差异时才分段修复。
+     */
+    public static synchronized void start() {
+        try {
+            // 未执行 initDatabase 的旧库也能直接使用
+            try (Connection c = db.getConnection(); Statement st = c.createStatement()) {
+                st.executeUpdate(db.CREATE_CIRCULATION_VIEW);
+            }
+            repair();
+        } catch (SQLException e) {
+            lastError = e.getMessage();
+            System.err.println("Circulation view not reconciled: " + e.getMessage());
+        }
+        if (reconciler != null || RECONCILE_MS <= 0) return;
+        reconciler = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    Thread.sleep(RECONCILE_MS);
+                    reconcile();
+                } catch (InterruptedException e) {
+                    return;
+                } catch (SQLException e) {
+                    lastError = e.getMessage();
+                    System.err.println("Circulation view reconcile failed: " + e.getMessage());
+                }
+            }
+        }, "circulation-view-reconciler");
+        reconciler.setDaemon(true);
+        reconciler.start();
+    }
+
+    /**
+     * 只读检查一次，有差异时分段修复，返回修复的行数（无差异时为 0）。
+     */
+    public static synchronized long reconcile() throws SQLException {
+        return check() > 0 ? repair() : 0;
+    }
+
+    /**
+     * 只读检查：缺失行、列不一致的行和源表中已不存在的行的数量之和。只做一致性读，不锁任何行。
+     */
+    public static synchronized long check() throws SQLException {
+        long start = System.nanoTime();
+        long drift = 0;
+        try (Connection c = db.getConnection(); Statement st = c.createStatement()) {
+            drift += count(st, COUNT_MISSING);
+            drift += count(st, COUNT_DRIFTED);
+            drift += count(st, COUNT_ORPHANS);
+        }
+        lastCheckMs = (System.nanoTime() - start) / 1_000_000L;
+        lastDrift = drift;
+        checkCount++;
+        checkedAt = System.currentTimeMillis();
+        lastError = null;
+        return drift;
+    }
+
+    /**
+     * 按 borrowId 区间分段修复，返回补齐、改正和删除的行数之和。
+     * 每段单独提交，并在 READ COMMITTED 下执行：INSERT ... SELECT / UPDATE ... JOIN 不对源表加共享锁，
+     * 每次只锁住一段宽表行，不阻塞同时进行的借书、还书事务。
+     */
+    public static synchronized long repair() throws SQLException {
+        long start = System.nanoTime();
+        long repaired = 0;
+        try (Connection c = db.getConnection()) {
+            int isolation = c.getTransactionIsolation();
+            c.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+            try {
+                repaired += inChunks(c, NEXT_BORROW_BOUND, LAST_BORROW_ID, FILL_MISSING, FIX_DRIFT);
+                repaired += inChunks(c, NEXT_VIEW_BOUND, LAST_VIEW_ID, DROP_ORPHANS);
+            } finally {
+                // 连接池归还时不重置隔离级别
+                c.setTransactionIsolation(isolation);
+            }
+        }
+        lastRepairMs = (System.nanoTime() - start) / 1_000_000L;
+        lastRepaired = repaired;
+        totalRepaired += repaired;
+        repairedAt = System.currentTimeMillis();
+        lastError = null;
+        return repaired;
+    }
+
+    /**
+     * 以 (lo, hi] 区间依次对每段执行 statements（参数均为 lo, hi），每段一个事务。
+     */
+    private static long inChunks(Connection c, String nextBound, String lastId, String... statements) throws SQLException {
+        long changed = 0;
+        String lo = "";
+        while (true) {
+            String hi = bound(c, nextBound, lo, REPAIR_CHUNK - 1);
+            if (hi == null) hi = bound(c, lastId, lo, -1);
+            if (hi == null) return changed;
+            c.setAutoCommit(false);
+            try {
+                for (String sql : statements) {
+                    try (PreparedStatement ps = c.prepareStatement(sql)) {
+                        ps.setString(1, lo);
+                        ps.setString(2, hi);
+                        changed += ps.executeUpdate();
+                    }
+                }
+                c.commit();
+            } catch (SQLException e) {
+                c.rollback();
+                throw e;
+            } finally {
+                c.setAutoCommit(true);
+            }
+            lo = hi;
+        }
+    }
+
+    private static String bound(Connection c, String sql, String after, int offset) throws SQLException {
+        try (PreparedStatement ps = c.prepareStatement(sql)) {
+            ps.setString(1, after);
+            if (offset >= 0) ps.setInt(2, offset);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getString(1) : null;
+            }
+        }
+    }
+
+    private static long count(Statement st, String sql) throws SQLException {
+        try (ResultSet rs = st.executeQuery(sql)) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    /**
+     * 对账状态：上次检查的时间、耗时、差异行数，上次修复的时间、耗时、修复的行数。
+     */
+    public static Map<String, Object> getStats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("reconcileIntervalMs", RECONCILE_MS);
+        m.put("checkedAt", checkedAt);
+        m.put("checkCount", checkCount);
+        m.put("lastCheckMs", lastCheckMs);
+        m.put("lastDrift", lastDrift);
+        m.put("repairedAt", repairedAt);
+        m.put("lastRepairMs", lastRepairMs);
+        m.put("lastRepaired", lastRepaired);
+        m.put("totalRepaired", totalRepaired);
+        m.put("lastError", lastError);
+        return m;
+    }
+}
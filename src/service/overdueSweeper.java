@@ -0,0 +1,221 @@
+package service;
+
+import db.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 逾期状态后台扫描（代替手动 POST /api/borrow/refresh 触发的一次性全表 UPDATE）。
+ * <p>
+ * 每 OVERDUE_SWEEP_INTERVAL_MS 扫描一次，把 dueDate 早于今天且仍为借出状态（0）的记录改为逾期（2）：
+ * - 沿 idx_dueDate 按 (dueDate, borrowId) 键集分块读取，每块 OVERDUE_SWEEP_CHUNK 条，单独提交，
+ *   行锁只在一个块内持有；块之间暂停 OVERDUE_SWEEP_PAUSE_MS，避免挤占业务请求的连接和 IO
+ * - 记录高水位（此前已扫到的截止日期），之后的扫描只读取 [高水位, 今天) 之间新到期的记录；
+ *   借阅写入了早于高水位的应还日期时由 borrowService 调用 noteDueDate 回退高水位
+ * - 最近一次扫描的耗时、块数、改动行数等通过 getStats 暴露
+ */
+public class overdueSweeper {
+
+    private static final long INTERVAL_MS = db.longConfig("OVERDUE_SWEEP_INTERVAL_MS", 60000L);
+    private static final int CHUNK = Math.max(1, db.intConfig("OVERDUE_SWEEP_CHUNK", 500));
+    private static final long PAUSE_MS = db.longConfig("OVERDUE_SWEEP_PAUSE_MS", 50L);
+
+    private static final ReentrantLock runLock = new ReentrantLock();
+    // 早于该日期的借出记录都已处理；null 表示尚未完整扫描过
+    private static volatile LocalDate highWater;
+    // 本次扫描期间 noteDueDate 是否回退过高水位
+    private static boolean lowered;
+    private static Thread worker;
+
+    private static final AtomicLong runs = new AtomicLong();
+    private static final AtomicLong failures = new AtomicLong();
+    private static final AtomicLong totalFlipped = new AtomicLong();
+    private static volatile long lastRunAt;
+    private static volatile long lastRunMs;
+    private static volatile int lastFlipped;
+    private static volatile int lastChunks;
+    private static volatile String lastError;
+
+    /**
+     * 启动后台扫描线程（OVERDUE_SWEEP_INTERVAL_MS 为 0 时不启动，只能手动触发）。
+     */
+    public static synchronized void start() {
+        if (worker != null || INTERVAL_MS <= 0) return;
+        worker = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    sweep(false);
+                    Thread.sleep(INTERVAL_MS);
+                } catch (InterruptedException e) {
+                    return;
+                } catch (SQLException e) {
+                    System.err.println("Overdue sweep failed: " + e.getMessage());
+                    try {
+                        Thread.sleep(INTERVAL_MS);
+                    } catch (InterruptedException ie) {
+                        return;
+                    }
+                }
+            }
+        }, "overdue-sweeper");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * 执行一次扫描，返回改为逾期的记录数。
+     *
+     * @param full true 时忽略高水位，从最早的应还日期开始扫描（手动刷新使用）
+     */
+    public static int sweep(boolean full) throws SQLException, InterruptedException {
+        runLock.lock();
+        try {
+            LocalDate cutoff = LocalDate.now();
+            LocalDate from;
+            synchronized (overdueSweeper.class) {
+                from = full ? null : highWater;
+                lowered = false;
+            }
+            long start = System.nanoTime();
+            int flipped = 0;
+            int chunks = 0;
+            try {
+                LocalDate afterDue = null;
+                String afterId = null;
+                while (true) {
+                    List<String> ids = new ArrayList<>();
+                    LocalDate lastDue = null;
+                    try (Connection c = db.getConnection()) {
+                        c.setAutoCommit(false);
+                        try {
+                            try (PreparedStatement ps = selectChunk(c, from, cutoff, afterDue, afterId);
+                                 ResultSet rs = ps.executeQuery()) {
+                                while (rs.next()) {
+                                    ids.add(rs.getString(1));
+                                    lastDue = rs.getDate(2).toLocalDate();
+                                }
+                            }
+                            if (!ids.isEmpty()) flipped += flip(c, ids);
+                            c.commit();
+                        } catch (SQLException e) {
+                            c.rollback();
+                            throw e;
+                        } finally {
+                            c.setAutoCommit(true);
+                        }
+                    }
+                    if (ids.isEmpty()) break;
+                    chunks++;
+                    if (ids.size() < CHUNK) break;
+                    afterDue = lastDue;
+                    afterId = ids.get(ids.size() - 1);
+                    if (PAUSE_MS > 0) Thread.sleep(PAUSE_MS);
+                }
+            } catch (SQLException e) {
+                failures.incrementAndGet();
+                lastError = e.getMessage();
+                throw e;
+            } finally {
+                runs.incrementAndGet();
+                lastRunAt = System.currentTimeMillis();
+                lastRunMs = (System.nanoTime() - start) / 1_000_000L;
+                lastFlipped = flipped;
+                lastChunks = chunks;
+                totalFlipped.addAndGet(flipped);
+            }
+            // 只有完整扫完才前移高水位；期间有借阅写入更早的应还日期时 noteDueDate 已把它回退
+            synchronized (overdueSweeper.class) {
+                if (!lowered) highWater = cutoff;
+            }
+            lastError = null;
+            overviewCounters.markedOverdue(cutoff);
+            return flipped;
+        } finally {
+            runLock.unlock();
+        }
+    }
+
+    /**
+     * 新借阅写入后调用：应还日期早于高水位时回退高水位，保证下次扫描能覆盖到它。
+     */
+    static void noteDueDate(LocalDate dueDate) {
+        if (dueDate == null) return;
+        synchronized (overdueSweeper.class) {
+            if (highWater != null && dueDate.isBefore(highWater)) {
+                highWater = dueDate;
+                lowered = true;
+            }
+        }
+    }
+
+    private static PreparedStatement selectChunk(Connection c, LocalDate from, LocalDate cutoff, LocalDate afterDue, String afterId) throws SQLException {
+        StringBuilder sql = new StringBuilder("SELECT borrowId, dueDate FROM borrowTable WHERE dueDate < ?");
+        if (from != null) sql.append(" AND dueDate >= ?");
+        if (afterDue != null) sql.append(" AND (dueDate > ? OR (dueDate = ? AND borrowId > ?))");
+        sql.append(" AND borrowStates = 0 ORDER BY dueDate, borrowId LIMIT ? FOR UPDATE");
+        PreparedStatement ps = c.prepareStatement(sql.toString());
+        int idx = 1;
+        ps.setDate(idx++, java.sql.Date.valueOf(cutoff));
+        if (from != null) ps.setDate(idx++, java.sql.Date.valueOf(from));
+        if (afterDue != null) {
+            ps.setDate(idx++, java.sql.Date.valueOf(afterDue));
+            ps.setDate(idx++, java.sql.Date.valueOf(afterDue));
+            ps.setString(idx++, afterId);
+        }
+        ps.setInt(idx, CHUNK);
+        return ps;
+    }
+
+    /**
+     * 在同一事务中把 borrowTable 和借阅明细宽表 circulationView 的对应记录改为逾期。
+     */
+    private static int flip(Connection c, List<String> ids) throws SQLException {
+        StringBuilder in = new StringBuilder(" AND borrowId IN (");
+        for (int i = 0; i < ids.size(); i++) in.append(i == 0 ? "?" : ",?");
+        in.append(")");
+        int flipped;
+        try (PreparedStatement ps = c.prepareStatement("UPDATE borrowTable SET borrowStates = 2 WHERE borrowStates = 0" + in)) {
+            int idx = 1;
+            for (String id : ids) ps.setString(idx++, id);
+            flipped = ps.executeUpdate();
+        }
+        try (PreparedStatement ps = c.prepareStatement("UPDATE circulationView SET borrowStates = 2 WHERE borrowStates = 0" + in)) {
+            int idx = 1;
+            for (String id : ids) ps.setString(idx++, id);
+            ps.executeUpdate();
+        }
+        return flipped;
+    }
+
+    /**
+     * 扫描运行指标。
+     */
+    public static Map<String, Object> getStats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("intervalMs", INTERVAL_MS);
+        m.put("chunkSize", CHUNK);
+        m.put("pauseMs", PAUSE_MS);
+        LocalDate hw = highWater;
+        m.put("highWater", hw == null ? null : hw.toString());
+        m.put("running", runLock.isLocked());
+        m.put("runs", runs.get());
+        m.put("failures", failures.get());
+        m.put("lastRunAt", lastRunAt);
+        m.put("lastRunMs", lastRunMs);
+        m.put("lastRowsFlipped", lastFlipped);
+        m.put("lastChunks", lastChunks);
+        m.put("totalRowsFlipped", totalFlipped.get());
+        m.put("lastError", lastError);
+        return m;
+    }
+}
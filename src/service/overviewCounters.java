@@ -0,0 +1,259 @@
+package service;
+
+import db.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 统计概览（/api/statistics/overview）的内存计数器。
+ * <p>
+ * 启动时从数据库一次性加载，之后由 bookService / readerService / borrowService / returnService
+ * 的写方法在提交后同步增减，概览接口直接读内存，不再执行聚合查询。
+ * - totalBooks：图书总册数 SUM(bookTotalCopies)
+ * - totalReaders：读者数
+ * - borrowedNow / overdue：borrowStates = 0 的记录按 dueDate 分桶计数，已被 overdueSweeper 改为逾期（2）的记录单独计数；
+ *   borrowedNow 为两者之和，overdue 为逾期记录数加上 dueDate 早于今天的在借桶之和，
+ *   因此跨天后、扫描前逾期数也会自动变化
+ * - todayBorrows / todayReturns：按 borrowDate / returnDate 分天计数，只保留今天及以后的日期
+ * <p>
+ * 绕过服务层直接改库、其他实例的写入、以及提交与计数更新之间的竞争都可能带来偏差，
+ * 每 OVERVIEW_RECONCILE_MS 与数据库对账一次（按当前数据重新加载）。
+ */
+public class overviewCounters {
+
+    private static final long RECONCILE_MS = db.longConfig("OVERVIEW_RECONCILE_MS", 60000L);
+
+    private static final ReentrantLock lock = new ReentrantLock();
+    private static long totalBooks;
+    private static long totalReaders;
+    private static final TreeMap<LocalDate, Integer> openByDueDate = new TreeMap<>();
+    // borrowStates = 2（已标记逾期、未归还）的记录数
+    private static long overdueMarked;
+    private static final TreeMap<LocalDate, Integer> borrowsByDate = new TreeMap<>();
+    private static final TreeMap<LocalDate, Integer> returnsByDate = new TreeMap<>();
+    private static volatile boolean loaded = false;
+    private static volatile long reconciledAt = 0;
+    private static volatile long reconcileCount = 0;
+    private static volatile long lastDrift = 0;
+    private static Thread reconciler;
+
+    /**
+     * 启动时调用：加载计数并启动后台对账线程。加载失败（数据库未就绪）时在首次读取时重试。
+     */
+    public static synchronized void start() {
+        try {
+            reconcile();
+        } catch (SQLException e) {
+            System.err.println("Overview counters not loaded: " + e.getMessage());
+        }
+        if (reconciler != null || RECONCILE_MS <= 0) return;
+        reconciler = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    Thread.sleep(RECONCILE_MS);
+                    reconcile();
+                } catch (InterruptedException e) {
+                    return;
+                } catch (SQLException e) {
+                    System.err.println("Overview counters reconcile failed: " + e.getMessage());
+                }
+            }
+        }, "overview-reconciler");
+        reconciler.setDaemon(true);
+        reconciler.start();
+    }
+
+    /**
+     * 当前概览，字段与原 overview 接口一致。
+     */
+    public static Map<String, Object> snapshot() throws SQLException {
+        if (!loaded) reconcile();
+        LocalDate today = LocalDate.now();
+        Map<String, Object> m = new LinkedHashMap<>();
+        lock.lock();
+        try {
+            int borrowedNow = (int) overdueMarked;
+            for (int n : openByDueDate.values()) borrowedNow += n;
+            int overdue = (int) overdueMarked;
+            for (int n : openByDueDate.headMap(today, false).values()) overdue += n;
+            m.put("totalBooks", (int) totalBooks);
+            m.put("totalReaders", (int) totalReaders);
+            m.put("borrowedNow", borrowedNow);
+            m.put("overdue", overdue);
+            m.put("todayBorrows", borrowsByDate.getOrDefault(today, 0));
+            m.put("todayReturns", returnsByDate.getOrDefault(today, 0));
+        } finally {
+            lock.unlock();
+        }
+        return m;
+    }
+
+    /**
+     * 对账状态（最近一次对账时间、次数以及与内存值的偏差）。
+     */
+    public static Map<String, Object> getStats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("loaded", loaded);
+        m.put("reconcileIntervalMs", RECONCILE_MS);
+        m.put("reconciledAt", reconciledAt);
+        m.put("reconcileCount", reconcileCount);
+        m.put("lastDrift", lastDrift);
+        return m;
+    }
+
+    // ---- 写路径回调（均在事务提交之后调用） ----
+
+    static void bookCopiesChanged(long delta) {
+        if (delta == 0) return;
+        lock.lock();
+        try {
+            totalBooks += delta;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    static void readersChanged(long delta) {
+        lock.lock();
+        try {
+            totalReaders += delta;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 新增 count 条借阅（borrowStates = 0）。
+     */
+    static void borrowed(LocalDate borrowDate, LocalDate dueDate, int count) {
+        if (count <= 0) return;
+        lock.lock();
+        try {
+            if (dueDate != null) openByDueDate.merge(dueDate, count, Integer::sum);
+            if (borrowDate != null && !borrowDate.isBefore(LocalDate.now())) borrowsByDate.merge(borrowDate, count, Integer::sum);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 归还一条借阅记录，previousState 为归还前的 borrowStates。
+     */
+    static void returned(LocalDate returnDate, LocalDate dueDate, int previousState) {
+        lock.lock();
+        try {
+            if (previousState == 0 && dueDate != null) decrement(openByDueDate, dueDate);
+            else if (previousState == 2 && overdueMarked > 0) overdueMarked--;
+            if (returnDate != null && !returnDate.isBefore(LocalDate.now())) returnsByDate.merge(returnDate, 1, Integer::sum);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * overdueSweeper 把 dueDate 早于 before 的在借记录改为逾期状态（2）后调用：这些桶转入逾期计数。
+     */
+    static void markedOverdue(LocalDate before) {
+        lock.lock();
+        try {
+            Map<LocalDate, Integer> due = openByDueDate.headMap(before, false);
+            for (int n : due.values()) overdueMarked += n;
+            due.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void decrement(TreeMap<LocalDate, Integer> m, LocalDate key) {
+        Integer n = m.get(key);
+        if (n == null) return;
+        if (n <= 1) m.remove(key);
+        else m.put(key, n - 1);
+    }
+
+    /**
+     * 从数据库重新加载全部计数。日期条件写成范围比较，可以使用 idx_borrowDate / idx_returnDate。
+     */
+    static void reconcile() throws SQLException {
+        LocalDate today = LocalDate.now();
+        long books = 0;
+        long readers = 0;
+        TreeMap<LocalDate, Integer> open = new TreeMap<>();
+        long marked = 0;
+        TreeMap<LocalDate, Integer> borrows = new TreeMap<>();
+        TreeMap<LocalDate, Integer> returns = new TreeMap<>();
+        try (Connection c = db.getConnection()) {
+            try (PreparedStatement ps = c.prepareStatement("SELECT COALESCE(SUM(bookTotalCopies), 0) FROM bookInformation");
+                 ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) books = rs.getLong(1);
+            }
+            try (PreparedStatement ps = c.prepareStatement("SELECT COUNT(*) FROM readerInformation");
+                 ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) readers = rs.getLong(1);
+            }
+            try (PreparedStatement ps = c.prepareStatement("SELECT borrowStates, dueDate, COUNT(*) FROM borrowTable WHERE borrowStates IN (0, 2) GROUP BY borrowStates, dueDate");
+                 ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    if (rs.getInt(1) == 2) {
+                        marked += rs.getInt(3);
+                        continue;
+                    }
+                    java.sql.Date d = rs.getDate(2);
+                    if (d != null) open.put(d.toLocalDate(), rs.getInt(3));
+                }
+            }
+            loadByDate(c, "SELECT borrowDate, COUNT(*) FROM borrowTable WHERE borrowDate >= ? GROUP BY borrowDate", today, borrows);
+            loadByDate(c, "SELECT returnDate, COUNT(*) FROM returnTable WHERE returnDate >= ? GROUP BY returnDate", today, returns);
+        }
+        lock.lock();
+        try {
+            if (loaded) {
+                long drift = Math.abs(totalBooks - books) + Math.abs(totalReaders - readers) + Math.abs(overdueMarked - marked);
+                for (LocalDate d : union(openByDueDate, open)) {
+                    drift += Math.abs(openByDueDate.getOrDefault(d, 0) - open.getOrDefault(d, 0));
+                }
+                lastDrift = drift;
+            }
+            totalBooks = books;
+            totalReaders = readers;
+            openByDueDate.clear();
+            openByDueDate.putAll(open);
+            overdueMarked = marked;
+            borrowsByDate.clear();
+            borrowsByDate.putAll(borrows);
+            returnsByDate.clear();
+            returnsByDate.putAll(returns);
+            loaded = true;
+            reconciledAt = System.currentTimeMillis();
+            reconcileCount++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void loadByDate(Connection c, String sql, LocalDate from, TreeMap<LocalDate, Integer> into) throws SQLException {
+        try (PreparedStatement ps = c.prepareStatement(sql)) {
+            ps.setDate(1, java.sql.Date.valueOf(from));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    java.sql.Date d = rs.getDate(1);
+                    if (d != null) into.put(d.toLocalDate(), rs.getInt(2));
+                }
+            }
+        }
+    }
+
+    private static java.util.Set<LocalDate> union(TreeMap<LocalDate, Integer> a, TreeMap<LocalDate, Integer> b) {
+        java.util.Set<LocalDate> s = new java.util.TreeSet<>(a.keySet());
+        s.addAll(b.keySet());
+        return s;
+    }
+}
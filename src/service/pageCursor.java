@@ -0,0 +1,47 @@
+package service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * 游标分页（keyset / seek）的续页令牌。
+ * <p>
+ * 令牌对客户端不透明，内容为上一页最后一行的排序键和主键（Base64URL 编码），
+ * 服务层据此生成 "排序键 > 上次位置" 的查询条件，代价与页码无关，不再需要 OFFSET。
+ */
+public class pageCursor {
+
+    private static final char SEP = '\u0001';
+    private static final String VERSION = "1";
+
+    /**
+     * 编码续页令牌。
+     */
+    public static String encode(String... keys) {
+        StringBuilder sb = new StringBuilder(VERSION);
+        for (String k : keys) sb.append(SEP).append(k == null ? "" : k);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 解码续页令牌，返回各个键；空令牌表示第一页，返回 null。
+     *
+     * @throws IllegalArgumentException 令牌格式不正确或键数量不符
+     */
+    public static String[] decode(String token, int expectedKeys) {
+        if (token == null || token.isBlank()) return null;
+        String raw;
+        try {
+            raw = new String(Base64.getUrlDecoder().decode(token.trim()), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+        String[] parts = raw.split(String.valueOf(SEP), -1);
+        if (parts.length != expectedKeys + 1 || !VERSION.equals(parts[0])) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+        String[] keys = new String[expectedKeys];
+        System.arraycopy(parts, 1, keys, 0, expectedKeys);
+        return keys;
+    }
+}
@@ -0,0 +1,239 @@
+package service;
+
+import db.db;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLSyntaxErrorException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 列表分页查询助手：一次往返同时取当页数据和总数。
+ * <p>
+ * totalMode 取值：
+ * - exact（默认）：数据查询附带 COUNT(*) OVER ()，一条 SQL 得到数据和精确总数；
+ *   数据库不支持窗口函数（MySQL 5.7）时自动退回单独的 COUNT 查询
+ * - estimate：优先使用按过滤条件缓存的总数（COUNT_CACHE_TTL_MS 内有效），没有缓存时同 exact
+ * - none：不计算总数，多取一行判断是否还有下一页（hasMore），供前端无限滚动使用
+ */
+public class pagedQuery {
+
+    public static final String EXACT = "exact";
+    public static final String ESTIMATE = "estimate";
+    public static final String NONE = "none";
+
+    private static final long COUNT_CACHE_TTL_MS = db.longConfig("COUNT_CACHE_TTL_MS", 30000L);
+    private static final int COUNT_CACHE_SIZE = 256;
+    private static volatile boolean windowFunctions = Boolean.parseBoolean(db.config("DB_WINDOW_FUNCTIONS", "true"));
+
+    private static final ReentrantLock cacheLock = new ReentrantLock();
+    private static final Map<String, long[]> countCache = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, long[]> eldest) {
+            return size() > COUNT_CACHE_SIZE;
+        }
+    };
+
+    /**
+     * 行映射函数（与各服务类中的 mapRowToXxx 对应）。
+     */
+    interface rowMapper<T> {
+        T map(ResultSet rs) throws SQLException;
+    }
+
+    /**
+     * 流式查询的逐行回调（通常直接写入 HTTP 响应）。
+     */
+    public interface rowSink<T> {
+        void accept(T row) throws IOException;
+    }
+
+    // MySQL Connector/J 中 fetchSize = Integer.MIN_VALUE 表示逐行流式读取，不把整个结果集缓存在内存中
+    private static final int STREAM_FETCH_SIZE = db.intConfig("DB_STREAM_FETCH_SIZE", Integer.MIN_VALUE);
+
+    /**
+     * 规范化 totalMode 参数，未知取值按 exact 处理。
+     */
+    public static String normalizeMode(String totalMode) {
+        if (ESTIMATE.equalsIgnoreCase(totalMode)) return ESTIMATE;
+        if (NONE.equalsIgnoreCase(totalMode)) return NONE;
+        return EXACT;
+    }
+
+    /**
+     * 执行分页查询。
+     *
+     * @param columns   SELECT 列表（不含 SELECT 关键字）
+     * @param fromWhere FROM ... WHERE ... 部分，参数占位符对应 params
+     * @param countFrom 计算总数用的 FROM ... WHERE ...（可省去不影响行数的 JOIN），参数与 params 相同
+     * @param orderBy   ORDER BY 子句（含关键字），可为空串
+     * @param cacheKey  estimate 模式下缓存总数的键（应包含所有过滤条件）
+     * @return 包含 items、total（none 模式为 hasMore）的 Map
+     */
+    static <T> Map<String, Object> fetch(String columns, String fromWhere, String countFrom, List<Object> params, String orderBy,
+                                         int offset, int limit, String totalMode, String cacheKey, rowMapper<T> mapper) throws SQLException {
+        String mode = normalizeMode(totalMode);
+        Map<String, Object> data = new HashMap<>();
+        List<T> items = new ArrayList<>();
+
+        if (NONE.equals(mode)) {
+            List<Object> p = new ArrayList<>(params);
+            p.add(limit + 1);
+            p.add(offset);
+            try (Connection c = db.getConnection();
+                 PreparedStatement ps = c.prepareStatement("SELECT " + columns + " " + fromWhere + " " + orderBy + " LIMIT ? OFFSET ?")) {
+                bind(ps, p);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) items.add(mapper.map(rs));
+                }
+            }
+            boolean hasMore = items.size() > limit;
+            if (hasMore) items.remove(items.size() - 1);
+            data.put("items", items);
+            data.put("hasMore", hasMore);
+            return data;
+        }
+
+        Long cached = ESTIMATE.equals(mode) ? cachedCount(cacheKey) : null;
+        boolean useWindow = cached == null && windowFunctions;
+        List<Object> p = new ArrayList<>(params);
+        p.add(limit);
+        p.add(offset);
+        long total = -1;
+        boolean retryWithoutWindow = false;
+        try (Connection c = db.getConnection()) {
+            String sql = "SELECT " + columns + (useWindow ? ", COUNT(*) OVER () AS totalCount " : " ") + fromWhere + " " + orderBy + " LIMIT ? OFFSET ?";
+            try (PreparedStatement ps = c.prepareStatement(sql)) {
+                bind(ps, p);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        if (useWindow && total < 0) total = rs.getLong("totalCount");
+                        items.add(mapper.map(rs));
+                    }
+                }
+            } catch (SQLSyntaxErrorException se) {
+                if (!useWindow) throw se;
+                // 不支持窗口函数，之后都使用单独的 COUNT 查询
+                windowFunctions = false;
+                retryWithoutWindow = true;
+            }
+            if (!retryWithoutWindow) {
+                if (cached != null) {
+                    total = cached;
+                } else if (total < 0) {
+                    // 窗口函数在当页为空（页码越界）或不可用时拿不到总数，补一次 COUNT
+                    total = count(c, countFrom, params);
+                }
+            }
+        }
+        if (retryWithoutWindow) {
+            return fetch(columns, fromWhere, countFrom, params, orderBy, offset, limit, totalMode, cacheKey, mapper);
+        }
+        if (cached == null) putCount(cacheKey, total);
+        data.put("items", items);
+        data.put("total", (int) total);
+        return data;
+    }
+
+    /**
+     * 按 totalMode 计算总数（游标分页使用）。none 模式返回 null。
+     */
+    static Integer total(String countFrom, List<Object> params, String totalMode, String cacheKey) throws SQLException {
+        String mode = normalizeMode(totalMode);
+        if (NONE.equals(mode)) return null;
+        if (ESTIMATE.equals(mode)) {
+            Long cached = cachedCount(cacheKey);
+            if (cached != null) return cached.intValue();
+        }
+        long total;
+        try (Connection c = db.getConnection()) {
+            total = count(c, countFrom, params);
+        }
+        putCount(cacheKey, total);
+        return (int) total;
+    }
+
+    private static long count(Connection c, String countFrom, List<Object> params) throws SQLException {
+        try (PreparedStatement ps = c.prepareStatement("SELECT COUNT(*) " + countFrom)) {
+            bind(ps, params);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) return rs.getLong(1);
+            }
+        }
+        return 0;
+    }
+
+    private static Long cachedCount(String key) {
+        if (key == null) return null;
+        cacheLock.lock();
+        try {
+            long[] e = countCache.get(key);
+            if (e == null || System.currentTimeMillis() - e[1] > COUNT_CACHE_TTL_MS) return null;
+            return e[0];
+        } finally {
+            cacheLock.unlock();
+        }
+    }
+
+    private static void putCount(String key, long total) {
+        if (key == null) return;
+        cacheLock.lock();
+        try {
+            countCache.put(key, new long[]{total, System.currentTimeMillis()});
+        } finally {
+            cacheLock.unlock();
+        }
+    }
+
+    /**
+     * 流式执行查询：每读到一行就映射并交给 sink，内存占用与结果行数无关。
+     * 读取期间一直占用连接，sink 应尽快写出（写给慢客户端时连接占用时间随之变长）。
+     *
+     * @return 写出的行数
+     */
+    static <T> int stream(String sql, List<Object> params, rowMapper<T> mapper, rowSink<? super T> sink) throws SQLException, IOException {
+        int n = 0;
+        // 显式指定 TYPE_FORWARD_ONLY / CONCUR_READ_ONLY：不走语句缓存，fetchSize 不会影响缓存中的语句
+        try (Connection c = db.getConnection();
+             PreparedStatement ps = c.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            ps.setFetchSize(STREAM_FETCH_SIZE);
+            bind(ps, params);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    sink.accept(mapper.map(rs));
+                    n++;
+                }
+            }
+        }
+        return n;
+    }
+
+    /**
+     * 按顺序绑定参数（支持 String / Integer / java.sql.Date）。
+     */
+    static void bind(PreparedStatement ps, List<Object> params) throws SQLException {
+        int idx = 1;
+        for (Object p : params) {
+            if (p instanceof Integer) ps.setInt(idx++, (Integer) p);
+            else if (p instanceof java.sql.Date) ps.setDate(idx++, (java.sql.Date) p);
+            else ps.setString(idx++, (String) p);
+        }
+    }
+
+    /**
+     * 生成 estimate 模式的缓存键。
+     */
+    static String cacheKey(String list, Object... filters) {
+        StringBuilder sb = new StringBuilder(list);
+        for (Object f : filters) sb.append('\u0001').append(f == null ? "" : f);
+        return sb.toString();
+    }
+}
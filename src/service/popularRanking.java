@@ -0,0 +1,263 @@
+package service;
+
+import db.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 热门图书排行（进程内维护，代替每次对 borrowTable 全表 GROUP BY）。
+ * <p>
+ * 每个统计窗口（全部、近 7 / 30 / 365 天）维护 bookId -> 借阅次数，以及按 (次数降序, bookId) 排序的有序集合，
+ * 取前 K 名只需遍历有序集合的前 K 个元素。借阅提交后由 borrowService 调用 recordBorrows 增量更新；
+ * 另按天保存近 365 天的借阅次数，日期前进时把移出窗口的那一天从对应窗口中减掉。
+ * <p>
+ * 与原 SQL 一致，排名依据 borrowTable 中的借阅记录数（而不是可被编辑的 borrowCount 列）。
+ * 首次查询时从数据库加载，之后每 POPULAR_RANKING_REFRESH_MS 全量重建一次，兜底其他实例或直接改库的写入；
+ * 重建只在一个后台线程中进行，期间查询继续使用当前排行。
+ */
+public class popularRanking {
+
+    private static final long REFRESH_MS = db.longConfig("POPULAR_RANKING_REFRESH_MS", 600000L);
+    private static final int MAX_WINDOW_DAYS = 365;
+    private static final long RETRY_MS = 5000L;
+
+    /**
+     * 支持的窗口天数，0 表示全部历史。
+     */
+    public static final int[] WINDOWS = {0, 7, 30, 365};
+
+    private static final ReentrantLock lock = new ReentrantLock();
+    private static final Map<Integer, ranking> rankings = new HashMap<>();
+    // 借阅日期 -> (bookId -> 次数)，只保留最大窗口内的日期
+    private static final TreeMap<LocalDate, Map<String, Integer>> daily = new TreeMap<>();
+    private static LocalDate windowDay;
+    private static volatile boolean loaded = false;
+    private static volatile long loadedAt = 0;
+    private static volatile long lastAttemptAt = 0;
+    private static volatile String lastError;
+    private static final AtomicBoolean refreshing = new AtomicBoolean(false);
+
+    /**
+     * 单个窗口的排行。
+     */
+    private static final class ranking {
+        final Map<String, Integer> counts = new HashMap<>();
+        final TreeSet<entry> ordered = new TreeSet<>();
+
+        void add(String bookId, int delta) {
+            if (delta == 0) return;
+            Integer old = counts.get(bookId);
+            int now = (old == null ? 0 : old) + delta;
+            if (old != null) ordered.remove(new entry(bookId, old));
+            if (now > 0) {
+                counts.put(bookId, now);
+                ordered.add(new entry(bookId, now));
+            } else {
+                counts.remove(bookId);
+            }
+        }
+
+        void clear() {
+            counts.clear();
+            ordered.clear();
+        }
+    }
+
+    private static final class entry implements Comparable<entry> {
+        final String bookId;
+        final int count;
+
+        entry(String bookId, int count) {
+            this.bookId = bookId;
+            this.count = count;
+        }
+
+        @Override
+        public int compareTo(entry o) {
+            if (count != o.count) return Integer.compare(o.count, count);
+            return bookId.compareTo(o.bookId);
+        }
+    }
+
+    /**
+     * 取排行前 top 名的 bookId 和借阅次数（按次数降序）。
+     *
+     * @param days 窗口天数，取值见 WINDOWS
+     * @throws IllegalArgumentException days 不是支持的窗口
+     */
+    static List<Map.Entry<String, Integer>> top(int top, int days) throws SQLException {
+        if (!isWindow(days)) throw new IllegalArgumentException("Unsupported window: " + days);
+        ensureLoaded();
+        List<Map.Entry<String, Integer>> list = new ArrayList<>();
+        lock.lock();
+        try {
+            advanceLocked(LocalDate.now());
+            Iterator<entry> it = rankings.get(days).ordered.iterator();
+            while (it.hasNext() && list.size() < top) {
+                entry e = it.next();
+                list.add(Map.entry(e.bookId, e.count));
+            }
+        } finally {
+            lock.unlock();
+        }
+        return list;
+    }
+
+    /**
+     * 借阅提交后调用：perBook 为本次每本书借出的册数。
+     */
+    static void recordBorrows(Map<String, Integer> perBook, LocalDate borrowDate) {
+        if (!loaded || borrowDate == null) return;
+        lock.lock();
+        try {
+            advanceLocked(LocalDate.now());
+            for (Map.Entry<String, Integer> e : perBook.entrySet()) {
+                addLocked(e.getKey(), borrowDate, e.getValue());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    static boolean isWindow(int days) {
+        for (int w : WINDOWS) if (w == days) return true;
+        return false;
+    }
+
+    private static void addLocked(String bookId, LocalDate borrowDate, int n) {
+        rankings.get(0).add(bookId, n);
+        if (borrowDate.isBefore(windowDay.minusDays(MAX_WINDOW_DAYS - 1))) return;
+        daily.computeIfAbsent(borrowDate, k -> new HashMap<>()).merge(bookId, n, Integer::sum);
+        for (int w : WINDOWS) {
+            if (w > 0 && !borrowDate.isBefore(windowDay.minusDays(w - 1))) rankings.get(w).add(bookId, n);
+        }
+    }
+
+    /**
+     * 日期前进到 today：把移出各窗口的日期从对应排行中减掉。
+     */
+    private static void advanceLocked(LocalDate today) {
+        if (!today.isAfter(windowDay)) return;
+        for (int w : WINDOWS) {
+            if (w == 0) continue;
+            LocalDate oldStart = windowDay.minusDays(w - 1);
+            LocalDate newStart = today.minusDays(w - 1);
+            ranking r = rankings.get(w);
+            for (Map.Entry<LocalDate, Map<String, Integer>> day : daily.subMap(oldStart, true, newStart, false).entrySet()) {
+                for (Map.Entry<String, Integer> e : day.getValue().entrySet()) r.add(e.getKey(), -e.getValue());
+            }
+        }
+        daily.headMap(today.minusDays(MAX_WINDOW_DAYS - 1), false).clear();
+        windowDay = today;
+    }
+
+    /**
+     * 尚未加载时同步加载（并发的首次查询只加载一次）；已加载但过期时触发后台重建并立即返回。
+     */
+    private static void ensureLoaded() throws SQLException {
+        if (!loaded) {
+            synchronized (popularRanking.class) {
+                if (!loaded) load();
+            }
+            return;
+        }
+        if (System.currentTimeMillis() - loadedAt >= REFRESH_MS) refreshInBackground();
+    }
+
+    private static void refreshInBackground() {
+        if (System.currentTimeMillis() - lastAttemptAt < RETRY_MS) return;
+        if (!refreshing.compareAndSet(false, true)) return;
+        lastAttemptAt = System.currentTimeMillis();
+        Thread t = new Thread(() -> {
+            try {
+                load();
+                lastError = null;
+            } catch (SQLException e) {
+                lastError = e.getMessage();
+                System.err.println("Popular ranking refresh failed: " + e.getMessage());
+            } finally {
+                refreshing.set(false);
+            }
+        }, "popular-ranking-refresh");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * 从数据库读取全部窗口的借阅次数（不持有锁），然后在锁内整体替换内存中的排行。
+     */
+    private static void load() throws SQLException {
+        LocalDate today = LocalDate.now();
+        Map<String, Integer> all = new HashMap<>();
+        List<Object[]> recent = new ArrayList<>();
+        try (Connection c = db.getConnection()) {
+            try (PreparedStatement ps = c.prepareStatement("SELECT bookId, COUNT(*) FROM borrowTable GROUP BY bookId");
+                 ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) all.put(rs.getString(1), rs.getInt(2));
+            }
+            // 走 idx_borrowDate 范围扫描，只读最大窗口内的记录
+            try (PreparedStatement ps = c.prepareStatement("SELECT bookId, borrowDate, COUNT(*) FROM borrowTable WHERE borrowDate >= ? GROUP BY bookId, borrowDate")) {
+                ps.setDate(1, java.sql.Date.valueOf(today.minusDays(MAX_WINDOW_DAYS - 1)));
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) recent.add(new Object[]{rs.getString(1), rs.getDate(2).toLocalDate(), rs.getInt(3)});
+                }
+            }
+        }
+        lock.lock();
+        try {
+            for (int w : WINDOWS) rankings.computeIfAbsent(w, k -> new ranking()).clear();
+            daily.clear();
+            windowDay = today;
+            for (Map.Entry<String, Integer> e : all.entrySet()) rankings.get(0).add(e.getKey(), e.getValue());
+            for (Object[] row : recent) {
+                String bookId = (String) row[0];
+                LocalDate d = (LocalDate) row[1];
+                int n = (Integer) row[2];
+                daily.computeIfAbsent(d, k -> new HashMap<>()).merge(bookId, n, Integer::sum);
+                for (int w : WINDOWS) {
+                    if (w > 0 && !d.isBefore(today.minusDays(w - 1))) rankings.get(w).add(bookId, n);
+                }
+            }
+            loaded = true;
+            loadedAt = System.currentTimeMillis();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 各窗口的上榜图书数和加载时间。
+     */
+    public static Map<String, Object> getStats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        lock.lock();
+        try {
+            m.put("loaded", loaded);
+            m.put("loadedAt", loadedAt);
+            m.put("refreshing", refreshing.get());
+            m.put("lastError", lastError);
+            m.put("days", daily.size());
+            for (int w : WINDOWS) {
+                ranking r = rankings.get(w);
+                m.put(w == 0 ? "books" : "books" + w + "d", r == null ? 0 : r.counts.size());
+            }
+        } finally {
+            lock.unlock();
+        }
+        return m;
+    }
+}
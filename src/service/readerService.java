@@ -1,6 +1,7 @@
 package service;
 
 import db.db;
+import db.sequenceAllocator;
 import entity.readerInformation;
 
 import java.sql.Connection;
@@ -9,7 +10,9 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * 读者相关服务（JDBC 简单实现）
@@ -39,6 +42,72 @@ public class readerService {
         return list;
     }
 
+    /**
+     * 读者列表分页：数据和总数一次往返取回（见 pagedQuery）。
+     * @param totalMode exact / estimate / none
+     * @return 包含 items 和 total（none 模式为 hasMore）的 Map
+     */
+    public static Map<String, Object> listReadersPage(int offset, int limit, String search, String totalMode) throws SQLException {
+        List<Object> params = new ArrayList<>();
+        StringBuilder from = new StringBuilder("FROM readerInformation WHERE 1=1");
+        if (search != null && !search.isBlank()) {
+            from.append(" AND (readerName LIKE ? OR readerCardNumber LIKE ?)");
+            String s = "%" + search + "%";
+            params.add(s);
+            params.add(s);
+        }
+        return pagedQuery.fetch("*", from.toString(), from.toString(), params, "", offset, limit, totalMode,
+                pagedQuery.cacheKey("readers", search), readerService::mapRowToReader);
+    }
+
+    /**
+     * 按 totalMode 统计读者总数（游标分页使用），none 模式返回 null。
+     */
+    public static Integer countReaders(String search, String totalMode) throws SQLException {
+        if (pagedQuery.EXACT.equals(pagedQuery.normalizeMode(totalMode))) return countReaders(search);
+        List<Object> params = new ArrayList<>();
+        StringBuilder from = new StringBuilder("FROM readerInformation WHERE 1=1");
+        if (search != null && !search.isBlank()) {
+            from.append(" AND (readerName LIKE ? OR readerCardNumber LIKE ?)");
+            String s = "%" + search + "%";
+            params.add(s);
+            params.add(s);
+        }
+        return pagedQuery.total(from.toString(), params, totalMode, pagedQuery.cacheKey("readers", search));
+    }
+
+    /**
+     * 读者列表的游标分页（按主键 readerId 顺序 seek）。
+     * @return 包含 items 和 nextCursor（没有下一页时为 null）的 Map
+     */
+    public static Map<String, Object> listReadersAfter(String cursor, int limit, String search) throws SQLException {
+        String[] after = pageCursor.decode(cursor, 1);
+        List<readerInformation> list = new ArrayList<>();
+        StringBuilder sql = new StringBuilder("SELECT * FROM readerInformation WHERE 1=1");
+        if (search != null && !search.isBlank()) sql.append(" AND (readerName LIKE ? OR readerCardNumber LIKE ?)");
+        if (after != null) sql.append(" AND readerId > ?");
+        sql.append(" ORDER BY readerId LIMIT ?");
+
+        try (Connection c = db.getConnection(); PreparedStatement ps = c.prepareStatement(sql.toString())) {
+            int idx = 1;
+            if (search != null && !search.isBlank()) {
+                String s = "%" + search + "%";
+                ps.setString(idx++, s);
+                ps.setString(idx++, s);
+            }
+            if (after != null) ps.setString(idx++, after[0]);
+            ps.setInt(idx, limit);
+
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) list.add(mapRowToReader(rs));
+            }
+        }
+        Map<String, Object> data = new HashMap<>();
+        data.put("items", list);
+        data.put("nextCursor", list.size() == limit && limit > 0 ? pageCursor.encode(list.get(list.size() - 1).getReaderId()) : null);
+        return data;
+    }
+
     public static readerInformation getReaderById(String readerId) throws SQLException {
         String sql = "SELECT * FROM readerInformation WHERE readerId = ?";
         try (Connection c = db.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
@@ -74,6 +143,8 @@ public class readerService {
             if (readerId == null || readerId.trim().isEmpty()) {
                 readerId = generateReaderId(r.getRegisterDate() != null ? r.getRegisterDate() : java.time.LocalDate.now());
                 r.setReaderId(readerId);
+            } else {
+                advanceReaderIdPast(readerId);
             }
             
             ps.setString(1, readerId);
@@ -86,24 +157,48 @@ public class readerService {
             ps.setInt(7, r.getReaderStatus());
             ps.setInt(8, r.getMaxBorrowNumber()); // 修改为正确的getter方法
             ps.setInt(9, r.getNowBorrowNumber());
-            return ps.executeUpdate() == 1;
+            boolean ok = ps.executeUpdate() == 1;
+            if (ok) overviewCounters.readersChanged(1);
+            return ok;
         }
     }
 
     public static boolean updateReader(readerInformation r) throws SQLException {
         String sql = "UPDATE readerInformation SET readerName=?, readerCardType=?, readerCardNumber=?, readerPhoneNumber=?, registerDate=?, readerStatus=?, totalBorrowNumber=?, nowBorrowNumber=? WHERE readerId=?";
-        try (Connection c = db.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
-            ps.setString(1, r.getReaderName());
-            ps.setString(2, r.getReaderCardType());
-            ps.setString(3, r.getReaderCardNumber());
-            ps.setString(4, r.getReaderPhoneNumber());
-            LocalDate d = r.getRegisterDate();
-            if (d != null) ps.setDate(5, java.sql.Date.valueOf(d)); else ps.setDate(5, null);
-            ps.setInt(6, r.getReaderStatus());
-            ps.setInt(7, r.getMaxBorrowNumber()); // 修改为正确的getter方法
-            ps.setInt(8, r.getNowBorrowNumber());
-            ps.setString(9, r.getReaderId());
-            return ps.executeUpdate() == 1;
+        // 读者姓名冗余在借阅明细宽表中，与读者信息在同一事务内修改
+        try (Connection c = db.getConnection()) {
+            try {
+                c.setAutoCommit(false);
+                boolean ok;
+                try (PreparedStatement ps = c.prepareStatement(sql)) {
+                    ps.setString(1, r.getReaderName());
+                    ps.setString(2, r.getReaderCardType());
+                    ps.setString(3, r.getReaderCardNumber());
+                    ps.setString(4, r.getReaderPhoneNumber());
+                    LocalDate d = r.getRegisterDate();
+                    if (d != null) ps.setDate(5, java.sql.Date.valueOf(d)); else ps.setDate(5, null);
+                    ps.setInt(6, r.getReaderStatus());
+                    ps.setInt(7, r.getMaxBorrowNumber()); // 修改为正确的getter方法
+                    ps.setInt(8, r.getNowBorrowNumber());
+                    ps.setString(9, r.getReaderId());
+                    ok = ps.executeUpdate() == 1;
+                }
+                if (ok) {
+                    try (PreparedStatement pv = c.prepareStatement(circulationView.RENAME_READER)) {
+                        pv.setString(1, r.getReaderName());
+                        pv.setString(2, r.getReaderId());
+                        pv.setString(3, r.getReaderName());
+                        pv.executeUpdate();
+                    }
+                }
+                c.commit();
+                return ok;
+            } catch (SQLException ex) {
+                c.rollback();
+                throw ex;
+            } finally {
+                c.setAutoCommit(true);
+            }
         }
     }
 
@@ -124,7 +219,9 @@ public class readerService {
         String sql = "DELETE FROM readerInformation WHERE readerId = ?";
         try (Connection c = db.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
             ps.setString(1, readerId);
-            return ps.executeUpdate() == 1;
+            boolean ok = ps.executeUpdate() == 1;
+            if (ok) overviewCounters.readersChanged(-1);
+            return ok;
         }
     }
 
@@ -146,6 +243,14 @@ public class readerService {
         return 0;
     }
 
+    /**
+     * 导出全部读者（按 readerId 顺序逐行写给 sink）。
+     * @return 写出的行数
+     */
+    public static int exportReaders(pagedQuery.rowSink<? super readerInformation> sink) throws SQLException, java.io.IOException {
+        return pagedQuery.stream("SELECT * FROM readerInformation ORDER BY readerId", new ArrayList<>(), readerService::mapRowToReader, sink);
+    }
+
     private static readerInformation mapRowToReader(ResultSet rs) throws SQLException {
         readerInformation r = new readerInformation();
         r.setReaderId(rs.getString("readerId"));
@@ -162,32 +267,25 @@ public class readerService {
         return r;
     }
 
+    // 读者号序列（idSequence 中的名称），单条新增和批量导入共用
+    static final String READER_ID_SEQ = "readerInformation.readerId";
+
     /**
      * Generate readerId in format: 1001, 1002, 1003... (simple incrementing numbers)
+     * 序号由 sequenceAllocator 分配，不再每次扫描 MAX(readerId)。
      */
     private static String generateReaderId(LocalDate registerDate) throws SQLException {
-        // Get the maximum readerId from the database
-        String maxIdSql = "SELECT MAX(readerId) FROM readerInformation";
-        try (Connection conn = db.getConnection(); 
-             PreparedStatement ps = conn.prepareStatement(maxIdSql)) {
-            try (ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) {
-                    String maxId = rs.getString(1);
-                    if (maxId != null) {
-                        // Parse the current maximum ID and increment by 1
-                        try {
-                            int currentMax = Integer.parseInt(maxId);
-                            return String.valueOf(currentMax + 1);
-                        } catch (NumberFormatException e) {
-                            // If parsing fails, start from 1001
-                            return "1001";
-                        }
-                    }
-                }
-            }
-        }
-        // Default starting point if no records exist
-        return "1001";
+        return String.valueOf(sequenceAllocator.reserveNumeric(READER_ID_SEQ, "readerInformation", "readerId", 1001, 1, 0));
+    }
+
+    /**
+     * 新增时自带纯数字读者号的，把序列推进到该编号之后。
+     *
+     * @throws IllegalArgumentException 编号距下一个序号超过 ID_SEQUENCE_MAX_ADVANCE
+     */
+    static void advanceReaderIdPast(String readerId) throws SQLException {
+        long n = bookService.numericId(readerId);
+        if (n > 0) sequenceAllocator.reserveNumeric(READER_ID_SEQ, "readerInformation", "readerId", 1001, 0, n + 1);
     }
 
 }
\ No newline at end of file
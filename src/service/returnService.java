@@ -1,6 +1,7 @@
 package service;
 
 import db.db;
+import db.sequenceAllocator;
 import entity.returnTable;
 
 import java.sql.*;
@@ -13,8 +14,11 @@ import java.time.temporal.ChronoUnit;
  */
 public class returnService {
 
+    // 每次向 idSequence 预留的归还号个数（按天编号，只有 3 位，号段不宜过大）
+    private static final int RETURN_ID_BLOCK_SIZE = db.intConfig("RETURN_ID_BLOCK_SIZE", 5);
+
     /**
-     * 为给定 borrowId 创建归还记录，并更新 borrowTable、bookInformation、readerInformation。
+     * 为给定 borrowId 创建归还记录，并更新 borrowTable、bookInformation、readerInformation 和借阅明细宽表 circulationView。
      * 计罚规则：每超期一天罚款 1（单位与表设计中的 int/double 一致请按需修改）。
      * 返回新创建的 returnId（数据库自增）。
      */
@@ -77,6 +81,12 @@ public class returnService {
                     ub.executeUpdate();
                 }
 
+                try (PreparedStatement uv = conn.prepareStatement(circulationView.MARK_RETURNED)) {
+                    uv.setDate(1, java.sql.Date.valueOf(returnDate));
+                    uv.setString(2, borrowId);
+                    uv.executeUpdate();
+                }
+
                 try (PreparedStatement ubk = conn.prepareStatement(updateBook)) {
                     ubk.setString(1, bookId);
                     ubk.executeUpdate();
@@ -88,6 +98,8 @@ public class returnService {
                 }
 
                 conn.commit();
+                catalogCache.invalidate(bookId);
+                overviewCounters.returned(returnDate, dueDate, status);
                 return returnId;
             } catch (SQLException ex) {
                 conn.rollback();
@@ -120,84 +132,125 @@ public class returnService {
     /**
      * Batch return processing with fine amount support.
      * If fineAmounts map is provided, use the specified fine amounts; otherwise calculate automatically.
+     * 借阅记录用一条 IN 查询加锁读取，归还记录、状态更新和宽表更新通过 addBatch/executeBatch 提交，
+     * 同一本书/同一读者的计数只更新一次（+N / -N）。
      */
     public static java.util.List<java.util.Map<String, Object>> createReturnBatch(java.util.List<String> borrowIds, LocalDate returnDate, java.util.Map<String, Double> fineAmounts) throws SQLException {
+        String insertReturn = "INSERT INTO returnTable (returnId, borrowId, returnDate, overDays, fine) VALUES (?,?,?,?,?)";
+        String updateBorrow = "UPDATE borrowTable SET borrowStates = ? WHERE borrowId = ?";
+        String updateBook = "UPDATE bookInformation SET bookAvailableCopies = bookAvailableCopies + ? WHERE bookId = ?";
+        String updateReader = "UPDATE readerInformation SET nowBorrowNumber = GREATEST(0, nowBorrowNumber - ?) WHERE readerId = ?";
+
+        java.util.List<java.util.Map<String, Object>> results = new java.util.ArrayList<>();
+        if (borrowIds == null || borrowIds.isEmpty()) return results;
+
+        // 同一批次中的重复 borrowId 在加锁读取之前直接拒绝
+        java.util.Set<String> seen = new java.util.HashSet<>();
+        for (String borrowId : borrowIds) {
+            if (!seen.add(borrowId)) throw new SQLException("Duplicate borrowId in batch: " + borrowId);
+        }
+
+        StringBuilder selectBorrow = new StringBuilder("SELECT borrowId, bookId, readerId, dueDate, borrowStates FROM borrowTable WHERE borrowId IN (");
+        for (int i = 0; i < borrowIds.size(); i++) selectBorrow.append(i == 0 ? "?" : ",?");
+        selectBorrow.append(") ORDER BY borrowId FOR UPDATE");
+
         try (Connection conn = db.getConnection()) {
             try {
                 conn.setAutoCommit(false);
-                java.util.List<java.util.Map<String, Object>> results = new java.util.ArrayList<>();
-                for (String borrowId : borrowIds) {
-                    String selectBorrow = "SELECT borrowId, bookId, readerId, dueDate, borrowStates FROM borrowTable WHERE borrowId = ? FOR UPDATE";
-                    String insertReturn = "INSERT INTO returnTable (returnId, borrowId, returnDate, overDays, fine) VALUES (?,?,?,?,?)";
-                    String updateBorrow = "UPDATE borrowTable SET borrowStates = ? WHERE borrowId = ?";
-                    String updateBook = "UPDATE bookInformation SET bookAvailableCopies = bookAvailableCopies + 1 WHERE bookId = ?";
-                    String updateReader = "UPDATE readerInformation SET nowBorrowNumber = GREATEST(0, nowBorrowNumber - 1) WHERE readerId = ?";
-
-                    String bookId;
-                    String readerId;
-                    LocalDate dueDate;
-                    int status;
-
-                    try (PreparedStatement ps = conn.prepareStatement(selectBorrow)) {
-                        ps.setString(1, borrowId);
-                        try (ResultSet rs = ps.executeQuery()) {
-                            if (!rs.next()) throw new SQLException("Borrow record not found: " + borrowId);
-                            status = rs.getInt("borrowStates");
-                            bookId = rs.getString("bookId");
-                            readerId = rs.getString("readerId");
+
+                java.util.Map<String, String[]> rows = new java.util.HashMap<>(); // borrowId -> {bookId, readerId}
+                java.util.Map<String, LocalDate> dueDates = new java.util.HashMap<>();
+                java.util.Map<String, Integer> states = new java.util.HashMap<>();
+                try (PreparedStatement ps = conn.prepareStatement(selectBorrow.toString())) {
+                    int idx = 1;
+                    for (String borrowId : borrowIds) ps.setString(idx++, borrowId);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            String id = rs.getString("borrowId");
+                            rows.put(id, new String[]{rs.getString("bookId"), rs.getString("readerId")});
+                            states.put(id, rs.getInt("borrowStates"));
                             java.sql.Date dd = rs.getDate("dueDate");
-                            if (dd != null) dueDate = dd.toLocalDate(); else dueDate = null;
+                            dueDates.put(id, dd != null ? dd.toLocalDate() : null);
                         }
                     }
+                }
 
-                    // Allow both borrowed (0) and overdue (2) books to be returned
-                    if (status != 0 && status != 2) throw new SQLException("Borrow record is not in borrowable state: " + status);
+                java.util.Map<String, Integer> perBook = new java.util.LinkedHashMap<>();
+                java.util.Map<String, Integer> perReader = new java.util.LinkedHashMap<>();
+                try (PreparedStatement ir = conn.prepareStatement(insertReturn);
+                     PreparedStatement ub = conn.prepareStatement(updateBorrow);
+                     PreparedStatement uv = conn.prepareStatement(circulationView.MARK_RETURNED)) {
+                    java.sql.Date rd = java.sql.Date.valueOf(returnDate);
+                    for (String borrowId : borrowIds) {
+                        String[] row = rows.get(borrowId);
+                        if (row == null) throw new SQLException("Borrow record not found: " + borrowId);
+                        int status = states.get(borrowId);
+                        // Allow both borrowed (0) and overdue (2) books to be returned
+                        if (status != 0 && status != 2) throw new SQLException("Borrow record is not in borrowable state: " + status);
 
-                    long overDays = 0;
-                    if (dueDate != null && returnDate != null) {
-                        overDays = java.time.temporal.ChronoUnit.DAYS.between(dueDate, returnDate);
-                        if (overDays < 0) overDays = 0;
-                    }
-                    // Use the fine amount passed from frontend, or calculate if not provided
-                    double fine = overDays * 1.0; // Default calculation if not provided
+                        LocalDate dueDate = dueDates.get(borrowId);
+                        long overDays = 0;
+                        if (dueDate != null && returnDate != null) {
+                            overDays = ChronoUnit.DAYS.between(dueDate, returnDate);
+                            if (overDays < 0) overDays = 0;
+                        }
+                        // Use the fine amount passed from frontend, or calculate if not provided
+                        double fine = overDays * 1.0; // Default calculation if not provided
 
-                    // Generate returnId in format: RT + yyyyMMdd + sequence number
-                    String returnIdStr = generateReturnId(returnDate);
-                    long returnId;
-                    try (PreparedStatement ir = conn.prepareStatement(insertReturn)) {
+                        // Generate returnId in format: RT + yyyyMMdd + sequence number
+                        String returnIdStr = generateReturnId(returnDate);
                         ir.setString(1, returnIdStr);
                         ir.setString(2, borrowId);
-                        ir.setDate(3, java.sql.Date.valueOf(returnDate));
+                        ir.setDate(3, rd);
                         ir.setLong(4, overDays);
                         ir.setDouble(5, fine);
-                        int r = ir.executeUpdate();
-                        if (r != 1) throw new SQLException("Insert return failed");
-                        returnId = Long.parseLong(returnIdStr.substring(10)); // Extract sequence number
-                    }
+                        ir.addBatch();
 
-                    try (PreparedStatement ub = conn.prepareStatement(updateBorrow)) {
-                        ub.setInt(1, 1);
+                        ub.setInt(1, 1); // 1 表示已归还
                         ub.setString(2, borrowId);
-                        ub.executeUpdate();
-                    }
+                        ub.addBatch();
+
+                        uv.setDate(1, rd);
+                        uv.setString(2, borrowId);
+                        uv.addBatch();
 
-                    try (PreparedStatement ubk = conn.prepareStatement(updateBook)) {
-                        ubk.setString(1, bookId);
-                        ubk.executeUpdate();
+                        perBook.merge(row[0], 1, Integer::sum);
+                        perReader.merge(row[1], 1, Integer::sum);
+
+                        java.util.Map<String, Object> item = new java.util.HashMap<>();
+                        item.put("borrowId", borrowId);
+                        item.put("returnId", Long.parseLong(returnIdStr.substring(10))); // Extract sequence number
+                        item.put("fine", fine);
+                        results.add(item);
                     }
+                    borrowService.checkBatch(ir.executeBatch(), "Insert return failed");
+                    ub.executeBatch();
+                    uv.executeBatch();
+                }
 
-                    try (PreparedStatement ur = conn.prepareStatement(updateReader)) {
-                        ur.setString(1, readerId);
-                        ur.executeUpdate();
+                try (PreparedStatement ubk = conn.prepareStatement(updateBook)) {
+                    for (java.util.Map.Entry<String, Integer> e : perBook.entrySet()) {
+                        ubk.setInt(1, e.getValue());
+                        ubk.setString(2, e.getKey());
+                        ubk.addBatch();
                     }
+                    ubk.executeBatch();
+                }
 
-                    java.util.Map<String, Object> item = new java.util.HashMap<>();
-                    item.put("borrowId", borrowId);
-                    item.put("returnId", returnId);
-                    item.put("fine", fine);
-                    results.add(item);
+                try (PreparedStatement ur = conn.prepareStatement(updateReader)) {
+                    for (java.util.Map.Entry<String, Integer> e : perReader.entrySet()) {
+                        ur.setInt(1, e.getValue());
+                        ur.setString(2, e.getKey());
+                        ur.addBatch();
+                    }
+                    ur.executeBatch();
                 }
+
                 conn.commit();
+                catalogCache.invalidateAll(perBook.keySet());
+                for (String borrowId : borrowIds) {
+                    overviewCounters.returned(returnDate, dueDates.get(borrowId), states.get(borrowId));
+                }
                 return results;
             } catch (SQLException ex) {
                 conn.rollback();
@@ -208,6 +261,27 @@ public class returnService {
         }
     }
 
+    /**
+     * 导出还书记录，按 returnDate, returnId 升序逐行写给 sink。
+     * @param returnDateFrom 起始还书日期（含），为空表示不限
+     * @param returnDateTo   截止还书日期（含），为空表示不限
+     * @return 写出的行数
+     */
+    public static int exportReturns(String returnDateFrom, String returnDateTo, pagedQuery.rowSink<? super returnTable> sink) throws SQLException, java.io.IOException {
+        StringBuilder sql = new StringBuilder("SELECT * FROM returnTable WHERE 1=1");
+        java.util.List<Object> params = new java.util.ArrayList<>();
+        if (returnDateFrom != null && !returnDateFrom.isBlank()) {
+            sql.append(" AND returnDate >= ?");
+            params.add(java.sql.Date.valueOf(returnDateFrom));
+        }
+        if (returnDateTo != null && !returnDateTo.isBlank()) {
+            sql.append(" AND returnDate <= ?");
+            params.add(java.sql.Date.valueOf(returnDateTo));
+        }
+        sql.append(" ORDER BY returnDate, returnId");
+        return pagedQuery.stream(sql.toString(), params, returnService::mapRowToReturn, sink);
+    }
+
     private static returnTable mapRowToReturn(ResultSet rs) throws SQLException {
         returnTable r = new returnTable();
         r.setReturnId(rs.getString("returnId"));
@@ -221,26 +295,14 @@ public class returnService {
     /**
      * Generate returnId in format: RT + yyyyMMdd + sequence number (3 digits)
      * Example: RT20231201001
+     * 序号由 sequenceAllocator 按日期号段分配，并发事务和多实例之间不会重复。
      */
     private static String generateReturnId(LocalDate returnDate) throws SQLException {
         String datePart = returnDate.format(java.time.format.DateTimeFormatter.ofPattern("yyyyMMdd"));
         String prefix = "RT" + datePart;
-        
-        // Count existing returnIds for the same date to determine sequence number
-        String countSql = "SELECT COUNT(*) FROM returnTable WHERE returnId LIKE ?";
-        try (Connection conn = db.getConnection(); 
-             PreparedStatement ps = conn.prepareStatement(countSql)) {
-            ps.setString(1, prefix + "%");
-            try (ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) {
-                    int count = rs.getInt(1);
-                    // Format sequence number as 3 digits
-                    String sequence = String.format("%03d", count + 1);
-                    return prefix + sequence;
-                }
-            }
-        }
-        return prefix + "001"; // Default if count fails
+        long seq = sequenceAllocator.next(prefix, "returnTable", "returnId", prefix, RETURN_ID_BLOCK_SIZE);
+        // Format sequence number as 3 digits
+        return prefix + String.format("%03d", seq);
     }
 
 }
@@ -0,0 +1,112 @@
+package service;
+
+import db.db;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * 自包含的签名 token：base64url(载荷) + "." + base64url(HMAC-SHA256(载荷))。
+ * <p>
+ * 载荷为 "1|jti|登录时间|过期时间|用户名"，验证只需一次 HMAC 计算，不查任何共享状态，
+ * 多个服务实例只要配置相同的 AUTH_TOKEN_SECRET 就能互认 token。
+ * 未配置密钥时每次启动随机生成，重启后旧 token 全部失效，也不能跨实例使用。
+ * <p>
+ * 密钥只初始化一次，之后每次签名/验证克隆已初始化的 Mac（请求跑在虚拟线程上，ThreadLocal 缓存无效）。
+ */
+final class tokenSigner {
+
+    private static final String VERSION = "1";
+    private static final Base64.Encoder ENC = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DEC = Base64.getUrlDecoder();
+    private static final SecureRandom random = new SecureRandom();
+    private static final Mac prototype = initMac();
+
+    static final class claims {
+        final String jti;
+        final String username;
+        final long authTime;
+        final long expiresAt;
+
+        claims(String jti, String username, long authTime, long expiresAt) {
+            this.jti = jti;
+            this.username = username;
+            this.authTime = authTime;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private tokenSigner() {}
+
+    private static Mac initMac() {
+        String secret = db.config("AUTH_TOKEN_SECRET", "");
+        byte[] key;
+        if (secret.isEmpty()) {
+            key = new byte[32];
+            random.nextBytes(key);
+            System.err.println("AUTH_TOKEN_SECRET 未配置，使用随机密钥：重启后 token 失效，多实例之间不能互认");
+        } else {
+            key = secret.getBytes(StandardCharsets.UTF_8);
+            if (key.length < 32) System.err.println("AUTH_TOKEN_SECRET 少于 32 字节，建议使用更长的随机串");
+        }
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 不可用", e);
+        }
+    }
+
+    private static byte[] sign(byte[] payload) {
+        Mac mac;
+        try {
+            mac = (Mac) prototype.clone();
+        } catch (CloneNotSupportedException e) {
+            synchronized (prototype) {
+                return prototype.doFinal(payload);
+            }
+        }
+        return mac.doFinal(payload);
+    }
+
+    static String newJti() {
+        byte[] b = new byte[16];
+        random.nextBytes(b);
+        return ENC.encodeToString(b);
+    }
+
+    static String issue(String jti, String username, long authTime, long expiresAt) {
+        String payload = VERSION + "|" + jti + "|" + authTime + "|" + expiresAt + "|" + username;
+        String body = ENC.encodeToString(payload.getBytes(StandardCharsets.UTF_8));
+        return body + "." + ENC.encodeToString(sign(body.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    /**
+     * 校验签名并解析载荷（不检查过期和吊销）。格式错误或签名不符返回 null。
+     */
+    static claims verify(String token) {
+        int dot = token.indexOf('.');
+        if (dot <= 0 || dot != token.lastIndexOf('.')) return null;
+        String body = token.substring(0, dot);
+        try {
+            byte[] expected = sign(body.getBytes(StandardCharsets.US_ASCII));
+            if (!MessageDigest.isEqual(expected, DEC.decode(token.substring(dot + 1)))) return null;
+            String[] f = new String(DEC.decode(body), StandardCharsets.UTF_8).split("\\|", 5);
+            if (f.length != 5 || !VERSION.equals(f[0])) return null;
+            return new claims(f[1], f[4], Long.parseLong(f[2]), Long.parseLong(f[3]));
+        } catch (IllegalArgumentException e) {
+            // Base64 或数字格式错误
+            return null;
+        }
+    }
+
+    static boolean looksSigned(String token) {
+        return token.indexOf('.') > 0;
+    }
+}